@@ -26,4 +26,10 @@ public interface Mele {
 
     void removeDirectory(String directoryCluster, String directoryName) throws IOException;
 
+    /**
+     * Stops the background threads and closes the directory factory, the
+     * ZooKeeper session is left open.
+     */
+    void close() throws IOException;
+
 }
\ No newline at end of file
@@ -41,6 +41,10 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import com.nearinfinity.mele.replication.ReplicationIndexDeletionPolicy;
+import com.nearinfinity.mele.store.db.cache.FilePinPolicy;
+import com.nearinfinity.mele.store.db.cache.PinnedFileCache;
+import com.nearinfinity.mele.store.db.cache.PinnedFileDirectory;
+import com.nearinfinity.mele.store.warmup.WarmupService;
 import com.nearinfinity.mele.util.ZkUtils;
 import com.nearinfinity.mele.zookeeper.ZookeeperIndexDeletionPolicy;
 import com.nearinfinity.mele.zookeeper.ZookeeperWrapperDirectory;
@@ -58,6 +62,9 @@ public class MeleBase implements Watcher, MeleConstants, Mele {
     private List<String> pathList;
     private Random random = new Random();
     private MeleDirectoryFactory directoryFactory;
+    private PinnedFileCache pinnedFileCache;
+    private FilePinPolicy filePinPolicy;
+    private WarmupService warmupService;
 
     public MeleBase(MeleDirectoryFactory directoryFactory, MeleConfiguration configuration, ZooKeeper zk) throws IOException {
         this.zk = zk;
@@ -65,6 +72,19 @@ public class MeleBase implements Watcher, MeleConstants, Mele {
         this.basePath = configuration.getBaseZooKeeperPath();
         this.configuration = configuration;
         this.directoryFactory = directoryFactory;
+        long pinnedCacheSize = configuration.getPinnedCacheSize();
+        if (directoryFactory instanceof PinningMeleDirectoryFactory) {
+            PinningMeleDirectoryFactory pinningFactory = (PinningMeleDirectoryFactory) directoryFactory;
+            this.pinnedFileCache = pinningFactory.getPinnedFileCache();
+            this.filePinPolicy = pinningFactory.getFilePinPolicy();
+        } else if (pinnedCacheSize > 0) {
+            this.pinnedFileCache = new PinnedFileCache(pinnedCacheSize);
+            this.filePinPolicy = new FilePinPolicy(configuration.getPinnedFiles());
+        }
+        long profileSaveInterval = configuration.getProfileSaveInterval();
+        if (profileSaveInterval > 0) {
+            this.warmupService = new WarmupService(profileSaveInterval, configuration.getProfileMaxRegions());
+        }
     }
 
     /* (non-Javadoc)
@@ -92,7 +112,7 @@ public class MeleBase implements Watcher, MeleConstants, Mele {
         // probably should do something with zookeeper to show that this
         // process is opening the directory
         return internalOpen(directoryCluster, directoryName, localDirs, remoteDirs, 
-                pathList, configuration, zk, directoryFactory, random);
+                pathList, configuration, zk, directoryFactory, random, pinnedFileCache, filePinPolicy, warmupService);
     }
 
     /* (non-Javadoc)
@@ -204,6 +224,19 @@ public class MeleBase implements Watcher, MeleConstants, Mele {
         internalDelete(pathList, directoryCluster, directoryName);
     }
 
+    /* (non-Javadoc)
+     * @see com.nearinfinity.mele.Mele#close()
+     */
+    public void close() throws IOException {
+        try {
+            if (warmupService != null) {
+                warmupService.close();
+            }
+        } finally {
+            directoryFactory.close();
+        }
+    }
+
     @Override
     public void process(WatchedEvent event) {
         //do nothing
@@ -222,7 +255,8 @@ public class MeleBase implements Watcher, MeleConstants, Mele {
     private static Directory internalOpen(String directoryCluster, String directoryName, 
             Map<String, Map<String, Directory>> localDirs, Map<String, Map<String, Directory>> remoteDirs, 
             List<String> pathList, MeleConfiguration configuration, ZooKeeper zk, MeleDirectoryFactory directoryFactory,
-            Random random) throws IOException {
+            Random random, PinnedFileCache pinnedFileCache, FilePinPolicy filePinPolicy, WarmupService warmupService)
+            throws IOException {
         Directory dir = getFromCache(directoryCluster, directoryName, localDirs);
         if (dir != null) {
             return dir;
@@ -237,7 +271,14 @@ public class MeleBase implements Watcher, MeleConstants, Mele {
         Directory remote = directoryFactory.getDirectory(local, directoryCluster, directoryName);
         addToCache(directoryCluster, directoryName, remote, remoteDirs);
         addToCache(directoryCluster, directoryName, local, localDirs);
-        return new ZookeeperWrapperDirectory(zk, local, MeleBase.getReferencePath(configuration, directoryCluster,
+        Directory searchable = local;
+        if (pinnedFileCache != null) {
+            searchable = new PinnedFileDirectory(local, pinnedFileCache, filePinPolicy, localPath.getAbsolutePath() + "/");
+        }
+        if (warmupService != null) {
+            searchable = warmupService.open(searchable, localPath);
+        }
+        return new ZookeeperWrapperDirectory(zk, searchable, MeleBase.getReferencePath(configuration, directoryCluster,
                 directoryName), MeleBase.getLockPath(configuration, directoryCluster, directoryName));
     }
 
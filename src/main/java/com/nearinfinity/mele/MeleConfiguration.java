@@ -120,7 +120,259 @@ public class MeleConfiguration extends Properties implements MeleConstants {
     public int getCassandraPort() {
         return getPropertyInt(MELE_CASSANDRA_PORT,10);
     }
+
+    public long getCassandraRingRefreshInterval() {
+        return getPropertyLong(MELE_CASSANDRA_RING_REFRESH_INTERVAL, DEFAULT_CASSANDRA_RING_REFRESH_INTERVAL);
+    }
+
+    public void setCassandraRingRefreshInterval(long cassandraRingRefreshInterval) {
+        setPropertyLong(MELE_CASSANDRA_RING_REFRESH_INTERVAL, cassandraRingRefreshInterval);
+    }
+
+    public long getCassandraHostDownTime() {
+        return getPropertyLong(MELE_CASSANDRA_HOST_DOWN_TIME, DEFAULT_CASSANDRA_HOST_DOWN_TIME);
+    }
+
+    public void setCassandraHostDownTime(long cassandraHostDownTime) {
+        setPropertyLong(MELE_CASSANDRA_HOST_DOWN_TIME, cassandraHostDownTime);
+    }
+
+    public int getCassandraIOThreads() {
+        return getPropertyInt(MELE_CASSANDRA_IO_THREADS, DEFAULT_CASSANDRA_IO_THREADS);
+    }
+
+    public void setCassandraIOThreads(int cassandraIOThreads) {
+        setPropertyInt(MELE_CASSANDRA_IO_THREADS, cassandraIOThreads);
+    }
+
+    public String getCassandraWriteConsistency() {
+        return getProperty(MELE_CASSANDRA_WRITE_CONSISTENCY, DEFAULT_CASSANDRA_WRITE_CONSISTENCY);
+    }
+
+    public void setCassandraWriteConsistency(String cassandraWriteConsistency) {
+        setProperty(MELE_CASSANDRA_WRITE_CONSISTENCY, cassandraWriteConsistency);
+    }
+
+    public String getCassandraReadConsistency() {
+        return getProperty(MELE_CASSANDRA_READ_CONSISTENCY, DEFAULT_CASSANDRA_READ_CONSISTENCY);
+    }
+
+    public void setCassandraReadConsistency(String cassandraReadConsistency) {
+        setProperty(MELE_CASSANDRA_READ_CONSISTENCY, cassandraReadConsistency);
+    }
+
+    public String getCassandraBlockReadConsistency() {
+        return getProperty(MELE_CASSANDRA_BLOCK_READ_CONSISTENCY, DEFAULT_CASSANDRA_BLOCK_READ_CONSISTENCY);
+    }
+
+    public void setCassandraBlockReadConsistency(String cassandraBlockReadConsistency) {
+        setProperty(MELE_CASSANDRA_BLOCK_READ_CONSISTENCY, cassandraBlockReadConsistency);
+    }
+
+    public double getCassandraHedgePercentile() {
+        return getPropertyDouble(MELE_CASSANDRA_HEDGE_PERCENTILE, DEFAULT_CASSANDRA_HEDGE_PERCENTILE);
+    }
+
+    public void setCassandraHedgePercentile(double cassandraHedgePercentile) {
+        setPropertyDouble(MELE_CASSANDRA_HEDGE_PERCENTILE, cassandraHedgePercentile);
+    }
+
+    public double getCassandraHedgeMaxRatio() {
+        return getPropertyDouble(MELE_CASSANDRA_HEDGE_MAX_RATIO, DEFAULT_CASSANDRA_HEDGE_MAX_RATIO);
+    }
+
+    public void setCassandraHedgeMaxRatio(double cassandraHedgeMaxRatio) {
+        setPropertyDouble(MELE_CASSANDRA_HEDGE_MAX_RATIO, cassandraHedgeMaxRatio);
+    }
     
+    public long getBlockCacheSize() {
+        return getPropertyLong(MELE_BLOCKCACHE_SIZE, DEFAULT_BLOCKCACHE_SIZE);
+    }
+
+    public void setBlockCacheSize(long blockCacheSize) {
+        setPropertyLong(MELE_BLOCKCACHE_SIZE, blockCacheSize);
+    }
+
+    public long getBlockCacheClusterQuota() {
+        return getPropertyLong(MELE_BLOCKCACHE_CLUSTER_QUOTA, getBlockCacheSize());
+    }
+
+    public void setBlockCacheClusterQuota(long blockCacheClusterQuota) {
+        setPropertyLong(MELE_BLOCKCACHE_CLUSTER_QUOTA, blockCacheClusterQuota);
+    }
+
+    public int getBlockCacheConcurrency() {
+        return getPropertyInt(MELE_BLOCKCACHE_CONCURRENCY, DEFAULT_BLOCKCACHE_CONCURRENCY);
+    }
+
+    public boolean isBlockCacheDirect() {
+        return Boolean.parseBoolean(getProperty(MELE_BLOCKCACHE_DIRECT, "false"));
+    }
+
+    public void setBlockCacheDirect(boolean blockCacheDirect) {
+        setProperty(MELE_BLOCKCACHE_DIRECT, Boolean.toString(blockCacheDirect));
+    }
+
+    public int getReadAheadThreads() {
+        return getPropertyInt(MELE_READAHEAD_THREADS, DEFAULT_READAHEAD_THREADS);
+    }
+
+    public int getReadAheadBlocks() {
+        return getPropertyInt(MELE_READAHEAD_BLOCKS, DEFAULT_READAHEAD_BLOCKS);
+    }
+
+    public long getSmallFileThreshold() {
+        return getPropertyLong(MELE_SMALLFILE_THRESHOLD, DEFAULT_SMALLFILE_THRESHOLD);
+    }
+
+    public long getInlineFileThreshold() {
+        return getPropertyLong(MELE_INLINE_FILE_THRESHOLD, DEFAULT_INLINE_FILE_THRESHOLD);
+    }
+
+    public long getMetaDataCacheTtl() {
+        return getPropertyLong(MELE_METADATA_CACHE_TTL, DEFAULT_METADATA_CACHE_TTL);
+    }
+
+    public long getMetaDataCacheMissingTtl() {
+        return getPropertyLong(MELE_METADATA_CACHE_MISSING_TTL, DEFAULT_METADATA_CACHE_MISSING_TTL);
+    }
+
+    public void setMetaDataCacheMissingTtl(long metaDataCacheMissingTtl) {
+        setPropertyLong(MELE_METADATA_CACHE_MISSING_TTL, metaDataCacheMissingTtl);
+    }
+
+    public int getWriteBehindThreads() {
+        return getPropertyInt(MELE_WRITEBEHIND_THREADS, DEFAULT_WRITEBEHIND_THREADS);
+    }
+
+    public void setWriteBehindThreads(int writeBehindThreads) {
+        setPropertyInt(MELE_WRITEBEHIND_THREADS, writeBehindThreads);
+    }
+
+    public int getWriteBehindOutputBlocks() {
+        return getPropertyInt(MELE_WRITEBEHIND_OUTPUT_BLOCKS, DEFAULT_WRITEBEHIND_OUTPUT_BLOCKS);
+    }
+
+    public int getWriteBehindDirectoryBlocks() {
+        return getPropertyInt(MELE_WRITEBEHIND_DIRECTORY_BLOCKS, DEFAULT_WRITEBEHIND_DIRECTORY_BLOCKS);
+    }
+
+    public String getPinnedFiles() {
+        return getProperty(MELE_PINNED_FILES, DEFAULT_PINNED_FILES);
+    }
+
+    public void setPinnedFiles(String pinnedFiles) {
+        setProperty(MELE_PINNED_FILES, pinnedFiles);
+    }
+
+    public long getPinnedCacheSize() {
+        return getPropertyLong(MELE_PINNED_CACHE_SIZE, DEFAULT_PINNED_CACHE_SIZE);
+    }
+
+    public void setPinnedCacheSize(long pinnedCacheSize) {
+        setPropertyLong(MELE_PINNED_CACHE_SIZE, pinnedCacheSize);
+    }
+
+    public String getDiskCachePath() {
+        return getProperty(MELE_DISK_CACHE_PATH);
+    }
+
+    public void setDiskCachePath(String diskCachePath) {
+        setProperty(MELE_DISK_CACHE_PATH, diskCachePath);
+    }
+
+    public long getDiskCacheSize() {
+        return getPropertyLong(MELE_DISK_CACHE_SIZE, DEFAULT_DISK_CACHE_SIZE);
+    }
+
+    public void setDiskCacheSize(long diskCacheSize) {
+        setPropertyLong(MELE_DISK_CACHE_SIZE, diskCacheSize);
+    }
+
+    public long getProfileSaveInterval() {
+        return getPropertyLong(MELE_PROFILE_SAVE_INTERVAL, DEFAULT_PROFILE_SAVE_INTERVAL);
+    }
+
+    public void setProfileSaveInterval(long profileSaveInterval) {
+        setPropertyLong(MELE_PROFILE_SAVE_INTERVAL, profileSaveInterval);
+    }
+
+    public int getProfileMaxRegions() {
+        return getPropertyInt(MELE_PROFILE_MAX_REGIONS, DEFAULT_PROFILE_MAX_REGIONS);
+    }
+
+    public void setProfileMaxRegions(int profileMaxRegions) {
+        setPropertyInt(MELE_PROFILE_MAX_REGIONS, profileMaxRegions);
+    }
+
+    public double getBackgroundIOShare() {
+        return getPropertyDouble(MELE_BACKGROUND_IO_SHARE, DEFAULT_BACKGROUND_IO_SHARE);
+    }
+
+    public void setBackgroundIOShare(double backgroundIOShare) {
+        setPropertyDouble(MELE_BACKGROUND_IO_SHARE, backgroundIOShare);
+    }
+
+    public long getBackgroundIOBandwidth() {
+        return getPropertyLong(MELE_BACKGROUND_IO_BANDWIDTH, DEFAULT_BACKGROUND_IO_BANDWIDTH);
+    }
+
+    public void setBackgroundIOBandwidth(long backgroundIOBandwidth) {
+        setPropertyLong(MELE_BACKGROUND_IO_BANDWIDTH, backgroundIOBandwidth);
+    }
+
+    public int getHdfsIOPermits() {
+        return getPropertyInt(MELE_HDFS_IO_PERMITS, DEFAULT_HDFS_IO_PERMITS);
+    }
+
+    public void setHdfsIOPermits(int hdfsIOPermits) {
+        setPropertyInt(MELE_HDFS_IO_PERMITS, hdfsIOPermits);
+    }
+
+    public String getBlockCodec() {
+        return getProperty(MELE_BLOCK_CODEC, DEFAULT_BLOCK_CODEC);
+    }
+
+    public void setBlockCodec(String blockCodec) {
+        setProperty(MELE_BLOCK_CODEC, blockCodec);
+    }
+
+    public boolean isBlockDedup() {
+        return Boolean.parseBoolean(getProperty(MELE_BLOCK_DEDUP, "false"));
+    }
+
+    public void setBlockDedup(boolean blockDedup) {
+        setProperty(MELE_BLOCK_DEDUP, Boolean.toString(blockDedup));
+    }
+
+    public long getBlockDedupGcGracePeriod() {
+        return getPropertyLong(MELE_BLOCK_DEDUP_GC_GRACE_PERIOD, DEFAULT_BLOCK_DEDUP_GC_GRACE_PERIOD);
+    }
+
+    public void setBlockDedupGcGracePeriod(long gracePeriod) {
+        setPropertyLong(MELE_BLOCK_DEDUP_GC_GRACE_PERIOD, gracePeriod);
+    }
+
+    public long getBlockDedupGcInterval() {
+        return getPropertyLong(MELE_BLOCK_DEDUP_GC_INTERVAL, DEFAULT_BLOCK_DEDUP_GC_INTERVAL);
+    }
+
+    public void setBlockDedupGcInterval(long interval) {
+        setPropertyLong(MELE_BLOCK_DEDUP_GC_INTERVAL, interval);
+    }
+
+    public String getBlockSizePolicy() {
+        return getProperty(MELE_BLOCK_SIZE_POLICY, DEFAULT_BLOCK_SIZE_POLICY);
+    }
+
+    public void setBlockSizePolicy(String blockSizePolicy) {
+        setProperty(MELE_BLOCK_SIZE_POLICY, blockSizePolicy);
+    }
+
+    public int getBufferPoolSize() {
+        return getPropertyInt(MELE_BUFFER_POOL_SIZE, DEFAULT_BUFFER_POOL_SIZE);
+    }
+
     public int getPropertyInt(String name, int i) {
         String property = getProperty(name);
         if (property == null) {
@@ -132,4 +384,28 @@ public class MeleConfiguration extends Properties implements MeleConstants {
     public void setPropertyInt(String name, int i) {
         setProperty(name, Integer.toString(i));
     }
+
+    public long getPropertyLong(String name, long l) {
+        String property = getProperty(name);
+        if (property == null) {
+            return l;
+        }
+        return Long.parseLong(property);
+    }
+
+    public void setPropertyLong(String name, long l) {
+        setProperty(name, Long.toString(l));
+    }
+
+    public double getPropertyDouble(String name, double d) {
+        String property = getProperty(name);
+        if (property == null) {
+            return d;
+        }
+        return Double.parseDouble(property);
+    }
+
+    public void setPropertyDouble(String name, double d) {
+        setProperty(name, Double.toString(d));
+    }
 }
@@ -18,4 +18,79 @@ public interface MeleConstants {
     public static final String MELE_CASSANDRA_HOSTNAME = "mele.cassandra.hostname";
     public static final String MELE_CASSANDRA_PORT = "mele.cassandra.port";
     public static final String MELE_CASSANDRA_KEYSPACE = "mele.cassandra.keyspace";
+    public static final String MELE_CASSANDRA_RING_REFRESH_INTERVAL = "mele.cassandra.ring.refresh.interval";
+    public static final long DEFAULT_CASSANDRA_RING_REFRESH_INTERVAL = 60000;
+    public static final String MELE_CASSANDRA_HOST_DOWN_TIME = "mele.cassandra.host.down.time";
+    public static final long DEFAULT_CASSANDRA_HOST_DOWN_TIME = 5000;
+    public static final String MELE_CASSANDRA_IO_THREADS = "mele.cassandra.io.threads";
+    public static final int DEFAULT_CASSANDRA_IO_THREADS = 32;
+    public static final String MELE_CASSANDRA_WRITE_CONSISTENCY = "mele.cassandra.write.consistency";
+    public static final String DEFAULT_CASSANDRA_WRITE_CONSISTENCY = "DCQUORUM";
+    public static final String MELE_CASSANDRA_READ_CONSISTENCY = "mele.cassandra.read.consistency";
+    public static final String DEFAULT_CASSANDRA_READ_CONSISTENCY = "DCQUORUM";
+    public static final String MELE_CASSANDRA_BLOCK_READ_CONSISTENCY = "mele.cassandra.block.read.consistency";
+    public static final String DEFAULT_CASSANDRA_BLOCK_READ_CONSISTENCY = "ONE";
+    public static final String MELE_CASSANDRA_HEDGE_PERCENTILE = "mele.cassandra.hedge.percentile";
+    public static final double DEFAULT_CASSANDRA_HEDGE_PERCENTILE = 0.95;
+    public static final String MELE_CASSANDRA_HEDGE_MAX_RATIO = "mele.cassandra.hedge.max.ratio";
+    public static final double DEFAULT_CASSANDRA_HEDGE_MAX_RATIO = 0.05;
+
+    public static final String MELE_BLOCKCACHE_SIZE = "mele.blockcache.size";
+    public static final long DEFAULT_BLOCKCACHE_SIZE = 64 * 1024 * 1024;
+    public static final String MELE_BLOCKCACHE_CLUSTER_QUOTA = "mele.blockcache.cluster.quota";
+    public static final String MELE_BLOCKCACHE_CONCURRENCY = "mele.blockcache.concurrency";
+    public static final int DEFAULT_BLOCKCACHE_CONCURRENCY = 16;
+    public static final String MELE_BLOCKCACHE_DIRECT = "mele.blockcache.direct";
+
+    public static final String MELE_READAHEAD_THREADS = "mele.readahead.threads";
+    public static final int DEFAULT_READAHEAD_THREADS = 4;
+    public static final String MELE_READAHEAD_BLOCKS = "mele.readahead.blocks";
+    public static final int DEFAULT_READAHEAD_BLOCKS = 16;
+    public static final String MELE_SMALLFILE_THRESHOLD = "mele.smallfile.threshold";
+    public static final long DEFAULT_SMALLFILE_THRESHOLD = 64 * 1024;
+    public static final String MELE_INLINE_FILE_THRESHOLD = "mele.inline.file.threshold";
+    public static final long DEFAULT_INLINE_FILE_THRESHOLD = 4 * 1024;
+    public static final String MELE_METADATA_CACHE_TTL = "mele.metadata.cache.ttl";
+    public static final long DEFAULT_METADATA_CACHE_TTL = 10000;
+    public static final String MELE_METADATA_CACHE_MISSING_TTL = "mele.metadata.cache.missing.ttl";
+    public static final long DEFAULT_METADATA_CACHE_MISSING_TTL = 0;
+
+    public static final String MELE_WRITEBEHIND_THREADS = "mele.writebehind.threads";
+    public static final int DEFAULT_WRITEBEHIND_THREADS = 0;
+    public static final String MELE_WRITEBEHIND_OUTPUT_BLOCKS = "mele.writebehind.output.blocks";
+    public static final int DEFAULT_WRITEBEHIND_OUTPUT_BLOCKS = 4;
+    public static final String MELE_WRITEBEHIND_DIRECTORY_BLOCKS = "mele.writebehind.directory.blocks";
+    public static final int DEFAULT_WRITEBEHIND_DIRECTORY_BLOCKS = 32;
+
+    public static final String MELE_PINNED_FILES = "mele.pinned.files";
+    public static final String DEFAULT_PINNED_FILES = "tis,segments";
+    public static final String MELE_PINNED_CACHE_SIZE = "mele.pinned.cache.size";
+    public static final long DEFAULT_PINNED_CACHE_SIZE = 0;
+    public static final String MELE_DISK_CACHE_PATH = "mele.disk.cache.path";
+    public static final String MELE_DISK_CACHE_SIZE = "mele.disk.cache.size";
+    public static final long DEFAULT_DISK_CACHE_SIZE = 10L * 1024 * 1024 * 1024;
+
+    public static final String MELE_BACKGROUND_IO_SHARE = "mele.background.io.share";
+    public static final double DEFAULT_BACKGROUND_IO_SHARE = 0.25;
+    public static final String MELE_BACKGROUND_IO_BANDWIDTH = "mele.background.io.bandwidth";
+    public static final long DEFAULT_BACKGROUND_IO_BANDWIDTH = 0;
+    public static final String MELE_HDFS_IO_PERMITS = "mele.hdfs.io.permits";
+    public static final int DEFAULT_HDFS_IO_PERMITS = 16;
+
+    public static final String MELE_PROFILE_SAVE_INTERVAL = "mele.profile.save.interval";
+    public static final long DEFAULT_PROFILE_SAVE_INTERVAL = 60000;
+    public static final String MELE_PROFILE_MAX_REGIONS = "mele.profile.max.regions";
+    public static final int DEFAULT_PROFILE_MAX_REGIONS = 16384;
+
+    public static final String MELE_BLOCK_CODEC = "mele.block.codec";
+    public static final String DEFAULT_BLOCK_CODEC = "none";
+    public static final String MELE_BLOCK_DEDUP = "mele.block.dedup";
+    public static final String MELE_BLOCK_DEDUP_GC_GRACE_PERIOD = "mele.block.dedup.gc.grace.period";
+    public static final long DEFAULT_BLOCK_DEDUP_GC_GRACE_PERIOD = 60 * 60 * 1000;
+    public static final String MELE_BLOCK_DEDUP_GC_INTERVAL = "mele.block.dedup.gc.interval";
+    public static final long DEFAULT_BLOCK_DEDUP_GC_INTERVAL = 10 * 60 * 1000;
+    public static final String MELE_BLOCK_SIZE_POLICY = "mele.block.size.policy";
+    public static final String DEFAULT_BLOCK_SIZE_POLICY = "lucene";
+    public static final String MELE_BUFFER_POOL_SIZE = "mele.buffer.pool.size";
+    public static final int DEFAULT_BUFFER_POOL_SIZE = 64;
 }
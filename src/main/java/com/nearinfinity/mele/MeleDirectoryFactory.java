@@ -9,4 +9,11 @@ public interface MeleDirectoryFactory {
 
     Directory getDirectory(FSDirectory localDir, String directoryCluster, String directoryName) throws IOException;
 
+    /**
+     * Stops the threads of the factory and releases the connections and
+     * caches it holds, the directories it created must not be used
+     * afterwards.
+     */
+    void close() throws IOException;
+
 }
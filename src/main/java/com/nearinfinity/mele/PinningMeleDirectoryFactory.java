@@ -0,0 +1,23 @@
+package com.nearinfinity.mele;
+
+import com.nearinfinity.mele.store.db.cache.FilePinPolicy;
+import com.nearinfinity.mele.store.db.cache.PinnedFileCache;
+
+/**
+ * A {@link MeleDirectoryFactory} that pins files of the directories it
+ * creates, {@link MeleBase} pins the files of the local replicas in the same
+ * cache so the memory budget is not spent twice.
+ */
+public interface PinningMeleDirectoryFactory extends MeleDirectoryFactory {
+
+    /**
+     * @return the pinned file cache or null if pinning is disabled.
+     */
+    PinnedFileCache getPinnedFileCache();
+
+    /**
+     * @return the policy that picks the pinned files or null if pinning is disabled.
+     */
+    FilePinPolicy getFilePinPolicy();
+
+}
@@ -14,6 +14,9 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 
+import com.nearinfinity.mele.util.IOContext;
+import com.nearinfinity.mele.util.IOPriority;
+
 public class ReplicationIndexDeletionPolicy implements IndexDeletionPolicy {
 
     private static final Log LOG = LogFactory.getLog(ReplicationIndexDeletionPolicy.class);
@@ -59,8 +62,13 @@ public class ReplicationIndexDeletionPolicy implements IndexDeletionPolicy {
         }
         List<String> currentRemoteFiles = new ArrayList<String>(Arrays.asList(remoteDirectory.listAll()));
         currentRemoteFiles.removeAll(filesInPlay);
-        for (String name : currentRemoteFiles) {
-            remoteDirectory.deleteFile(name);
+        IOPriority priority = IOPriority.set(IOPriority.BACKGROUND);
+        try {
+            for (String name : currentRemoteFiles) {
+                remoteDirectory.deleteFile(name);
+            }
+        } finally {
+            IOPriority.set(priority);
         }
     }
 
@@ -97,6 +105,8 @@ public class ReplicationIndexDeletionPolicy implements IndexDeletionPolicy {
         IndexInput is = null;
         long len = 0;
         long s = System.currentTimeMillis();
+        // copies stream whole files, keep them from flushing the block cache
+        IOPriority priority = IOPriority.set(IOPriority.BACKGROUND);
         try {
             // create file in dest directory
             os = dest.createOutput(name);
@@ -117,10 +127,15 @@ public class ReplicationIndexDeletionPolicy implements IndexDeletionPolicy {
                 if (os != null)
                     os.close();
             } finally {
-                if (is != null)
-                    is.close();
+                try {
+                    if (is != null)
+                        is.close();
+                } finally {
+                    IOPriority.set(priority);
+                }
             }
         }
+        IOContext.recordCopy(len, (System.currentTimeMillis() - s) * 1000000);
         double seconds = (System.currentTimeMillis() - s) / 1000.0;
         double megaBytesPerSecound = (len / MEGA_BYTES_DOUBLE) / seconds;
         LOG.info("Finished copying file [" + name + "] at rate [" + megaBytesPerSecound + " MB/s]");
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles the scratch buffers of the write path, the buffers are kept per
+ * power of two size and a buffer is always at least as large as requested.
+ * Buffers that are handed to the block cache or to a reader are never
+ * released because clones of an input can hold on to them after it is closed.
+ */
+public class BlockBufferPool {
+
+    private static final int MAX_SHIFT = 23;
+
+    private final int maxBuffersPerSize;
+    private final List<ConcurrentLinkedQueue<byte[]>> buffers;
+    private final AtomicInteger[] counts;
+
+    public BlockBufferPool(int maxBuffersPerSize) {
+        this.maxBuffersPerSize = maxBuffersPerSize;
+        this.buffers = new ArrayList<ConcurrentLinkedQueue<byte[]>>(MAX_SHIFT + 1);
+        this.counts = new AtomicInteger[MAX_SHIFT + 1];
+        for (int i = 0; i <= MAX_SHIFT; i++) {
+            buffers.add(new ConcurrentLinkedQueue<byte[]>());
+            counts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Gets a buffer, the content of a recycled buffer is not cleared.
+     * @param size the minimum size of the buffer.
+     * @return the buffer.
+     */
+    public byte[] acquire(int size) {
+        int shift = getShift(size);
+        if (shift > MAX_SHIFT) {
+            return new byte[size];
+        }
+        byte[] buffer = buffers.get(shift).poll();
+        if (buffer == null) {
+            return new byte[1 << shift];
+        }
+        counts[shift].decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool, the caller must not use it afterwards.
+     */
+    public void release(byte[] buffer) {
+        int shift = getShift(buffer.length);
+        if (shift > MAX_SHIFT || buffer.length != 1 << shift) {
+            return;
+        }
+        if (counts[shift].incrementAndGet() > maxBuffersPerSize) {
+            counts[shift].decrementAndGet();
+            return;
+        }
+        buffers.get(shift).offer(buffer);
+    }
+
+    private static int getShift(int size) {
+        if (size <= 1) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+
+/**
+ * Picks the block size of a new file from its extension. The block size a
+ * file was written with is kept in its meta data, so the policy can be
+ * changed without affecting existing files.
+ */
+public class BlockSizePolicy {
+
+    private final BLOCK_SIZE defaultBlockSize;
+    private final Map<String, BLOCK_SIZE> blockSizes = new HashMap<String, BLOCK_SIZE>();
+
+    public BlockSizePolicy(BLOCK_SIZE defaultBlockSize) {
+        this.defaultBlockSize = defaultBlockSize;
+    }
+
+    /**
+     * Creates a policy tuned for the Lucene 3.0 file formats. Files that are
+     * read at random in small pieces (the term dictionary, the stored field
+     * and term vector indexes) get small blocks, files that are read whole or
+     * streamed (the term index, norms and postings) get large blocks.
+     * @param defaultBlockSize the block size of all other files.
+     */
+    public static BlockSizePolicy createLucenePolicy(BLOCK_SIZE defaultBlockSize) {
+        BlockSizePolicy policy = new BlockSizePolicy(defaultBlockSize);
+        policy.setBlockSize("tis", BLOCK_SIZE._4K);
+        policy.setBlockSize("fdx", BLOCK_SIZE._4K);
+        policy.setBlockSize("tvx", BLOCK_SIZE._4K);
+        policy.setBlockSize("fdt", BLOCK_SIZE._8K);
+        policy.setBlockSize("tvd", BLOCK_SIZE._8K);
+        policy.setBlockSize("tvf", BLOCK_SIZE._8K);
+        policy.setBlockSize("tii", BLOCK_SIZE._64K);
+        policy.setBlockSize("nrm", BLOCK_SIZE._64K);
+        policy.setBlockSize("frq", BLOCK_SIZE._64K);
+        policy.setBlockSize("prx", BLOCK_SIZE._64K);
+        return policy;
+    }
+
+    /**
+     * Sets the block size of the files with the extension.
+     */
+    public void setBlockSize(String extension, BLOCK_SIZE blockSize) {
+        blockSizes.put(extension, blockSize);
+    }
+
+    public BLOCK_SIZE getDefaultBlockSize() {
+        return defaultBlockSize;
+    }
+
+    /**
+     * Gets the block size of a new file.
+     * @param name the file name.
+     * @return the block size.
+     */
+    public BLOCK_SIZE getBlockSize(String name) {
+        int index = name.lastIndexOf('.');
+        if (index < 0) {
+            return defaultBlockSize;
+        }
+        BLOCK_SIZE blockSize = blockSizes.get(name.substring(index + 1));
+        if (blockSize == null) {
+            return defaultBlockSize;
+        }
+        return blockSize;
+    }
+}
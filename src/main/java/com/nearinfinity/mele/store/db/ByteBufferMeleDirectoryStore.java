@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link MeleDirectoryStore} that can hand out and accept blocks as
+ * {@link ByteBuffer}s, which may be direct or memory mapped, so that blocks
+ * do not have to be copied into heap arrays. The {@link MeleDirectory} uses
+ * these methods instead of the array based ones when the store supports them.
+ */
+public interface ByteBufferMeleDirectoryStore extends MeleDirectoryStore {
+	
+	/**
+	 * Saves the remaining bytes of the buffer as the block. The caller may
+	 * reuse the buffer once the call returns, so the store must not keep it.
+	 * @param name the name of the file to save.
+	 * @param blockId the block id to save.
+	 * @param block the binary data to save.
+	 * @throws IOException
+	 */
+	void saveBlockBuffer(String name, long blockId, ByteBuffer block) throws IOException;
+	
+	/**
+	 * Fetches a block of data from the persistent store. The position of the
+	 * returned buffer is zero and the limit is the block length, the buffer
+	 * must not be modified by the caller.
+	 * @param name the name of the file to fetch.
+	 * @param blockId the the block id to fetch.
+	 * @return the binary data of the block or null if the block does not exist.
+	 * @throws IOException
+	 */
+	ByteBuffer fetchBlockBuffer(String name, long blockId) throws IOException;
+	
+	/**
+	 * Fetches many blocks of data from the persistent store in as few calls as possible.
+	 * @param name the name of the file to fetch.
+	 * @param blockIds the block ids to fetch.
+	 * @return the binary data keyed by block id, blocks that do not exist are not included.
+	 * @throws IOException
+	 */
+	Map<Long, ByteBuffer> fetchBlockBuffers(String name, List<Long> blockIds) throws IOException;
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db;
+
+/**
+ * The meta data of a single file in a {@link MeleDirectoryStore}. The block
+ * shift is -1 for files that were written before block sizes were recorded.
+ * Small files can be stored inline with their meta data, the data is null for
+ * files that are stored in blocks.
+ * <p>
+ * The block shift a store keeps for a file also carries the flags of the
+ * file above the shift itself, stores save and return it unchanged.
+ */
+public class FileMetaData {
+
+    /**
+     * Flags a file that was new when it was created and whose blocks were
+     * each saved exactly once, so no replica of a block can hold other bytes.
+     */
+    public static final long IMMUTABLE = 1 << 6;
+    private static final long BLOCK_SHIFT_MASK = IMMUTABLE - 1;
+
+    private final String name;
+    private final long length;
+    private final long lastModified;
+    private final long blockShift;
+    private final byte[] data;
+
+    public FileMetaData(String name, long length, long lastModified) {
+        this(name, length, lastModified, -1);
+    }
+
+    public FileMetaData(String name, long length, long lastModified, long blockShift) {
+        this(name, length, lastModified, blockShift, null);
+    }
+
+    public FileMetaData(String name, long length, long lastModified, long blockShift, byte[] data) {
+        this.name = name;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.blockShift = blockShift;
+        this.data = data;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the block shift without the flags, or -1.
+     */
+    public long getBlockShift() {
+        return blockShift < 0 ? blockShift : blockShift & BLOCK_SHIFT_MASK;
+    }
+
+    /**
+     * @return the block shift with the flags as the store keeps it.
+     */
+    public long getStoredBlockShift() {
+        return blockShift;
+    }
+
+    public boolean isImmutable() {
+        return blockShift >= 0 && (blockShift & IMMUTABLE) != 0;
+    }
+
+    /**
+     * Gets the content of a file that is stored inline, must not be modified.
+     * @return the content or null if the file is stored in blocks.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetaData [name=" + name + ", length=" + length + ", lastModified=" + lastModified
+                + ", blockShift=" + getBlockShift() + ", immutable=" + isImmutable() + ", inline=" + (data != null) + "]";
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the file lengths, modification times and the file listing of a
+ * single {@link MeleDirectory}. Entries loaded from the store expire after the
+ * time to live so that changes made by other processes become visible, the
+ * changes made by this process are applied in place. Files that are known to
+ * be missing are only cached if a missing time to live is set, since a file
+ * created by another process stays hidden until its entry expires. At most
+ * {@link #MAX_MISSING_ENTRIES} missing files are kept, the oldest are dropped
+ * first.
+ */
+class FileMetaDataCache {
+
+    static final int MAX_MISSING_ENTRIES = 1024;
+
+    private final MeleDirectoryStore store;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, Long> missing = new LinkedHashMap<String, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_MISSING_ENTRIES;
+        }
+    };
+    private volatile long ttl;
+    private volatile long missingTtl;
+    private volatile long listingLoaded = -1;
+
+    FileMetaDataCache(MeleDirectoryStore store, long ttl, long missingTtl) {
+        this.store = store;
+        this.ttl = ttl;
+        this.missingTtl = missingTtl;
+    }
+
+    void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    void setMissingTtl(long missingTtl) {
+        this.missingTtl = missingTtl;
+        if (missingTtl <= 0) {
+            synchronized (missing) {
+                missing.clear();
+            }
+        }
+    }
+
+    /**
+     * Gets the meta data of the file.
+     * @param name the file name.
+     * @return the meta data or null if the file does not exist.
+     * @throws IOException
+     */
+    FileMetaData get(String name) throws IOException {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(name);
+        if (entry != null && !isExpired(entry.loaded, now, ttl)) {
+            return entry.metaData;
+        }
+        if (entry == null && isMissing(name, now)) {
+            return null;
+        }
+        FileMetaData metaData = store.getFileMetaData(name);
+        if (metaData == null) {
+            entries.remove(name);
+            putMissing(name, now);
+        } else {
+            entries.put(name, new Entry(metaData, now));
+        }
+        return metaData;
+    }
+
+    /**
+     * Lists the files, the listing is loaded from the store once per time to live.
+     * @return the file names.
+     * @throws IOException
+     */
+    List<String> listAll() throws IOException {
+        long now = System.currentTimeMillis();
+        if (isExpired(listingLoaded, now, ttl)) {
+            Set<String> names = new HashSet<String>();
+            for (FileMetaData metaData : store.getAllFileMetaData()) {
+                names.add(metaData.getName());
+                entries.put(metaData.getName(), new Entry(metaData, now));
+                removeMissing(metaData.getName());
+            }
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (!names.contains(entry.getKey()) && entry.getValue().loaded < now
+                        && entries.remove(entry.getKey(), entry.getValue())) {
+                    putMissing(entry.getKey(), now);
+                }
+            }
+            listingLoaded = now;
+        }
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    /**
+     * Records a file that was written by this process.
+     */
+    void put(FileMetaData metaData) {
+        entries.put(metaData.getName(), new Entry(metaData, System.currentTimeMillis()));
+        removeMissing(metaData.getName());
+    }
+
+    /**
+     * Records a file that was deleted by this process.
+     */
+    void remove(String name) {
+        entries.remove(name);
+        putMissing(name, System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets that the file was missing, so the next lookup asks the store.
+     */
+    void removeMissing(String name) {
+        synchronized (missing) {
+            missing.remove(name);
+        }
+    }
+
+    private boolean isMissing(String name, long now) {
+        Long loaded;
+        synchronized (missing) {
+            loaded = missing.get(name);
+        }
+        return loaded != null && !isExpired(loaded, now, missingTtl);
+    }
+
+    private void putMissing(String name, long now) {
+        if (missingTtl > 0) {
+            synchronized (missing) {
+                missing.remove(name);
+                missing.put(name, now);
+            }
+        }
+    }
+
+    private static boolean isExpired(long loaded, long now, long ttl) {
+        return loaded < 0 || now - loaded > ttl;
+    }
+
+    private static class Entry {
+        final FileMetaData metaData;
+        final long loaded;
+
+        Entry(FileMetaData metaData, long loaded) {
+            this.metaData = metaData;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -20,14 +20,28 @@ package com.nearinfinity.mele.store.db;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
-import org.apache.lucene.store.BufferedIndexInput;
-import org.apache.lucene.store.BufferedIndexOutput;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.NoLockFactory;
 
+import com.nearinfinity.mele.store.db.cache.BlockCache;
+import com.nearinfinity.mele.store.db.cache.BlockCacheKey;
+import com.nearinfinity.mele.store.db.cache.DiskBlockCache;
+import com.nearinfinity.mele.store.db.cache.FilePinPolicy;
+import com.nearinfinity.mele.store.db.cache.PinnedFileCache;
+import com.nearinfinity.mele.util.IOContext;
+import com.nearinfinity.mele.util.IOPriority;
+
 /**
  * @author Aaron McCurry (amccurry@nearinfinity.com)
  */
@@ -74,6 +88,14 @@ public class MeleDirectory extends Directory {
 	public static final long DEFAULT_BLOCK_SHIFT = 15;
 	public static final int DEFAULT_BLOCK_SIZE = 1 << DEFAULT_BLOCK_SHIFT;
 	public static final long DEFAULT_BLOCK_MASK = DEFAULT_BLOCK_SIZE - 1;
+	public static final int DEFAULT_MAX_READ_AHEAD_BLOCKS = 16;
+	public static final long DEFAULT_SMALL_FILE_THRESHOLD = 0;
+	public static final long DEFAULT_META_DATA_CACHE_TTL = 10000;
+	public static final long DEFAULT_META_DATA_CACHE_MISSING_TTL = 0;
+	public static final int DEFAULT_BUFFER_POOL_SIZE = 16;
+	public static final long DEFAULT_INLINE_FILE_THRESHOLD = 0;
+	public static final int DEFAULT_MAX_PENDING_BLOCKS_PER_OUTPUT = 4;
+	public static final int DEFAULT_MAX_PENDING_BLOCKS_PER_DIRECTORY = 32;
 	
 	public static long getBlock(long pos, long blockShift) {
 		return pos >>> blockShift;
@@ -91,16 +113,45 @@ public class MeleDirectory extends Directory {
 	private long blockShift = DEFAULT_BLOCK_SHIFT;
 	private int blockSize = DEFAULT_BLOCK_SIZE;
 	private long blockMask = DEFAULT_BLOCK_MASK;
+	private BlockCache blockCache;
+	private String directoryCluster;
+	private String directoryName;
+	private ExecutorService readAheadExecutor;
+	private int maxReadAheadBlocks = DEFAULT_MAX_READ_AHEAD_BLOCKS;
+	private long smallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+	private FileMetaDataCache metaDataCache;
+	private BlockSizePolicy blockSizePolicy;
+	private BlockBufferPool bufferPool = new BlockBufferPool(DEFAULT_BUFFER_POOL_SIZE);
+	private boolean directBuffers;
+	private long inlineFileThreshold = DEFAULT_INLINE_FILE_THRESHOLD;
+	private ExecutorService writeBehindExecutor;
+	private int maxPendingBlocksPerOutput = DEFAULT_MAX_PENDING_BLOCKS_PER_OUTPUT;
+	private int maxPendingBlocksPerDirectory = DEFAULT_MAX_PENDING_BLOCKS_PER_DIRECTORY;
+	private final PendingBlockPermits writeBehindPermits = new PendingBlockPermits(DEFAULT_MAX_PENDING_BLOCKS_PER_DIRECTORY);
+	private ConcurrentMap<String, MeleIndexOutput> openOutputs = new ConcurrentHashMap<String, MeleIndexOutput>();
+	private PinnedFileCache pinnedFileCache;
+	private FilePinPolicy filePinPolicy;
+	private DiskBlockCache diskBlockCache;
 	
 	public MeleDirectory(MeleDirectoryStore store) {
 		this(store,BLOCK_SIZE._32K);
 	}
 	
 	public MeleDirectory(MeleDirectoryStore store, BLOCK_SIZE blockSize) {
+		this(store,blockSize,null,null,null);
+	}
+	
+	public MeleDirectory(MeleDirectoryStore store, BLOCK_SIZE blockSize, BlockCache blockCache, 
+			String directoryCluster, String directoryName) {
         this.store = store;
         this.blockShift = blockSize.getBlockShift();
         this.blockSize = blockSize.getBlockSize();
         this.blockMask = blockSize.getBlockMask();
+        this.blockCache = blockCache;
+        this.directoryCluster = directoryCluster;
+        this.directoryName = directoryName;
+        this.metaDataCache = new FileMetaDataCache(store, DEFAULT_META_DATA_CACHE_TTL, DEFAULT_META_DATA_CACHE_MISSING_TTL);
+        this.blockSizePolicy = new BlockSizePolicy(blockSize);
         setLockFactory(new NoLockFactory());
     }
 	
@@ -111,136 +162,464 @@ public class MeleDirectory extends Directory {
 
 	@Override
 	public void deleteFile(String name) throws IOException {
-		long length = store.getFileLength(name);
+		evictFile(name);
+		FileMetaData metaData = metaDataCache.get(name);
 		store.removeFileMetaData(name);
-		if (length > 0) {
-			long maxBlockId = getBlock(length - 1, blockShift);
+		metaDataCache.remove(name);
+		if (metaData != null && metaData.getLength() > 0 && metaData.getData() == null) {
+			long maxBlockId = getBlock(metaData.getLength() - 1, getBlockShift(metaData));
+			List<Long> blockIds = new ArrayList<Long>();
 			for (long l = 0; l <= maxBlockId; l++) {
-				store.removeBlock(name,l);
+				blockIds.add(l);
 			}
+			store.removeBlocks(name, blockIds);
 		}
 	}
 
 	@Override
 	public boolean fileExists(String name) throws IOException {
-		return store.fileExists(name);
+		return metaDataCache.get(name) != null;
 	}
 
 	@Override
 	public long fileLength(String name) throws IOException {
-		if (!store.fileExists(name)) {
-			throw new FileNotFoundException(name);
-		}
-		return store.getFileLength(name);
+		return getFileMetaData(name).getLength();
 	}
 
 	@Override
 	public long fileModified(String name) throws IOException {
-		return store.getFileModified(name);
+		return getFileMetaData(name).getLastModified();
 	}
 
 	@Override
 	public String[] listAll() throws IOException {
-		return store.getAllFileNames().toArray(new String[]{});
+		return metaDataCache.listAll().toArray(new String[]{});
 	}
 
 	@Override
 	public void touchFile(String name) throws IOException {
-		long fileLength = store.getFileLength(name);
-		store.setFileLength(name, fileLength < 0 ? 0 : fileLength);
+		FileMetaData metaData = metaDataCache.get(name);
+		if (metaData == null) {
+			setFileLength(name, 0, blockSizePolicy.getBlockSize(name).getBlockShift());
+		} else if (metaData.getData() != null) {
+			setFileData(name, metaData.getData(), getBlockShift(metaData));
+		} else {
+			setFileLength(name, metaData.getLength(), getBlockShift(metaData));
+		}
 	}
 
 	@Override
 	public IndexOutput createOutput(final String name) throws IOException {
-		store.setFileLength(name, 0);
-		return new BufferedIndexOutput() {
-			
-			private long position;
-			private long fileLength = 0;
-
-			@Override
-			public long length() throws IOException {
-				return fileLength;
-			}
-			
-			@Override
-			protected void flushBuffer(byte[] b, int offset, int len) throws IOException {
-				while (len > 0) {
-					long blockId = getBlock(position, blockShift);
-					int innerPosition = (int) getPosition(position, blockMask);
-					byte[] block = store.fetchBlock(name,blockId);
-					if (block == null) {
-						block = new byte[blockSize];
+		evictFile(name);
+		metaDataCache.removeMissing(name);
+		boolean newFile = metaDataCache.get(name) == null;
+		BLOCK_SIZE fileBlockSize = blockSizePolicy.getBlockSize(name);
+		setFileLength(name, 0, fileBlockSize.getBlockShift());
+		MeleIndexOutput output = new MeleIndexOutput(this, store, bufferPool, name, fileBlockSize.getBlockShift(), 
+				fileBlockSize.getBlockMask(), fileBlockSize.getBlockSize(), writeBehindExecutor, writeBehindPermits, 
+				Math.min(maxPendingBlocksPerOutput, maxPendingBlocksPerDirectory), inlineFileThreshold, newFile);
+		openOutputs.put(name, output);
+		return output;
+	}
+
+
+	@Override
+	public IndexInput openInput(final String name) throws IOException {
+		FileMetaData metaData = metaDataCache.get(name);
+		if (metaData == null) {
+			touchFile(name);
+		}
+		final long fileLength = metaData == null ? 0 : metaData.getLength();
+		final long fileBlockShift = getBlockShift(metaData);
+		final long fileBlockMask = (1L << fileBlockShift) - 1;
+		final byte[] data = metaData == null ? null : metaData.getData();
+		if (metaData != null && pinnedFileCache != null && filePinPolicy.isPinned(name) && !IOPriority.isBackground()) {
+			IndexInput input = pinnedFileCache.openInput(getPinnedKey(name), fileLength, metaData.getLastModified(), 
+					new PinnedFileCache.Loader() {
+				@Override
+				public byte[] load() throws IOException {
+					// the pinned copy is the only one kept, the blocks are not cached
+					IOPriority priority = IOPriority.set(IOPriority.BACKGROUND);
+					IndexInput input = new MeleIndexInput(MeleDirectory.this, name, fileLength, fileBlockShift, fileBlockMask, 
+							null, 0, smallFileThreshold, data);
+					try {
+						byte[] content = new byte[(int) fileLength];
+						input.readBytes(content, 0, content.length);
+						return content;
+					} finally {
+						input.close();
+						IOPriority.set(priority);
 					}
-					int length = Math.min(len, block.length - innerPosition);
-					System.arraycopy(b, offset, block, innerPosition, length);
-					store.saveBlock(name,blockId,block);
-					position += length;
-					len -= length;
-					offset += length;
-				}
-				if (position > fileLength) {
-					setLength(position);
 				}
+			});
+			if (input != null) {
+				return input;
 			}
+		}
+		return new MeleIndexInput(this, name, fileLength, fileBlockShift, fileBlockMask, readAheadExecutor, 
+				maxReadAheadBlocks, smallFileThreshold, data);
+	}
 
-			@Override
-			public void close() throws IOException {
-				super.close();
-				store.flush(name);
-			}
+	/**
+	 * Waits until all the blocks of the file that are written behind are saved.
+	 * @throws IOException if a block of the file could not be saved.
+	 */
+	@Override
+	public void sync(String name) throws IOException {
+		MeleIndexOutput output = openOutputs.get(name);
+		if (output != null) {
+			output.waitForPendingBlocks();
+		}
+		store.flush(name);
+	}
 
-			@Override
-			public void seek(long pos) throws IOException {
-				super.seek(pos);
-				this.position = pos;
-			}
+	/**
+	 * Keeps the files the policy selects completely in memory while they are
+	 * open, files are not pinned when the cache is null.
+	 */
+	public void setPinnedFileCache(PinnedFileCache pinnedFileCache, FilePinPolicy filePinPolicy) {
+		this.pinnedFileCache = pinnedFileCache;
+		this.filePinPolicy = filePinPolicy;
+	}
 
-			@Override
-			public void setLength(final long length) throws IOException {
-				super.setLength(length);
-				fileLength = length;
-				store.setFileLength(name,length);
-			}
-		};
+	/**
+	 * Sets the cache on local disk that is checked for blocks that are not in
+	 * the block cache before they are fetched from the store, no disk cache
+	 * is used when it is null. The cache is keyed by the cluster and the name
+	 * of the directory.
+	 */
+	public void setDiskBlockCache(DiskBlockCache diskBlockCache) {
+		this.diskBlockCache = diskBlockCache;
 	}
 
+	/**
+	 * Sets the executor that saves the blocks of the outputs in the
+	 * background, the blocks are saved by the writing thread when the
+	 * executor is null. Only outputs created afterwards are affected.
+	 */
+	public void setWriteBehindExecutor(ExecutorService writeBehindExecutor) {
+		this.writeBehindExecutor = writeBehindExecutor;
+	}
 
-	@Override
-	public IndexInput openInput(final String name) throws IOException {
-		if (!fileExists(name)) {
-			touchFile(name);
+	/**
+	 * Sets how many blocks of a single output can be saved in the background at once.
+	 */
+	public void setMaxPendingBlocksPerOutput(int maxPendingBlocksPerOutput) {
+		this.maxPendingBlocksPerOutput = maxPendingBlocksPerOutput;
+	}
+
+	/**
+	 * Sets how many blocks of all the outputs of the directory can be saved in
+	 * the background at once, open outputs are held to the new limit as well.
+	 */
+	public void setMaxPendingBlocksPerDirectory(int maxPendingBlocksPerDirectory) {
+		this.maxPendingBlocksPerDirectory = maxPendingBlocksPerDirectory;
+		writeBehindPermits.setLimit(maxPendingBlocksPerDirectory);
+	}
+
+	/**
+	 * Sets the policy that picks the block size of new files, existing files
+	 * keep the block size they were written with.
+	 */
+	public void setBlockSizePolicy(BlockSizePolicy blockSizePolicy) {
+		this.blockSizePolicy = blockSizePolicy;
+	}
+
+	/**
+	 * Sets the pool of the block buffers used by the outputs, the pool can be
+	 * shared by many directories.
+	 */
+	public void setBufferPool(BlockBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Sets whether the blocks fetched from an array based store are copied
+	 * into direct buffers, which keeps the block cache off the heap.
+	 */
+	public void setDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+	}
+
+	/**
+	 * Sets how long file meta data loaded from the store is cached.
+	 */
+	public void setMetaDataCacheTtl(long ttl) {
+		metaDataCache.setTtl(ttl);
+	}
+
+	/**
+	 * Sets how long a file that the store reported as missing is cached as
+	 * missing, 0 asks the store every time.
+	 */
+	public void setMetaDataCacheMissingTtl(long ttl) {
+		metaDataCache.setMissingTtl(ttl);
+	}
+
+	/**
+	 * Sets the executor that fetches blocks ahead of sequential reads, read
+	 * ahead is disabled when the executor is null.
+	 */
+	public void setReadAheadExecutor(ExecutorService readAheadExecutor) {
+		this.readAheadExecutor = readAheadExecutor;
+	}
+
+	/**
+	 * Sets the maximum number of blocks fetched ahead of a sequential read.
+	 */
+	public void setMaxReadAheadBlocks(int maxReadAheadBlocks) {
+		this.maxReadAheadBlocks = maxReadAheadBlocks;
+	}
+
+	/**
+	 * Sets the file length up to which a file is stored inline with its meta
+	 * data instead of in blocks, inline files are loaded with the directory
+	 * listing.
+	 */
+	public void setInlineFileThreshold(long inlineFileThreshold) {
+		this.inlineFileThreshold = inlineFileThreshold;
+	}
+
+	/**
+	 * Sets the file length up to which a file is fetched whole when it is opened.
+	 */
+	public void setSmallFileThreshold(long smallFileThreshold) {
+		this.smallFileThreshold = smallFileThreshold;
+	}
+
+	/**
+	 * Fetches the block through the shared block cache and then the disk
+	 * cache if they are configured, blocks read with
+	 * {@link IOPriority#BACKGROUND} are served from the caches but not added
+	 * to them. Hits, misses and fetches are recorded in the {@link IOContext}
+	 * of the thread.
+	 */
+	ByteBuffer fetchBlock(String name, long blockId) throws IOException {
+		boolean background = IOPriority.isBackground();
+		BlockCacheKey key = null;
+		if (blockCache != null || diskBlockCache != null) {
+			key = getCacheKey(name, blockId);
 		}
-		final long fileLength = fileLength(name);
-		return new BufferedIndexInput(blockSize/2) {
-			@Override
-			public long length() {
-				return fileLength;
+		if (blockCache != null) {
+			ByteBuffer block = background ? blockCache.peek(key) : blockCache.get(key);
+			if (block != null) {
+				IOContext.recordCacheHit();
+				return block;
 			}
-			
-			@Override
-			public void close() throws IOException {
-				
+		}
+		FileMetaData diskCacheMetaData = getDiskCacheMetaData(name);
+		ByteBuffer block = null;
+		if (diskCacheMetaData != null) {
+			block = diskBlockCache.get(key, diskCacheMetaData.getLength(), diskCacheMetaData.getLastModified());
+		}
+		if (block != null) {
+			IOContext.recordCacheHit();
+		} else {
+			IOContext.recordCacheMisses(1);
+			long start = System.nanoTime();
+			if (store instanceof ByteBufferMeleDirectoryStore) {
+				block = ((ByteBufferMeleDirectoryStore) store).fetchBlockBuffer(name, blockId);
+			} else {
+				block = toBuffer(store.fetchBlock(name, blockId));
 			}
-			
-			@Override
-			protected void seekInternal(long pos) throws IOException {
+			IOContext.recordFetch(block == null ? 0 : 1, block == null ? 0 : block.remaining(), System.nanoTime() - start);
+			if (block != null && diskCacheMetaData != null && !background) {
+				diskBlockCache.put(key, diskCacheMetaData.getLength(), diskCacheMetaData.getLastModified(), block);
 			}
-			
-			@Override
-			protected void readInternal(byte[] b, int off, int len) throws IOException {
-				long position = getFilePointer();
-				while (len > 0) {
-					long blockId = getBlock(position, blockShift);
-					int innerPosition = (int) getPosition(position, blockMask);
-					byte[] block = store.fetchBlock(name, blockId);
-					int length = Math.min(len,block.length-innerPosition);
-					System.arraycopy(block, innerPosition, b, off, length);
-					position += length;
-					len -= length;
-					off += length;
+		}
+		if (block != null && blockCache != null && !background) {
+			blockCache.put(key, block);
+		}
+		return block;
+	}
+
+	/**
+	 * Fetches many blocks, the blocks that are in neither cache are fetched
+	 * from the store with a single batch call.
+	 */
+	Map<Long, ByteBuffer> fetchBlocks(String name, List<Long> blockIds) throws IOException {
+		boolean background = IOPriority.isBackground();
+		FileMetaData diskCacheMetaData = getDiskCacheMetaData(name);
+		Map<Long, ByteBuffer> result = new HashMap<Long, ByteBuffer>();
+		Map<Long, ByteBuffer> fetched = new HashMap<Long, ByteBuffer>();
+		List<Long> missing = new ArrayList<Long>();
+		for (Long blockId : blockIds) {
+			ByteBuffer block = null;
+			if (blockCache != null) {
+				BlockCacheKey key = getCacheKey(name, blockId);
+				block = background ? blockCache.peek(key) : blockCache.get(key);
+			}
+			if (block == null && diskCacheMetaData != null) {
+				block = diskBlockCache.get(getCacheKey(name, blockId), diskCacheMetaData.getLength(),
+						diskCacheMetaData.getLastModified());
+				if (block != null) {
+					fetched.put(blockId, block);
 				}
 			}
-		};
+			if (block == null) {
+				missing.add(blockId);
+			} else {
+				IOContext.recordCacheHit();
+				result.put(blockId, block);
+			}
+		}
+		if (!missing.isEmpty()) {
+			IOContext.recordCacheMisses(missing.size());
+			long start = System.nanoTime();
+			Map<Long, ByteBuffer> blocks;
+			if (store instanceof ByteBufferMeleDirectoryStore) {
+				blocks = ((ByteBufferMeleDirectoryStore) store).fetchBlockBuffers(name, missing);
+			} else {
+				blocks = new HashMap<Long, ByteBuffer>();
+				for (Map.Entry<Long, byte[]> entry : store.fetchBlocks(name, missing).entrySet()) {
+					blocks.put(entry.getKey(), toBuffer(entry.getValue()));
+				}
+			}
+			long bytes = 0;
+			for (ByteBuffer block : blocks.values()) {
+				bytes += block.remaining();
+			}
+			IOContext.recordFetch(blocks.size(), bytes, System.nanoTime() - start);
+			if (diskCacheMetaData != null && !background) {
+				for (Map.Entry<Long, ByteBuffer> entry : blocks.entrySet()) {
+					diskBlockCache.put(getCacheKey(name, entry.getKey()), diskCacheMetaData.getLength(),
+							diskCacheMetaData.getLastModified(), entry.getValue());
+				}
+			}
+			fetched.putAll(blocks);
+			result.putAll(blocks);
+		}
+		if (blockCache != null && !background) {
+			for (Map.Entry<Long, ByteBuffer> entry : fetched.entrySet()) {
+				blockCache.put(getCacheKey(name, entry.getKey()), entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the meta data of the version of the file the blocks are cached
+	 *         for in the disk cache, or null when there is no disk cache or
+	 *         the file is unknown or still being written.
+	 */
+	private FileMetaData getDiskCacheMetaData(String name) throws IOException {
+		if (diskBlockCache == null || openOutputs.containsKey(name)) {
+			return null;
+		}
+		return metaDataCache.get(name);
+	}
+
+	/**
+	 * Wraps the block fetched from an array based store, the block is copied
+	 * off heap when direct buffers are enabled.
+	 */
+	private ByteBuffer toBuffer(byte[] block) {
+		if (block == null) {
+			return null;
+		}
+		if (!directBuffers) {
+			return ByteBuffer.wrap(block);
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(block.length);
+		buffer.put(block);
+		buffer.flip();
+		return buffer;
+	}
+
+	private BlockCacheKey getCacheKey(String name, long blockId) {
+		return new BlockCacheKey(directoryCluster, directoryName, name, blockId);
+	}
+
+	/**
+	 * Called by the output when the file is complete.
+	 * @param fileBlockShift the block shift with the {@link FileMetaData#IMMUTABLE} flag if it applies.
+	 */
+	void closeOutput(String name, long length, long fileBlockShift) throws IOException {
+		setFileLength(name, length, fileBlockShift);
+		store.flush(name);
+		evictFile(name);
+	}
+
+	/**
+	 * Called by the output when the file is complete and small enough to be
+	 * stored inline with its meta data.
+	 */
+	void closeInlineOutput(String name, byte[] data, long fileBlockShift) throws IOException {
+		setFileData(name, data, fileBlockShift);
+		store.flush(name);
+		evictFile(name);
+	}
+
+	/**
+	 * Called by the output when it is closed, even if closing failed.
+	 */
+	void removeOutput(String name, MeleIndexOutput output) {
+		openOutputs.remove(name, output);
+	}
+
+	private FileMetaData getFileMetaData(String name) throws IOException {
+		FileMetaData metaData = metaDataCache.get(name);
+		if (metaData == null) {
+			throw new FileNotFoundException(name);
+		}
+		return metaData;
+	}
+
+	private void setFileData(String name, byte[] data, long fileBlockShift) throws IOException {
+		store.setFileData(name, data, fileBlockShift);
+		putStoredMetaData(new FileMetaData(name, data.length, System.currentTimeMillis(), fileBlockShift, data));
+	}
+
+	/**
+	 * An empty file has no cached blocks, so its meta data is cached as it
+	 * was written without reading it back.
+	 */
+	private void setFileLength(String name, long length, long fileBlockShift) throws IOException {
+		store.setFileLength(name, length, fileBlockShift);
+		FileMetaData written = new FileMetaData(name, length, System.currentTimeMillis(), fileBlockShift);
+		if (length == 0) {
+			metaDataCache.put(written);
+		} else {
+			putStoredMetaData(written);
+		}
+	}
+
+	/**
+	 * Caches the meta data of a file as the store keeps it. The disk block
+	 * cache and the pinned file cache keep the blocks of a file by the last
+	 * modified time the store wrote, the same time a directory that is
+	 * opened later reads.
+	 * @param written the meta data to cache if the store does not return it.
+	 */
+	private void putStoredMetaData(FileMetaData written) throws IOException {
+		FileMetaData stored = store.getFileMetaData(written.getName());
+		metaDataCache.put(stored == null ? written : stored);
+	}
+
+	/**
+	 * Files written before the block shift was recorded use the block shift
+	 * of the directory.
+	 */
+	private long getBlockShift(FileMetaData metaData) {
+		if (metaData == null || metaData.getBlockShift() < 0) {
+			return blockShift;
+		}
+		return metaData.getBlockShift();
+	}
+
+	private void evictFile(String name) throws IOException {
+		if (blockCache != null) {
+			blockCache.removeFile(directoryCluster, directoryName, name);
+		}
+		if (diskBlockCache != null) {
+			diskBlockCache.removeFile(directoryCluster, directoryName, name);
+		}
+		if (pinnedFileCache != null) {
+			pinnedFileCache.remove(getPinnedKey(name));
+		}
+	}
+
+	private String getPinnedKey(String name) {
+		return directoryCluster + "/" + directoryName + "/" + name;
 	}
 }
@@ -20,6 +20,7 @@ package com.nearinfinity.mele.store.db;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Aaron McCurry (amccurry@nearinfinity.com)
@@ -27,7 +28,8 @@ import java.util.List;
 public interface MeleDirectoryStore {
 	
 	/**
-	 * Saves the block of file data to a persistent store.
+	 * Saves the block of file data to a persistent store. The caller may reuse
+	 * the block once the call returns, so the store must not keep it.
 	 * @param name the name of the file to save.
 	 * @param blockId the block id to save.
 	 * @param block the binary data to save.
@@ -44,6 +46,23 @@ public interface MeleDirectoryStore {
 	 */
 	byte[] fetchBlock(String name, long blockId) throws IOException;
 	
+	/**
+	 * Saves many blocks of file data to a persistent store in as few calls as possible.
+	 * @param name the name of the file to save.
+	 * @param blocks the binary data to save keyed by block id.
+	 * @throws IOException
+	 */
+	void saveBlocks(String name, Map<Long, byte[]> blocks) throws IOException;
+	
+	/**
+	 * Fetches many blocks of data from the persistent store in as few calls as possible.
+	 * @param name the name of the file to fetch.
+	 * @param blockIds the block ids to fetch.
+	 * @return the binary data keyed by block id, blocks that do not exist are not included.
+	 * @throws IOException
+	 */
+	Map<Long, byte[]> fetchBlocks(String name, List<Long> blockIds) throws IOException;
+	
 	/**
 	 * Lists all available files in this directory.
 	 * @return the list of all the files in this directory.
@@ -51,6 +70,21 @@ public interface MeleDirectoryStore {
 	 */
 	List<String> getAllFileNames() throws IOException;
 	
+	/**
+	 * Lists the meta data of all available files in this directory.
+	 * @return the meta data of all the files in this directory.
+	 * @throws IOException
+	 */
+	List<FileMetaData> getAllFileMetaData() throws IOException;
+	
+	/**
+	 * Gets the length and last modified time of a file in a single call.
+	 * @param name the file name.
+	 * @return the file meta data or null if the file does not exist.
+	 * @throws IOException
+	 */
+	FileMetaData getFileMetaData(String name) throws IOException;
+	
 	/**
 	 * Checks to see if a file exists.
 	 * @param name the file to check.
@@ -83,6 +117,26 @@ public interface MeleDirectoryStore {
 	 */
 	void setFileLength(String name, long length) throws IOException;
 	
+	/**
+	 * Sets file length and the block shift the file is written with.
+	 * @param name the file name.
+	 * @param length the file length.
+	 * @param blockShift the block shift.
+	 * @throws IOException
+	 */
+	void setFileLength(String name, long length, long blockShift) throws IOException;
+	
+	/**
+	 * Stores the whole content of a small file inline with its meta data, so
+	 * that it is returned by {@link #getFileMetaData(String)} and
+	 * {@link #getAllFileMetaData()} without fetching any blocks.
+	 * @param name the file name.
+	 * @param data the content of the file, the file length is its length.
+	 * @param blockShift the block shift.
+	 * @throws IOException
+	 */
+	void setFileData(String name, byte[] data, long blockShift) throws IOException;
+	
 	/**
 	 * Closes this directory data access object.
 	 */
@@ -103,6 +157,14 @@ public interface MeleDirectoryStore {
 	 */
 	void removeBlock(String name, long blockId) throws IOException;
 	
+	/**
+	 * Removes many blocks for the given file in as few calls as possible.
+	 * @param name the filename.
+	 * @param blockIds the block ids.
+	 * @throws IOException
+	 */
+	void removeBlocks(String name, List<Long> blockIds) throws IOException;
+	
 	/**
 	 * Removes the file meta data.
 	 * @param name the filename.
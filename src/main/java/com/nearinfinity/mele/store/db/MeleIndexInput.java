@@ -0,0 +1,344 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db;
+
+import static com.nearinfinity.mele.store.db.MeleDirectory.getBlock;
+import static com.nearinfinity.mele.store.db.MeleDirectory.getPosition;
+import static com.nearinfinity.mele.store.db.MeleDirectory.getRealPosition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.store.IndexInput;
+
+import com.nearinfinity.mele.util.IOContext;
+import com.nearinfinity.mele.util.IOPriority;
+
+/**
+ * Reads a file block by block from the {@link MeleDirectory}. The input reads
+ * straight out of the current block, which is a duplicate of the buffer that
+ * is held by the block cache, so moving to the next block only swaps the
+ * reference and clones share the block content without copying it. Blocks
+ * can be heap or direct buffers and are never modified.
+ * While the input is read sequentially the following blocks are fetched in
+ * the background, the read ahead window doubles on every sequential read up
+ * to the configured maximum and drops back to zero on a random seek. The
+ * window is refilled with one batch once less than half of it is ahead of
+ * the reader, not topped up by a block on every read. Files
+ * that are smaller than the small file threshold are fetched whole when they
+ * are opened, files stored inline with their meta data are read from it. The
+ * final block of a file only holds the used bytes.
+ */
+class MeleIndexInput extends IndexInput {
+
+    private static final Log LOG = LogFactory.getLog(MeleIndexInput.class);
+
+    private final MeleDirectory directory;
+    private final String name;
+    private final long fileLength;
+    private final long blockShift;
+    private final long blockMask;
+    private final long lastBlockId;
+    private final ExecutorService readAheadExecutor;
+    private final int maxReadAheadBlocks;
+    private Map<Long, ByteBuffer> fileBlocks;
+    private Map<Long, ByteBuffer> pendingBlocks;
+    private Map<Long, Future<Map<Long, ByteBuffer>>> readAhead;
+    private int readAheadWindow;
+    private long readAheadEnd = -1;
+    private long nextBlockId;
+    private ByteBuffer block;
+    private long blockId;
+    private int blockPosition;
+    private int blockLength;
+
+    MeleIndexInput(MeleDirectory directory, String name, long fileLength, long blockShift, long blockMask,
+            ExecutorService readAheadExecutor, int maxReadAheadBlocks, long smallFileThreshold, byte[] data)
+            throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.fileLength = fileLength;
+        this.blockShift = blockShift;
+        this.blockMask = blockMask;
+        this.lastBlockId = fileLength == 0 ? -1 : getBlock(fileLength - 1, blockShift);
+        this.readAheadExecutor = readAheadExecutor;
+        this.maxReadAheadBlocks = maxReadAheadBlocks;
+        if (data != null) {
+            fileBlocks = new HashMap<Long, ByteBuffer>();
+            fileBlocks.put(0L, ByteBuffer.wrap(data));
+        } else if (fileLength > 0 && fileLength <= smallFileThreshold) {
+            fileBlocks = directory.fetchBlocks(name, getBlockIds(0, lastBlockId));
+        }
+    }
+
+    @Override
+    public long length() {
+        return fileLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        readAhead = null;
+        pendingBlocks = null;
+    }
+
+    @Override
+    public Object clone() {
+        MeleIndexInput clone = (MeleIndexInput) super.clone();
+        clone.block = block == null ? null : block.duplicate();
+        clone.pendingBlocks = null;
+        clone.readAhead = null;
+        clone.readAheadWindow = 0;
+        clone.readAheadEnd = -1;
+        return clone;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return getRealPosition(blockId, blockPosition, blockShift);
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        long newBlockId = getBlock(pos, blockShift);
+        if (newBlockId != blockId) {
+            block = null;
+            blockId = newBlockId;
+            blockLength = 0;
+        }
+        blockPosition = (int) getPosition(pos, blockMask);
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (blockPosition >= blockLength) {
+            nextBlock();
+        }
+        return block.get(blockPosition++);
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+        if (len > blockLength - blockPosition) {
+            prefetch(len);
+        }
+        while (len > 0) {
+            if (blockPosition >= blockLength) {
+                nextBlock();
+            }
+            int length = Math.min(len, blockLength - blockPosition);
+            block.position(blockPosition);
+            block.get(b, offset, length);
+            blockPosition += length;
+            offset += length;
+            len -= length;
+        }
+    }
+
+    @Override
+    public int readVInt() throws IOException {
+        if (blockLength - blockPosition < 5) {
+            return super.readVInt();
+        }
+        byte b = block.get(blockPosition++);
+        int i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = block.get(blockPosition++);
+            i |= (b & 0x7F) << shift;
+        }
+        return i;
+    }
+
+    @Override
+    public long readVLong() throws IOException {
+        if (blockLength - blockPosition < 9) {
+            return super.readVLong();
+        }
+        byte b = block.get(blockPosition++);
+        long i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = block.get(blockPosition++);
+            i |= (b & 0x7FL) << shift;
+        }
+        return i;
+    }
+
+    /**
+     * Moves to the next block once the current block is used up, or loads the
+     * current block after a seek.
+     */
+    private void nextBlock() throws IOException {
+        long position = getFilePointer();
+        if (position >= fileLength) {
+            throw new IOException("Read past EOF [" + name + "]");
+        }
+        long newBlockId = getBlock(position, blockShift);
+        int newBlockPosition = (int) getPosition(position, blockMask);
+        ByteBuffer newBlock = loadBlock(newBlockId).duplicate();
+        int newBlockLength = (int) Math.min(newBlock.limit(), fileLength - getRealPosition(newBlockId, 0, blockShift));
+        if (newBlockPosition >= newBlockLength) {
+            throw new IOException("Block [" + newBlockId + "] of file [" + name + "] is too short [" + newBlock.limit()
+                    + "] to read position [" + newBlockPosition + "].");
+        }
+        block = newBlock;
+        blockId = newBlockId;
+        blockPosition = newBlockPosition;
+        blockLength = newBlockLength;
+    }
+
+    private ByteBuffer loadBlock(long id) throws IOException {
+        ByteBuffer result;
+        if (fileBlocks != null) {
+            result = fileBlocks.get(id);
+        } else if (pendingBlocks != null && pendingBlocks.containsKey(id)) {
+            result = pendingBlocks.remove(id);
+        } else {
+            result = getReadAheadBlock(id);
+            if (result == null) {
+                result = directory.fetchBlock(name, id);
+            }
+            readAhead(id, id);
+        }
+        if (result == null) {
+            throw new IOException("Block [" + id + "] of file [" + name + "] not found.");
+        }
+        return result;
+    }
+
+    /**
+     * Fetches the blocks that a read spanning more than the current block
+     * needs with a single batch call.
+     */
+    private void prefetch(int len) throws IOException {
+        if (fileBlocks != null) {
+            return;
+        }
+        long position = getFilePointer();
+        long firstBlockId = block == null ? getBlock(position, blockShift) : blockId + 1;
+        long lastReadBlockId = Math.min(getBlock(position + len - 1, blockShift), lastBlockId);
+        if (lastReadBlockId - firstBlockId < 1) {
+            return;
+        }
+        Map<Long, ByteBuffer> blocks = new HashMap<Long, ByteBuffer>();
+        List<Long> missing = new ArrayList<Long>();
+        for (long id = firstBlockId; id <= lastReadBlockId; id++) {
+            ByteBuffer b = getReadAheadBlock(id);
+            if (b == null) {
+                missing.add(id);
+            } else {
+                blocks.put(id, b);
+            }
+        }
+        if (!missing.isEmpty()) {
+            blocks.putAll(directory.fetchBlocks(name, missing));
+        }
+        pendingBlocks = blocks;
+        readAhead(firstBlockId, lastReadBlockId);
+    }
+
+    private ByteBuffer getReadAheadBlock(long id) {
+        if (readAhead == null) {
+            return null;
+        }
+        Future<Map<Long, ByteBuffer>> future = readAhead.remove(id);
+        if (future == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            return future.get().get(id);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            LOG.warn("Read ahead of block [" + id + "] of file [" + name + "] failed.", e.getCause());
+            return null;
+        } finally {
+            IOContext.recordWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Grows the read ahead window while the reads are sequential and schedules
+     * the blocks past the current read that are not already in flight once
+     * less than half of the window is left ahead of the read.
+     */
+    private void readAhead(long firstBlockId, long lastReadBlockId) {
+        if (readAheadExecutor == null || fileBlocks != null) {
+            return;
+        }
+        if (firstBlockId == nextBlockId || firstBlockId == nextBlockId - 1) {
+            readAheadWindow = readAheadWindow == 0 ? 1 : Math.min(readAheadWindow * 2, maxReadAheadBlocks);
+        } else {
+            readAheadWindow = 0;
+            readAheadEnd = -1;
+            readAhead = null;
+        }
+        nextBlockId = lastReadBlockId + 1;
+        if (readAheadEnd - lastReadBlockId >= (readAheadWindow + 1) / 2) {
+            return;
+        }
+        long start = Math.max(readAheadEnd + 1, nextBlockId);
+        long end = Math.min(lastReadBlockId + readAheadWindow, lastBlockId);
+        if (start > end) {
+            return;
+        }
+        final List<Long> blockIds = getBlockIds(start, end);
+        final IOPriority priority = IOPriority.get();
+        final IOContext context = IOContext.get();
+        Future<Map<Long, ByteBuffer>> future = readAheadExecutor.submit(new Callable<Map<Long, ByteBuffer>>() {
+            @Override
+            public Map<Long, ByteBuffer> call() throws Exception {
+                IOPriority previous = IOPriority.set(priority);
+                IOContext previousContext = IOContext.set(context);
+                try {
+                    return directory.fetchBlocks(name, blockIds);
+                } finally {
+                    IOPriority.set(previous);
+                    IOContext.set(previousContext);
+                }
+            }
+        });
+        if (readAhead == null) {
+            readAhead = new HashMap<Long, Future<Map<Long, ByteBuffer>>>();
+        }
+        for (Long blockId : blockIds) {
+            readAhead.put(blockId, future);
+        }
+        readAheadEnd = end;
+    }
+
+    private static List<Long> getBlockIds(long firstBlockId, long lastBlockId) {
+        List<Long> blockIds = new ArrayList<Long>();
+        for (long blockId = firstBlockId; blockId <= lastBlockId; blockId++) {
+            blockIds.add(blockId);
+        }
+        return blockIds;
+    }
+}
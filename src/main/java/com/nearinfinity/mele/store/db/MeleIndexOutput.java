@@ -0,0 +1,359 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db;
+
+import static com.nearinfinity.mele.store.db.MeleDirectory.getBlock;
+import static com.nearinfinity.mele.store.db.MeleDirectory.getPosition;
+import static com.nearinfinity.mele.store.db.MeleDirectory.getRealPosition;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.store.IndexOutput;
+
+import com.nearinfinity.mele.util.IOPriority;
+
+/**
+ * Assembles whole blocks in memory and writes every block to the
+ * {@link MeleDirectoryStore} once it is full, the final partial block and the
+ * file length are written on close. A block that was already written is only
+ * fetched back from the store when the output seeks backwards into it. Only
+ * the used bytes of a block are saved, so the final block of a file is
+ * usually shorter than the block size.
+ * <p>
+ * In write behind mode the blocks are saved by the directory's write behind
+ * executor. The number of blocks in flight is limited per output and per
+ * directory, writers block once a limit is reached. {@link #close()} and
+ * {@link MeleDirectory#sync(String)} wait for all the blocks of the output and
+ * rethrow the first failure.
+ * <p>
+ * Files up to the inline threshold are not written to blocks at all, their
+ * content is stored with the file meta data when the output is closed.
+ * <p>
+ * A file that did not exist before and whose blocks were each saved only
+ * once is closed as {@link FileMetaData#IMMUTABLE}, a block that is saved
+ * again after seeking back or after a flush of a partial block clears it.
+ */
+class MeleIndexOutput extends IndexOutput {
+
+    private final MeleDirectory directory;
+    private final MeleDirectoryStore store;
+    private final BlockBufferPool bufferPool;
+    private final String name;
+    private final long blockShift;
+    private final long blockMask;
+    private final int blockSize;
+    private final byte[] block;
+    private long blockId;
+    private int blockPosition;
+    private int blockLength;
+    private boolean dirty;
+    private long fileLength;
+    private boolean closed;
+    private final ExecutorService writeBehindExecutor;
+    private final PendingBlockPermits directoryPermits;
+    private final Semaphore outputPermits;
+    private final int maxPendingBlocks;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private final long inlineFileThreshold;
+    private long savedBehindBlockId = -1;
+    private long maxSavedBlockId = -1;
+    private boolean immutable;
+
+    MeleIndexOutput(MeleDirectory directory, MeleDirectoryStore store, BlockBufferPool bufferPool, String name,
+            long blockShift, long blockMask, int blockSize, ExecutorService writeBehindExecutor,
+            PendingBlockPermits directoryPermits, int maxPendingBlocks, long inlineFileThreshold, boolean newFile) {
+        this.directory = directory;
+        this.store = store;
+        this.bufferPool = bufferPool;
+        this.name = name;
+        this.blockShift = blockShift;
+        this.blockMask = blockMask;
+        this.blockSize = blockSize;
+        this.block = bufferPool.acquire(blockSize);
+        Arrays.fill(block, 0, blockSize, (byte) 0);
+        this.writeBehindExecutor = writeBehindExecutor;
+        this.directoryPermits = directoryPermits;
+        this.maxPendingBlocks = maxPendingBlocks;
+        this.inlineFileThreshold = inlineFileThreshold;
+        this.outputPermits = writeBehindExecutor == null ? null : new Semaphore(maxPendingBlocks);
+        this.immutable = newFile;
+    }
+
+    @Override
+    public void writeByte(byte b) throws IOException {
+        if (blockPosition == blockSize) {
+            switchBlock(blockId + 1);
+        }
+        block[blockPosition++] = b;
+        written();
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (blockPosition == blockSize) {
+                switchBlock(blockId + 1);
+            }
+            if (blockPosition == 0 && length >= blockSize * 2) {
+                int count = length / blockSize;
+                writeFullBlocks(b, offset, count);
+                offset += count * blockSize;
+                length -= count * blockSize;
+                continue;
+            }
+            int len = Math.min(length, blockSize - blockPosition);
+            System.arraycopy(b, offset, block, blockPosition, len);
+            blockPosition += len;
+            offset += len;
+            length -= len;
+            written();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!isInline()) {
+            flushBlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (isInline()) {
+                directory.closeInlineOutput(name, Arrays.copyOf(block, (int) length()), blockShift);
+                return;
+            }
+            flushBlock();
+            waitForPendingBlocks();
+            directory.closeOutput(name, fileLength, immutable ? blockShift | FileMetaData.IMMUTABLE : blockShift);
+        } finally {
+            bufferPool.release(block);
+            directory.removeOutput(name, this);
+        }
+    }
+
+    /**
+     * Waits until every block handed to the write behind executor is saved.
+     * @throws IOException if a block could not be saved.
+     */
+    void waitForPendingBlocks() throws IOException {
+        if (writeBehindExecutor != null) {
+            acquire(outputPermits, maxPendingBlocks);
+            outputPermits.release(maxPendingBlocks);
+        }
+        checkFailure();
+    }
+
+    @Override
+    public long getFilePointer() {
+        return getRealPosition(blockId, blockPosition, blockShift);
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        long newBlockId = getBlock(pos, blockShift);
+        if (newBlockId != blockId) {
+            switchBlock(newBlockId);
+        }
+        blockPosition = (int) getPosition(pos, blockMask);
+    }
+
+    @Override
+    public long length() throws IOException {
+        return Math.max(fileLength, getRealPosition(blockId, blockLength, blockShift));
+    }
+
+    /**
+     * A file that still fits into its first block and is not larger than the
+     * inline threshold is kept in memory until it is closed, so that it can be
+     * stored inline with its meta data.
+     */
+    private boolean isInline() throws IOException {
+        return inlineFileThreshold > 0 && blockId == 0 && length() <= inlineFileThreshold && length() <= blockSize;
+    }
+
+    private void written() {
+        dirty = true;
+        if (blockPosition > blockLength) {
+            blockLength = blockPosition;
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (dirty) {
+            saving(blockId);
+        }
+        if (dirty && writeBehindExecutor != null) {
+            if (blockId == savedBehindBlockId) {
+                // the block was flushed before and rewritten since, the older
+                // save must not land after this one
+                waitForPendingBlocks();
+            }
+            savedBehindBlockId = blockId;
+            Map<Long, byte[]> blocks = new HashMap<Long, byte[]>();
+            blocks.put(blockId, Arrays.copyOf(block, blockLength));
+            saveBehind(blocks);
+            dirty = false;
+        } else if (dirty) {
+            if (store instanceof ByteBufferMeleDirectoryStore) {
+                ((ByteBufferMeleDirectoryStore) store).saveBlockBuffer(name, blockId, ByteBuffer.wrap(block, 0, blockLength));
+            } else {
+                store.saveBlock(name, blockId, blockLength == blockSize ? block : Arrays.copyOf(block, blockLength));
+            }
+            dirty = false;
+        }
+        fileLength = length();
+    }
+
+    /**
+     * Writes whole blocks straight from the caller's buffer to the store in one
+     * batch, the current block is completely overwritten so it is not saved.
+     */
+    private void writeFullBlocks(byte[] b, int offset, int count) throws IOException {
+        if (savedBehindBlockId >= blockId && savedBehindBlockId < blockId + count) {
+            // a flushed block is overwritten, its save must not land after this one
+            waitForPendingBlocks();
+        }
+        Map<Long, byte[]> blocks = new HashMap<Long, byte[]>();
+        for (int i = 0; i < count; i++) {
+            saving(blockId + i);
+            int start = offset + i * blockSize;
+            blocks.put(blockId + i, Arrays.copyOfRange(b, start, start + blockSize));
+            if (writeBehindExecutor != null && (blocks.size() == maxPendingBlocks || i == count - 1)) {
+                saveBehind(blocks);
+                blocks = new HashMap<Long, byte[]>();
+            }
+        }
+        if (!blocks.isEmpty()) {
+            store.saveBlocks(name, blocks);
+        }
+        dirty = false;
+        fileLength = Math.max(fileLength, getRealPosition(blockId + count, 0, blockShift));
+        loadBlock(blockId + count);
+    }
+
+    /**
+     * Blocks of a new file are normally saved in ascending order, any other
+     * order may save a block twice.
+     */
+    private void saving(long savedBlockId) {
+        if (savedBlockId <= maxSavedBlockId) {
+            immutable = false;
+        } else {
+            maxSavedBlockId = savedBlockId;
+        }
+    }
+
+    private void switchBlock(long newBlockId) throws IOException {
+        flushBlock();
+        loadBlock(newBlockId);
+    }
+
+    private void loadBlock(long newBlockId) throws IOException {
+        blockId = newBlockId;
+        blockPosition = 0;
+        blockLength = 0;
+        Arrays.fill(block, 0, blockSize, (byte) 0);
+        long start = getRealPosition(newBlockId, 0, blockShift);
+        if (start < fileLength) {
+            waitForPendingBlocks();
+            byte[] existing = store.fetchBlock(name, newBlockId);
+            if (existing != null) {
+                System.arraycopy(existing, 0, block, 0, Math.min(existing.length, blockSize));
+            }
+            blockLength = (int) Math.min(blockSize, fileLength - start);
+        }
+    }
+
+    /**
+     * Hands the blocks to the write behind executor once there are permits
+     * for all of them, the output and the directory permits are released when
+     * the blocks are saved.
+     */
+    private void saveBehind(final Map<Long, byte[]> blocks) throws IOException {
+        checkFailure();
+        final int permits = blocks.size();
+        acquire(outputPermits, permits);
+        final int directoryPermitCount;
+        try {
+            directoryPermitCount = directoryPermits.acquireUpTo(permits);
+        } catch (InterruptedException e) {
+            outputPermits.release(permits);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        final IOPriority priority = IOPriority.get();
+        try {
+            writeBehindExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    IOPriority previous = IOPriority.set(priority);
+                    try {
+                        if (permits == 1) {
+                            Map.Entry<Long, byte[]> entry = blocks.entrySet().iterator().next();
+                            store.saveBlock(name, entry.getKey(), entry.getValue());
+                        } else {
+                            store.saveBlocks(name, blocks);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        IOPriority.set(previous);
+                        directoryPermits.release(directoryPermitCount);
+                        outputPermits.release(permits);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            directoryPermits.release(directoryPermitCount);
+            outputPermits.release(permits);
+            throw new IOException(e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IOException("Could not save a block of file [" + name + "]", t);
+        }
+    }
+
+    private static void acquire(Semaphore semaphore, int permits) throws IOException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+}
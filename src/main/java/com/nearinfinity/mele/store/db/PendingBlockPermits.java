@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the blocks of a directory that are saved in the background, the
+ * limit can be changed while outputs hold permits. A request for more
+ * permits than the limit takes the whole limit so an output that was created
+ * under a larger limit can not wait forever.
+ */
+class PendingBlockPermits extends Semaphore {
+
+    private static final long serialVersionUID = 4466262327911735612L;
+
+    private int limit;
+
+    PendingBlockPermits(int limit) {
+        super(limit);
+        this.limit = limit;
+    }
+
+    /**
+     * @return the number of permits that were acquired and must be released.
+     * @throws InterruptedException
+     */
+    int acquireUpTo(int permits) throws InterruptedException {
+        int acquired;
+        synchronized (this) {
+            acquired = Math.max(1, Math.min(permits, limit));
+        }
+        acquire(acquired);
+        return acquired;
+    }
+
+    synchronized void setLimit(int newLimit) {
+        if (newLimit > limit) {
+            release(newLimit - limit);
+        } else if (newLimit < limit) {
+            reducePermits(limit - newLimit);
+        }
+        limit = newLimit;
+    }
+}
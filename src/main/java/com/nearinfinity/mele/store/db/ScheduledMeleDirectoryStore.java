@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.nearinfinity.mele.util.IOPriority;
+import com.nearinfinity.mele.util.IOScheduler;
+
+/**
+ * Runs every call to the wrapped store with a permit of an
+ * {@link IOScheduler}, so that searches are not queued behind merges and
+ * replication on the connections to the store. The blocks moved by
+ * background callers count against the background bandwidth.
+ * <p>
+ * A store whose commands already take permits of the scheduler, like the
+ * stores of a {@link com.nearinfinity.mele.store.db.cassandra.CassandraExecutor}
+ * with the scheduler set, is only throttled, taking a permit here as well
+ * would hold two permits for one command.
+ */
+public class ScheduledMeleDirectoryStore implements MeleDirectoryStore {
+
+    private final MeleDirectoryStore store;
+    private final IOScheduler scheduler;
+    private final boolean acquirePermits;
+
+    public ScheduledMeleDirectoryStore(MeleDirectoryStore store, IOScheduler scheduler) {
+        this(store, scheduler, true);
+    }
+
+    /**
+     * @param acquirePermits false to only throttle the background callers
+     *            when the wrapped store takes the permits itself.
+     */
+    public ScheduledMeleDirectoryStore(MeleDirectoryStore store, IOScheduler scheduler, boolean acquirePermits) {
+        this.store = store;
+        this.scheduler = scheduler;
+        this.acquirePermits = acquirePermits;
+    }
+
+    @Override
+    public void saveBlock(String name, long blockId, byte[] block) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.saveBlock(name, blockId, block);
+        } finally {
+            release(priority);
+        }
+        scheduler.throttle(priority, block.length);
+    }
+
+    @Override
+    public byte[] fetchBlock(String name, long blockId) throws IOException {
+        IOPriority priority = acquire();
+        byte[] block;
+        try {
+            block = store.fetchBlock(name, blockId);
+        } finally {
+            release(priority);
+        }
+        if (block != null) {
+            scheduler.throttle(priority, block.length);
+        }
+        return block;
+    }
+
+    @Override
+    public void saveBlocks(String name, Map<Long, byte[]> blocks) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.saveBlocks(name, blocks);
+        } finally {
+            release(priority);
+        }
+        scheduler.throttle(priority, getLength(blocks));
+    }
+
+    @Override
+    public Map<Long, byte[]> fetchBlocks(String name, List<Long> blockIds) throws IOException {
+        IOPriority priority = acquire();
+        Map<Long, byte[]> blocks;
+        try {
+            blocks = store.fetchBlocks(name, blockIds);
+        } finally {
+            release(priority);
+        }
+        scheduler.throttle(priority, getLength(blocks));
+        return blocks;
+    }
+
+    @Override
+    public List<String> getAllFileNames() throws IOException {
+        IOPriority priority = acquire();
+        try {
+            return store.getAllFileNames();
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public List<FileMetaData> getAllFileMetaData() throws IOException {
+        IOPriority priority = acquire();
+        try {
+            return store.getAllFileMetaData();
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public FileMetaData getFileMetaData(String name) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            return store.getFileMetaData(name);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public boolean fileExists(String name) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            return store.fileExists(name);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public long getFileModified(String name) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            return store.getFileModified(name);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public long getFileLength(String name) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            return store.getFileLength(name);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public void setFileLength(String name, long length) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.setFileLength(name, length);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public void setFileLength(String name, long length, long blockShift) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.setFileLength(name, length, blockShift);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public void setFileData(String name, byte[] data, long blockShift) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.setFileData(name, data, blockShift);
+        } finally {
+            release(priority);
+        }
+        scheduler.throttle(priority, data.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    @Override
+    public void flush(String name) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.flush(name);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public void removeBlock(String name, long blockId) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.removeBlock(name, blockId);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public void removeBlocks(String name, List<Long> blockIds) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.removeBlocks(name, blockIds);
+        } finally {
+            release(priority);
+        }
+    }
+
+    @Override
+    public void removeFileMetaData(String name) throws IOException {
+        IOPriority priority = acquire();
+        try {
+            store.removeFileMetaData(name);
+        } finally {
+            release(priority);
+        }
+    }
+
+    private IOPriority acquire() throws IOException {
+        return acquirePermits ? scheduler.acquire() : IOPriority.get();
+    }
+
+    private void release(IOPriority priority) {
+        if (acquirePermits) {
+            scheduler.release(priority);
+        }
+    }
+
+    private static long getLength(Map<Long, byte[]> blocks) {
+        long length = 0;
+        for (byte[] block : blocks.values()) {
+            length += block.length;
+        }
+        return length;
+    }
+}
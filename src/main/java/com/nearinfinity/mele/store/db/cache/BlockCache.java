@@ -0,0 +1,401 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A node wide LRU cache of file blocks that is shared by all the
+ * {@link com.nearinfinity.mele.store.db.MeleDirectory} instances. The cache
+ * is split into lock striped segments, each segment owns an equal share of the
+ * total memory budget. Every directory cluster is also limited to a quota so
+ * that one cluster can not push the blocks of the others out of the cache, the
+ * quota is split evenly across the segments like the budget so a segment can
+ * always make room for a cluster from its own blocks. Each segment indexes its
+ * blocks by file so a file is removed without scanning the cache.
+ * Blocks can be heap or direct buffers, they are accounted by capacity and are
+ * read with absolute gets or through duplicates so they are never modified.
+ * <p>
+ * A full segment only admits a new block if the block was accessed at least
+ * as often as the blocks it would evict, the access frequencies are estimated
+ * with a {@link FrequencySketch} (TinyLFU). A scan of blocks that are read once
+ * therefore only replaces other blocks that were read once and leaves the
+ * working set alone.
+ */
+public class BlockCache {
+
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long maxBytes;
+    private final long maxBytesPerCluster;
+    private final ConcurrentMap<String, AtomicLong> clusterSizes = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * @param maxBytes the total memory budget of the cache.
+     * @param maxBytesPerCluster the memory budget of a single directory cluster.
+     * @param concurrencyLevel the number of lock stripes, rounded up to a power of two.
+     */
+    public BlockCache(long maxBytes, long maxBytesPerCluster, int concurrencyLevel) {
+        this(maxBytes, maxBytesPerCluster, concurrencyLevel, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param maxBytes the total memory budget of the cache.
+     * @param maxBytesPerCluster the memory budget of a single directory cluster.
+     * @param concurrencyLevel the number of lock stripes, rounded up to a power of two.
+     * @param averageBlockSize the expected average block size, used to size the frequency sketch.
+     */
+    public BlockCache(long maxBytes, long maxBytesPerCluster, int concurrencyLevel, int averageBlockSize) {
+        int numberOfSegments = 1;
+        while (numberOfSegments < concurrencyLevel) {
+            numberOfSegments <<= 1;
+        }
+        this.maxBytes = maxBytes;
+        this.maxBytesPerCluster = maxBytesPerCluster <= 0 ? maxBytes : Math.min(maxBytes, maxBytesPerCluster);
+        this.segmentMask = numberOfSegments - 1;
+        this.segments = new Segment[numberOfSegments];
+        long maxBytesPerSegment = maxBytes / numberOfSegments;
+        long maxClusterBytesPerSegment = this.maxBytesPerCluster / numberOfSegments;
+        for (int i = 0; i < numberOfSegments; i++) {
+            segments[i] = new Segment(maxBytesPerSegment, maxClusterBytesPerSegment,
+                    (int) Math.min(Integer.MAX_VALUE, maxBytesPerSegment / averageBlockSize));
+        }
+    }
+
+    /**
+     * Gets a block from the cache.
+     * @param key the block key.
+     * @return the block or null if the block is not cached.
+     */
+    public ByteBuffer get(BlockCacheKey key) {
+        ByteBuffer block = segmentFor(key).get(key);
+        if (block == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return block;
+    }
+
+    /**
+     * Gets a block from the cache without counting the access, so background
+     * reads such as merges neither promote the block nor raise its frequency.
+     * @param key the block key.
+     * @return the block or null if the block is not cached.
+     */
+    public ByteBuffer peek(BlockCacheKey key) {
+        return segmentFor(key).peek(key);
+    }
+
+    /**
+     * Puts a block into the cache, neither the content nor the position and
+     * limit of the block may be modified afterwards.
+     * @param key the block key.
+     * @param block the block.
+     */
+    public void put(BlockCacheKey key, ByteBuffer block) {
+        segmentFor(key).put(key, block);
+    }
+
+    /**
+     * Removes a single block from the cache.
+     * @param key the block key.
+     */
+    public void remove(BlockCacheKey key) {
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * Removes all the cached blocks of the given file.
+     * @param directoryCluster the directory cluster.
+     * @param directoryName the directory name.
+     * @param fileName the file name.
+     */
+    public void removeFile(String directoryCluster, String directoryName, String fileName) {
+        BlockCacheKey fileKey = new BlockCacheKey(directoryCluster, directoryName, fileName, BlockCacheKey.FILE);
+        for (Segment segment : segments) {
+            segment.removeFile(fileKey);
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxBytesPerCluster() {
+        return maxBytesPerCluster;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getClusterSize(String directoryCluster) {
+        AtomicLong clusterSize = clusterSizes.get(directoryCluster);
+        if (clusterSize == null) {
+            return 0;
+        }
+        return clusterSize.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCache [size=" + getSize() + ", maxBytes=" + maxBytes + ", hits=" + getHitCount() + ", misses="
+                + getMissCount() + ", evictions=" + getEvictionCount() + ", rejections=" + getRejectionCount() + "]";
+    }
+
+    private Segment segmentFor(BlockCacheKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    private AtomicLong getClusterSizeCounter(String directoryCluster) {
+        AtomicLong clusterSize = clusterSizes.get(directoryCluster);
+        if (clusterSize == null) {
+            clusterSize = new AtomicLong();
+            AtomicLong existing = clusterSizes.putIfAbsent(directoryCluster, clusterSize);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return clusterSize;
+    }
+
+    private class Segment extends ReentrantLock {
+
+        private static final long serialVersionUID = -3187251640418766463L;
+
+        /** Kept in insertion order, a block is moved to the tail when it is used. */
+        private final LinkedHashMap<BlockCacheKey, ByteBuffer> blocks = new LinkedHashMap<BlockCacheKey, ByteBuffer>();
+        /** The cached blocks of every file keyed by {@link BlockCacheKey#getFileKey()}. */
+        private final Map<BlockCacheKey, Set<BlockCacheKey>> files = new HashMap<BlockCacheKey, Set<BlockCacheKey>>();
+        /** The bytes every directory cluster holds in this segment. */
+        private final Map<String, Long> clusterSizes = new HashMap<String, Long>();
+        private final FrequencySketch sketch;
+        private final long maxBytesPerSegment;
+        private final long maxClusterBytesPerSegment;
+        private long segmentSize;
+
+        Segment(long maxBytesPerSegment, long maxClusterBytesPerSegment, int expectedEntries) {
+            this.maxBytesPerSegment = maxBytesPerSegment;
+            this.maxClusterBytesPerSegment = maxClusterBytesPerSegment;
+            this.sketch = new FrequencySketch(expectedEntries);
+        }
+
+        ByteBuffer get(BlockCacheKey key) {
+            lock();
+            try {
+                sketch.increment(key);
+                ByteBuffer block = blocks.remove(key);
+                if (block != null) {
+                    blocks.put(key, block);
+                }
+                return block;
+            } finally {
+                unlock();
+            }
+        }
+
+        ByteBuffer peek(BlockCacheKey key) {
+            lock();
+            try {
+                return blocks.get(key);
+            } finally {
+                unlock();
+            }
+        }
+
+        void put(BlockCacheKey key, ByteBuffer block) {
+            int length = block.capacity();
+            if (length > maxBytesPerSegment || length > maxClusterBytesPerSegment) {
+                return;
+            }
+            String directoryCluster = key.getDirectoryCluster();
+            lock();
+            try {
+                ByteBuffer existing = blocks.remove(key);
+                if (existing != null) {
+                    removed(key, existing.capacity());
+                } else if (!admit(key, length)) {
+                    rejections.incrementAndGet();
+                    return;
+                }
+                Iterator<Entry<BlockCacheKey, ByteBuffer>> iterator = blocks.entrySet().iterator();
+                while (getClusterSize(directoryCluster) + length > maxClusterBytesPerSegment && iterator.hasNext()) {
+                    Entry<BlockCacheKey, ByteBuffer> entry = iterator.next();
+                    if (entry.getKey().getDirectoryCluster().equals(directoryCluster)) {
+                        iterator.remove();
+                        evicted(entry.getKey(), entry.getValue().capacity());
+                    }
+                }
+                iterator = blocks.entrySet().iterator();
+                while (segmentSize + length > maxBytesPerSegment && iterator.hasNext()) {
+                    Entry<BlockCacheKey, ByteBuffer> entry = iterator.next();
+                    iterator.remove();
+                    evicted(entry.getKey(), entry.getValue().capacity());
+                }
+                blocks.put(key, block);
+                added(key, length);
+            } finally {
+                unlock();
+            }
+        }
+
+        void remove(BlockCacheKey key) {
+            lock();
+            try {
+                ByteBuffer block = blocks.remove(key);
+                if (block != null) {
+                    removed(key, block.capacity());
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        void removeFile(BlockCacheKey fileKey) {
+            lock();
+            try {
+                Set<BlockCacheKey> keys = files.get(fileKey);
+                if (keys == null) {
+                    return;
+                }
+                for (BlockCacheKey key : new ArrayList<BlockCacheKey>(keys)) {
+                    ByteBuffer block = blocks.remove(key);
+                    if (block != null) {
+                        removed(key, block.capacity());
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Checks that the new block was accessed at least as often as every
+         * block that would be evicted to make room for it, within the cluster
+         * quota and within the segment.
+         */
+        private boolean admit(BlockCacheKey key, int length) {
+            String directoryCluster = key.getDirectoryCluster();
+            long clusterExcess = getClusterSize(directoryCluster) + length - maxClusterBytesPerSegment;
+            long segmentExcess = segmentSize + length - maxBytesPerSegment;
+            if (clusterExcess <= 0 && segmentExcess <= 0) {
+                return true;
+            }
+            int frequency = sketch.frequency(key);
+            for (Entry<BlockCacheKey, ByteBuffer> entry : blocks.entrySet()) {
+                if (clusterExcess <= 0 && segmentExcess <= 0) {
+                    break;
+                }
+                boolean sameCluster = entry.getKey().getDirectoryCluster().equals(directoryCluster);
+                if (segmentExcess > 0 || (clusterExcess > 0 && sameCluster)) {
+                    if (sketch.frequency(entry.getKey()) > frequency) {
+                        return false;
+                    }
+                    int victimLength = entry.getValue().capacity();
+                    segmentExcess -= victimLength;
+                    if (sameCluster) {
+                        clusterExcess -= victimLength;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private long getClusterSize(String directoryCluster) {
+            Long clusterSize = clusterSizes.get(directoryCluster);
+            return clusterSize == null ? 0 : clusterSize;
+        }
+
+        private void added(BlockCacheKey key, int length) {
+            BlockCacheKey fileKey = key.getFileKey();
+            Set<BlockCacheKey> keys = files.get(fileKey);
+            if (keys == null) {
+                keys = new HashSet<BlockCacheKey>();
+                files.put(fileKey, keys);
+            }
+            keys.add(key);
+            resize(key.getDirectoryCluster(), length);
+        }
+
+        private void evicted(BlockCacheKey key, int length) {
+            removed(key, length);
+            evictions.incrementAndGet();
+        }
+
+        private void removed(BlockCacheKey key, int length) {
+            BlockCacheKey fileKey = key.getFileKey();
+            Set<BlockCacheKey> keys = files.get(fileKey);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                files.remove(fileKey);
+            }
+            resize(key.getDirectoryCluster(), -length);
+        }
+
+        private void resize(String directoryCluster, int delta) {
+            segmentSize += delta;
+            size.addAndGet(delta);
+            getClusterSizeCounter(directoryCluster).addAndGet(delta);
+            long clusterSize = getClusterSize(directoryCluster) + delta;
+            if (clusterSize == 0) {
+                clusterSizes.remove(directoryCluster);
+            } else {
+                clusterSizes.put(directoryCluster, clusterSize);
+            }
+        }
+    }
+}
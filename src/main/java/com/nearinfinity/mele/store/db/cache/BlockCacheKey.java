@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.cache;
+
+/**
+ * Identifies a single block of a file in a directory within a directory cluster.
+ */
+public final class BlockCacheKey {
+
+    /** The block id of the key that stands for a whole file. */
+    public static final long FILE = -1;
+
+    private final String directoryCluster;
+    private final String directoryName;
+    private final String fileName;
+    private final long blockId;
+    private final int hashCode;
+
+    public BlockCacheKey(String directoryCluster, String directoryName, String fileName, long blockId) {
+        this.directoryCluster = directoryCluster;
+        this.directoryName = directoryName;
+        this.fileName = fileName;
+        this.blockId = blockId;
+        this.hashCode = computeHashCode();
+    }
+
+    public String getDirectoryCluster() {
+        return directoryCluster;
+    }
+
+    public String getDirectoryName() {
+        return directoryName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getBlockId() {
+        return blockId;
+    }
+
+    /**
+     * @return the key that stands for the file of this block.
+     */
+    public BlockCacheKey getFileKey() {
+        return new BlockCacheKey(directoryCluster, directoryName, fileName, FILE);
+    }
+
+    /**
+     * Checks if this key belongs to the given file.
+     * @param directoryCluster the directory cluster.
+     * @param directoryName the directory name.
+     * @param fileName the file name.
+     * @return boolean.
+     */
+    public boolean isFile(String directoryCluster, String directoryName, String fileName) {
+        return this.fileName.equals(fileName) && this.directoryName.equals(directoryName)
+                && this.directoryCluster.equals(directoryCluster);
+    }
+
+    private int computeHashCode() {
+        int result = 31 + directoryCluster.hashCode();
+        result = 31 * result + directoryName.hashCode();
+        result = 31 * result + fileName.hashCode();
+        result = 31 * result + (int) (blockId ^ (blockId >>> 32));
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BlockCacheKey)) {
+            return false;
+        }
+        BlockCacheKey other = (BlockCacheKey) obj;
+        return blockId == other.blockId && hashCode == other.hashCode && isFile(other.directoryCluster,
+                other.directoryName, other.fileName);
+    }
+
+    @Override
+    public String toString() {
+        return directoryCluster + "/" + directoryName + "/" + fileName + "#" + blockId;
+    }
+}
@@ -0,0 +1,386 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nearinfinity.mele.store.db.FileMetaData;
+import com.nearinfinity.mele.store.db.local.LogStructuredMeleDirectoryStore;
+
+/**
+ * A second level block cache on local disk that sits under the
+ * {@link BlockCache}, blocks are kept in a {@link LogStructuredMeleDirectoryStore}
+ * so the cache survives restarts and its index is rebuilt from the segment
+ * logs after a crash. Every version of a file is stored under
+ * <code>cluster/directory/file@length-lastModified</code>, a block is only
+ * served for the version it was cached for so a file that was recreated under
+ * the same name, even with the same length, is never read from stale blocks.
+ * Only the latest cached version of a file is kept.
+ * <p>
+ * The size of the cached blocks is limited separately from the memory cache,
+ * the least recently used blocks are removed once the limit is reached. The
+ * space of removed blocks is reclaimed by the compaction of the store, so the
+ * files on disk can temporarily exceed the limit. The lock of the cache only
+ * guards its index, blocks are read and written outside of it.
+ */
+public class DiskBlockCache {
+
+    private static final Log LOG = LogFactory.getLog(DiskBlockCache.class);
+    private static final char VERSION_SEPARATOR = '@';
+
+    private final LogStructuredMeleDirectoryStore store;
+    private final long maxBytes;
+    /** Sizes of the cached blocks in access order. */
+    private final LinkedHashMap<Entry, Integer> entries = new LinkedHashMap<Entry, Integer>(16, 0.75f, true);
+    /** The name the cached version of every file is stored under. */
+    private final Map<String, String> versions = new HashMap<String, String>();
+    /** The ids of the cached blocks of every stored name. */
+    private final Map<String, Set<Long>> blockIds = new HashMap<String, Set<Long>>();
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param dir the directory of the cache, created if missing.
+     * @param maxBytes the size limit of the cached blocks.
+     * @throws IOException
+     */
+    public DiskBlockCache(File dir, long maxBytes) throws IOException {
+        this(new LogStructuredMeleDirectoryStore(dir), maxBytes);
+    }
+
+    /**
+     * @param store the store that keeps the blocks, blocks it already holds
+     *            are cached.
+     * @param maxBytes the size limit of the cached blocks.
+     * @throws IOException
+     */
+    public DiskBlockCache(LogStructuredMeleDirectoryStore store, long maxBytes) throws IOException {
+        this.store = store;
+        this.maxBytes = maxBytes;
+        Map<String, FileMetaData> latest = new HashMap<String, FileMetaData>();
+        for (FileMetaData metaData : store.getAllFileMetaData()) {
+            String baseName = getBaseName(metaData.getName());
+            FileMetaData current = baseName == null ? null : latest.get(baseName);
+            if (baseName == null || (current != null && current.getLastModified() > metaData.getLastModified())) {
+                removeStored(metaData.getName());
+                continue;
+            }
+            if (current != null) {
+                removeStored(current.getName());
+            }
+            latest.put(baseName, metaData);
+        }
+        for (Map.Entry<String, FileMetaData> entry : latest.entrySet()) {
+            versions.put(entry.getKey(), entry.getValue().getName());
+        }
+        Set<String> names = new HashSet<String>(versions.values());
+        for (String name : store.getAllBlockFileNames()) {
+            if (!names.contains(name)) {
+                store.removeBlocks(name, store.getBlockIds(name));
+                continue;
+            }
+            for (Long blockId : store.getBlockIds(name)) {
+                ByteBuffer block = store.fetchBlockBuffer(name, blockId);
+                if (block != null) {
+                    add(new Entry(name, blockId), block.remaining());
+                }
+            }
+        }
+        for (Iterator<String> iterator = versions.values().iterator(); iterator.hasNext();) {
+            String name = iterator.next();
+            if (!blockIds.containsKey(name)) {
+                store.removeFileMetaData(name);
+                iterator.remove();
+            }
+        }
+        removeStored(evict());
+        LOG.info("Recovered [" + entries.size() + "] blocks of [" + size + "] bytes from the disk cache");
+    }
+
+    /**
+     * @param key the key of the block.
+     * @param fileLength the current length of the file.
+     * @param lastModified the current modification time of the file.
+     * @return the cached block or null.
+     * @throws IOException
+     */
+    public ByteBuffer get(BlockCacheKey key, long fileLength, long lastModified) throws IOException {
+        Entry entry = new Entry(getName(key, fileLength, lastModified), key.getBlockId());
+        synchronized (this) {
+            if (entries.get(entry) == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        ByteBuffer block = store.fetchBlockBuffer(entry.name, entry.blockId);
+        if (block == null) {
+            // evicted while it was read
+            synchronized (this) {
+                hits--;
+                misses++;
+                remove(entry);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Caches the block, the blocks cached for another version of the file
+     * are removed first.
+     * @param key the key of the block.
+     * @param fileLength the current length of the file.
+     * @param lastModified the current modification time of the file.
+     * @param block the block, its position is not changed.
+     * @throws IOException
+     */
+    public void put(BlockCacheKey key, long fileLength, long lastModified, ByteBuffer block) throws IOException {
+        if (block.remaining() > maxBytes) {
+            return;
+        }
+        String baseName = getBaseName(key);
+        Entry entry = new Entry(getName(key, fileLength, lastModified), key.getBlockId());
+        String oldName = null;
+        List<Long> oldBlockIds = null;
+        boolean newVersion = false;
+        synchronized (this) {
+            oldName = versions.get(baseName);
+            if (!entry.name.equals(oldName)) {
+                versions.put(baseName, entry.name);
+                oldBlockIds = removeAll(oldName);
+                newVersion = true;
+            } else if (entries.containsKey(entry)) {
+                return;
+            }
+        }
+        if (oldName != null && oldBlockIds != null) {
+            store.removeBlocks(oldName, oldBlockIds);
+            store.removeFileMetaData(oldName);
+        }
+        if (newVersion) {
+            store.setFileLength(entry.name, fileLength);
+        }
+        store.saveBlockBuffer(entry.name, entry.blockId, block.duplicate());
+        List<Entry> removed;
+        synchronized (this) {
+            if (entry.name.equals(versions.get(baseName))) {
+                add(entry, block.remaining());
+                removed = evict();
+            } else {
+                // a newer version was cached while the block was written
+                removed = new ArrayList<Entry>();
+                removed.add(entry);
+            }
+        }
+        removeStored(removed);
+    }
+
+    /**
+     * Removes all cached blocks of the file.
+     * @throws IOException
+     */
+    public void removeFile(String directoryCluster, String directoryName, String fileName) throws IOException {
+        String name;
+        List<Long> removed;
+        synchronized (this) {
+            name = versions.remove(getBaseName(directoryCluster, directoryName, fileName));
+            if (name == null) {
+                return;
+            }
+            removed = removeAll(name);
+        }
+        store.removeBlocks(name, removed);
+        store.removeFileMetaData(name);
+    }
+
+    /**
+     * Forces the cached blocks to disk and closes the store.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        store.close();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getNumberOfBlocks() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DiskBlockCache [blocks=" + entries.size() + ", size=" + size + ", maxBytes=" + maxBytes + ", hits="
+                + hits + ", misses=" + misses + "]";
+    }
+
+    private void add(Entry entry, int length) {
+        Integer previous = entries.put(entry, length);
+        if (previous != null) {
+            size -= previous;
+        }
+        size += length;
+        Set<Long> ids = blockIds.get(entry.name);
+        if (ids == null) {
+            ids = new HashSet<Long>();
+            blockIds.put(entry.name, ids);
+        }
+        ids.add(entry.blockId);
+    }
+
+    private void remove(Entry entry) {
+        Integer length = entries.remove(entry);
+        if (length != null) {
+            size -= length;
+        }
+        removeBlockId(entry);
+    }
+
+    private void removeBlockId(Entry entry) {
+        Set<Long> ids = blockIds.get(entry.name);
+        if (ids != null) {
+            ids.remove(entry.blockId);
+            if (ids.isEmpty()) {
+                blockIds.remove(entry.name);
+            }
+        }
+    }
+
+    /**
+     * Removes the blocks of the stored name from the index.
+     * @return the ids of the removed blocks.
+     */
+    private List<Long> removeAll(String name) {
+        Set<Long> ids = name == null ? null : blockIds.remove(name);
+        if (ids == null) {
+            return new ArrayList<Long>();
+        }
+        for (Long blockId : ids) {
+            Integer length = entries.remove(new Entry(name, blockId));
+            if (length != null) {
+                size -= length;
+            }
+        }
+        return new ArrayList<Long>(ids);
+    }
+
+    /**
+     * Removes the least recently used blocks from the index until the cache
+     * fits its limit.
+     * @return the removed blocks.
+     */
+    private List<Entry> evict() {
+        List<Entry> removed = new ArrayList<Entry>();
+        Iterator<Map.Entry<Entry, Integer>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Map.Entry<Entry, Integer> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            removed.add(eldest.getKey());
+        }
+        for (Entry entry : removed) {
+            removeBlockId(entry);
+        }
+        return removed;
+    }
+
+    private void removeStored(List<Entry> removed) throws IOException {
+        for (Entry entry : removed) {
+            store.removeBlock(entry.name, entry.blockId);
+        }
+    }
+
+    private void removeStored(String name) throws IOException {
+        store.removeBlocks(name, store.getBlockIds(name));
+        store.removeFileMetaData(name);
+    }
+
+    private static String getName(BlockCacheKey key, long fileLength, long lastModified) {
+        return getBaseName(key) + VERSION_SEPARATOR + fileLength + "-" + lastModified;
+    }
+
+    private static String getBaseName(BlockCacheKey key) {
+        return getBaseName(key.getDirectoryCluster(), key.getDirectoryName(), key.getFileName());
+    }
+
+    private static String getBaseName(String directoryCluster, String directoryName, String fileName) {
+        return directoryCluster + "/" + directoryName + "/" + fileName;
+    }
+
+    /**
+     * @return the name of the file the stored name is a version of, or null
+     *         for names that carry no version.
+     */
+    private static String getBaseName(String name) {
+        int index = name.lastIndexOf(VERSION_SEPARATOR);
+        if (index < 0) {
+            return null;
+        }
+        return name.substring(0, index);
+    }
+
+    private static final class Entry {
+
+        final String name;
+        final long blockId;
+
+        Entry(String name, long blockId) {
+            this.name = name;
+            this.blockId = blockId;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + (int) (blockId ^ (blockId >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return blockId == other.blockId && name.equals(other.name);
+        }
+    }
+}
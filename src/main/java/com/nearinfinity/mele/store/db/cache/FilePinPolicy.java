@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.cache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides which files are pinned in memory by the {@link PinnedFileCache}. A
+ * file is pinned when its extension is one of the configured names, or when
+ * its name starts with a configured name followed by an underscore, so that
+ * "segments" pins every segments_N file.
+ */
+public class FilePinPolicy {
+
+    private final Set<String> names = new HashSet<String>();
+
+    /**
+     * @param pinnedFiles the comma separated extensions and name prefixes of the pinned files.
+     */
+    public FilePinPolicy(String pinnedFiles) {
+        if (pinnedFiles == null) {
+            return;
+        }
+        for (String name : pinnedFiles.split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                names.add(name);
+            }
+        }
+    }
+
+    public boolean isPinned(String name) {
+        int index = name.lastIndexOf('.');
+        if (index >= 0 && names.contains(name.substring(index + 1))) {
+            return true;
+        }
+        index = name.indexOf('_');
+        return index > 0 && names.contains(name.substring(0, index));
+    }
+}
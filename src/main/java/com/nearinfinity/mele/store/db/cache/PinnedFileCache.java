@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.lucene.store.IndexInput;
+
+/**
+ * Keeps small, hot files such as the term index and the norms completely in
+ * memory, within a budget that is separate from the {@link BlockCache}. A
+ * file stays pinned while any input opened on it is open, only files that no
+ * input refers to are evicted, least recently opened first. A file that does
+ * not fit into the budget is not pinned and is read through the normal path.
+ */
+public class PinnedFileCache {
+
+    /**
+     * Reads the whole content of a file that is about to be pinned.
+     */
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+
+    /** Kept in insertion order, a file is moved to the tail when it is opened. */
+    private final LinkedHashMap<String, PinnedFile> files = new LinkedHashMap<String, PinnedFile>();
+    private final long maxBytes;
+    private long size;
+    private long hits;
+    private long loads;
+    private long rejections;
+
+    /**
+     * @param maxBytes the memory budget of the pinned files.
+     */
+    public PinnedFileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens an input on the pinned content of the file, the file is loaded
+     * when it is not pinned yet or when it changed since it was pinned.
+     * @param key the key of the file, unique across directories.
+     * @param length the current length of the file.
+     * @param lastModified the current modified time of the file.
+     * @param loader reads the file when it has to be loaded.
+     * @return the input or null if the file does not fit into the budget.
+     * @throws IOException
+     */
+    public IndexInput openInput(String key, long length, long lastModified, Loader loader) throws IOException {
+        if (length > maxBytes || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        synchronized (this) {
+            PinnedFile file = acquire(key, length, lastModified);
+            if (file != null) {
+                hits++;
+                return new PinnedIndexInput(this, file);
+            }
+        }
+        byte[] content = loader.load();
+        synchronized (this) {
+            PinnedFile file = acquire(key, length, lastModified);
+            if (file == null) {
+                remove(key);
+                if (!makeRoom(content.length)) {
+                    rejections++;
+                    return null;
+                }
+                file = new PinnedFile(length, lastModified, ByteBuffer.wrap(content));
+                file.references = 1;
+                files.put(key, file);
+                size += content.length;
+                loads++;
+            }
+            return new PinnedIndexInput(this, file);
+        }
+    }
+
+    /**
+     * Unpins the file, inputs that are still open keep reading the old
+     * content and the memory is released when the last one is closed.
+     * @param key the key of the file.
+     */
+    public synchronized void remove(String key) {
+        PinnedFile file = files.remove(key);
+        if (file != null) {
+            file.removed = true;
+            if (file.references == 0) {
+                size -= file.content.capacity();
+            }
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getLoadCount() {
+        return loads;
+    }
+
+    public synchronized long getRejectionCount() {
+        return rejections;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PinnedFileCache [size=" + size + ", maxBytes=" + maxBytes + ", files=" + files.size() + ", hits="
+                + hits + ", loads=" + loads + ", rejections=" + rejections + "]";
+    }
+
+    synchronized void release(PinnedFile file) {
+        file.references--;
+        if (file.references == 0 && file.removed) {
+            size -= file.content.capacity();
+        }
+    }
+
+    private PinnedFile acquire(String key, long length, long lastModified) {
+        PinnedFile file = files.get(key);
+        if (file == null || file.length != length || file.lastModified != lastModified) {
+            return null;
+        }
+        files.remove(key);
+        files.put(key, file);
+        file.references++;
+        return file;
+    }
+
+    /**
+     * Evicts the least recently opened files that no input refers to until
+     * the new file fits.
+     */
+    private boolean makeRoom(int length) {
+        Iterator<PinnedFile> iterator = files.values().iterator();
+        while (size + length > maxBytes && iterator.hasNext()) {
+            PinnedFile file = iterator.next();
+            if (file.references == 0) {
+                iterator.remove();
+                size -= file.content.capacity();
+            }
+        }
+        return size + length <= maxBytes;
+    }
+
+    static class PinnedFile {
+
+        final long length;
+        final long lastModified;
+        final ByteBuffer content;
+        /** Guarded by the cache. */
+        int references;
+        boolean removed;
+
+        PinnedFile(long length, long lastModified, ByteBuffer content) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.cache;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+
+import com.nearinfinity.mele.util.IOPriority;
+
+/**
+ * Serves the pinned files of any directory, such as the local directories
+ * opened by {@link com.nearinfinity.mele.MeleBase}, from a
+ * {@link PinnedFileCache}. Background reads are never pinned.
+ */
+public class PinnedFileDirectory extends Directory {
+
+    private final Directory directory;
+    private final PinnedFileCache cache;
+    private final FilePinPolicy policy;
+    private final String keyPrefix;
+
+    /**
+     * @param directory the wrapped directory.
+     * @param cache the pinned file cache.
+     * @param policy the policy that decides which files are pinned.
+     * @param keyPrefix identifies the directory in the cache keys.
+     */
+    public PinnedFileDirectory(Directory directory, PinnedFileCache cache, FilePinPolicy policy, String keyPrefix) {
+        this.directory = directory;
+        this.cache = cache;
+        this.policy = policy;
+        this.keyPrefix = keyPrefix;
+    }
+
+    public void clearLock(String name) throws IOException {
+        directory.clearLock(name);
+    }
+
+    public void close() throws IOException {
+        directory.close();
+    }
+
+    public IndexOutput createOutput(String name) throws IOException {
+        cache.remove(keyPrefix + name);
+        return directory.createOutput(name);
+    }
+
+    public void deleteFile(String name) throws IOException {
+        cache.remove(keyPrefix + name);
+        directory.deleteFile(name);
+    }
+
+    public boolean fileExists(String name) throws IOException {
+        return directory.fileExists(name);
+    }
+
+    public long fileLength(String name) throws IOException {
+        return directory.fileLength(name);
+    }
+
+    public long fileModified(String name) throws IOException {
+        return directory.fileModified(name);
+    }
+
+    public LockFactory getLockFactory() {
+        return directory.getLockFactory();
+    }
+
+    public String getLockID() {
+        return directory.getLockID();
+    }
+
+    public String[] listAll() throws IOException {
+        return directory.listAll();
+    }
+
+    public Lock makeLock(String name) {
+        return directory.makeLock(name);
+    }
+
+    public IndexInput openInput(String name, int bufferSize) throws IOException {
+        IndexInput input = openPinnedInput(name);
+        if (input != null) {
+            return input;
+        }
+        return directory.openInput(name, bufferSize);
+    }
+
+    public IndexInput openInput(String name) throws IOException {
+        IndexInput input = openPinnedInput(name);
+        if (input != null) {
+            return input;
+        }
+        return directory.openInput(name);
+    }
+
+    public void setLockFactory(LockFactory lockFactory) {
+        directory.setLockFactory(lockFactory);
+    }
+
+    public void sync(String name) throws IOException {
+        directory.sync(name);
+    }
+
+    public String toString() {
+        return "pinned:" + directory.toString();
+    }
+
+    public void touchFile(String name) throws IOException {
+        directory.touchFile(name);
+    }
+
+    private IndexInput openPinnedInput(final String name) throws IOException {
+        if (!policy.isPinned(name) || IOPriority.isBackground()) {
+            return null;
+        }
+        return cache.openInput(keyPrefix + name, directory.fileLength(name), directory.fileModified(name),
+                new PinnedFileCache.Loader() {
+                    @Override
+                    public byte[] load() throws IOException {
+                        return readFully(directory.openInput(name));
+                    }
+                });
+    }
+
+    /**
+     * Reads the whole input and closes it.
+     */
+    static byte[] readFully(IndexInput input) throws IOException {
+        try {
+            byte[] content = new byte[(int) input.length()];
+            input.readBytes(content, 0, content.length);
+            return content;
+        } finally {
+            input.close();
+        }
+    }
+}
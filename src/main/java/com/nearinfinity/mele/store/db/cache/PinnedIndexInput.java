@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.lucene.store.IndexInput;
+
+import com.nearinfinity.mele.store.db.cache.PinnedFileCache.PinnedFile;
+
+/**
+ * Reads a pinned file from memory, the file is released when the input is
+ * closed. Clones are never closed by Lucene, so they do not hold a reference.
+ */
+class PinnedIndexInput extends IndexInput {
+
+    private final PinnedFileCache cache;
+    private final PinnedFile file;
+    private ByteBuffer buffer;
+    private boolean isClone;
+    private boolean closed;
+
+    PinnedIndexInput(PinnedFileCache cache, PinnedFile file) {
+        this.cache = cache;
+        this.file = file;
+        this.buffer = file.content.duplicate();
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        if (!buffer.hasRemaining()) {
+            throw new IOException("Read past EOF");
+        }
+        return buffer.get();
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+        if (len > buffer.remaining()) {
+            throw new IOException("Read past EOF");
+        }
+        buffer.get(b, offset, len);
+    }
+
+    @Override
+    public long getFilePointer() {
+        return buffer.position();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos > buffer.limit()) {
+            throw new IOException("Seek past EOF");
+        }
+        buffer.position((int) pos);
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isClone && !closed) {
+            closed = true;
+            cache.release(file);
+        }
+    }
+
+    @Override
+    public Object clone() {
+        PinnedIndexInput clone = (PinnedIndexInput) super.clone();
+        clone.buffer = buffer.duplicate();
+        clone.isClone = true;
+        return clone;
+    }
+}
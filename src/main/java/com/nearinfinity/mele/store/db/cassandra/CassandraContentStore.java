@@ -0,0 +1,413 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.thrift.Cassandra.Client;
+
+import com.nearinfinity.mele.store.db.cassandra.CassandraExecutor.Command;
+import com.nearinfinity.mele.store.db.dedup.ContentStore;
+import com.nearinfinity.mele.util.Bytes;
+
+/**
+ * Stores every content in its own row, the content is kept in the data
+ * column and every reference is a column next to it. A live reference is
+ * empty, a removed reference keeps the time it was removed and the content
+ * is recorded as a garbage collection candidate in a separate row.
+ * <p>
+ * The collector removes a content in two passes. Once every reference has
+ * been removed for the grace period it deletes the references and marks the
+ * row as collecting, a writer that references a content whose row is marked
+ * uploads the content again. A grace period later the row is deleted at the
+ * timestamp of its newest column if it still has no live reference, so
+ * neither a reference nor data written after the row was read are lost.
+ */
+public class CassandraContentStore implements ContentStore {
+
+	private static final String ROW_PREFIX = "content/";
+	private static final String GARBAGE_ROW = "content-gc";
+	private static final byte[] DATA = Bytes.toBytes("data");
+	private static final byte[] COLLECTING = Bytes.toBytes("collecting");
+	private static final String REFERENCE_PREFIX = "ref/";
+	private static final int MAX_BATCH_SIZE = 64;
+	private static final int GARBAGE_PAGE_SIZE = 1000;
+	private static final int MAX_REFERENCES = 100000;
+	private static final int LIVE = 0;
+	private static final int PENDING = 1;
+	private static final int COLLECTED = 2;
+	private String keySpace;
+	private String columnFamily;
+	private CassandraExecutor executor;
+	private ConsistencyLevel writeCl = ConsistencyLevel.DCQUORUM;
+	private ConsistencyLevel readCl = ConsistencyLevel.DCQUORUM;
+
+	public CassandraContentStore(String keySpace, String columnFamily, CassandraExecutor executor) {
+		this.keySpace = keySpace;
+		this.columnFamily = columnFamily;
+		this.executor = executor;
+	}
+
+	/**
+	 * The references of each batch of contents are written with one call and
+	 * the data columns are checked with another, the batches run at the same
+	 * time. A content whose row is being collected counts as not stored.
+	 */
+	@Override
+	public Set<String> addReferences(Map<String, String> references) throws IOException {
+		List<Command<Set<String>>> commands = new ArrayList<Command<Set<String>>>();
+		for (final Map<String, List<String>> batch : getBatches(references)) {
+			commands.add(new Command<Set<String>>() {
+				@Override
+				public Set<String> execute(Client client) throws Exception {
+					Map<String, Map<String, List<Mutation>>> mutationMap = new HashMap<String, Map<String, List<Mutation>>>();
+					long timestamp = System.currentTimeMillis();
+					for (Entry<String, List<String>> entry : batch.entrySet()) {
+						addReferenceColumns(mutationMap, entry.getKey(), entry.getValue(), Bytes.EMPTY_BYTE_ARRAY,
+								timestamp);
+					}
+					client.batch_mutate(keySpace, mutationMap, writeCl);
+					SlicePredicate slicePredicate = new SlicePredicate();
+					slicePredicate.setColumn_names(Arrays.asList(DATA, COLLECTING));
+					Map<String, List<ColumnOrSuperColumn>> rows = client.multiget_slice(keySpace,
+							new ArrayList<String>(mutationMap.keySet()), new ColumnParent(columnFamily), slicePredicate,
+							readCl);
+					Set<String> stored = new HashSet<String>();
+					for (Entry<String, List<ColumnOrSuperColumn>> entry : rows.entrySet()) {
+						if (isStored(entry.getValue())) {
+							stored.add(entry.getKey().substring(ROW_PREFIX.length()));
+						}
+					}
+					return stored;
+				}
+			});
+		}
+		Set<String> result = new HashSet<String>();
+		for (Set<String> stored : executor.executeAll(null, commands)) {
+			result.addAll(stored);
+		}
+		return result;
+	}
+
+	/**
+	 * The references keep the time they were removed and their contents
+	 * become garbage collection candidates.
+	 */
+	@Override
+	public void removeReferences(Map<String, String> references) throws IOException {
+		List<Command<Boolean>> commands = new ArrayList<Command<Boolean>>();
+		for (final Map<String, List<String>> batch : getBatches(references)) {
+			commands.add(new Command<Boolean>() {
+				@Override
+				public Boolean execute(Client client) throws Exception {
+					Map<String, Map<String, List<Mutation>>> mutationMap = new HashMap<String, Map<String, List<Mutation>>>();
+					long timestamp = System.currentTimeMillis();
+					byte[] removed = Bytes.toBytes(timestamp);
+					List<Mutation> candidates = new ArrayList<Mutation>();
+					for (Entry<String, List<String>> entry : batch.entrySet()) {
+						addReferenceColumns(mutationMap, entry.getKey(), entry.getValue(), removed, timestamp);
+						candidates.add(getInsertion(Bytes.toBytes(entry.getKey()), removed, timestamp));
+					}
+					getMutations(mutationMap, GARBAGE_ROW).addAll(candidates);
+					client.batch_mutate(keySpace, mutationMap, writeCl);
+					return true;
+				}
+			});
+		}
+		executor.executeAll(null, commands);
+	}
+
+	@Override
+	public void saveContents(Map<String, byte[]> contents) throws IOException {
+		List<Entry<String, byte[]>> entries = new ArrayList<Entry<String, byte[]>>(contents.entrySet());
+		List<Command<Boolean>> commands = new ArrayList<Command<Boolean>>();
+		for (int i = 0; i < entries.size(); i += MAX_BATCH_SIZE) {
+			final List<Entry<String, byte[]>> batch = entries.subList(i, Math.min(entries.size(), i + MAX_BATCH_SIZE));
+			commands.add(new Command<Boolean>() {
+				@Override
+				public Boolean execute(Client client) throws Exception {
+					Map<String, Map<String, List<Mutation>>> mutationMap = new HashMap<String, Map<String, List<Mutation>>>();
+					long timestamp = System.currentTimeMillis();
+					for (Entry<String, byte[]> entry : batch) {
+						getMutations(mutationMap, getRowKey(entry.getKey())).add(
+								getInsertion(DATA, entry.getValue(), timestamp));
+					}
+					client.batch_mutate(keySpace, mutationMap, writeCl);
+					return true;
+				}
+			});
+		}
+		executor.executeAll(null, commands);
+	}
+
+	/**
+	 * The batches are fetched at the same time.
+	 */
+	@Override
+	public Map<String, byte[]> fetchContents(List<String> hashes) throws IOException {
+		List<Command<Map<String, byte[]>>> commands = new ArrayList<Command<Map<String, byte[]>>>();
+		for (int i = 0; i < hashes.size(); i += MAX_BATCH_SIZE) {
+			final List<String> batch = hashes.subList(i, Math.min(hashes.size(), i + MAX_BATCH_SIZE));
+			commands.add(new Command<Map<String, byte[]>>() {
+				@Override
+				public Map<String, byte[]> execute(Client client) throws Exception {
+					Map<String, String> rowKeys = new HashMap<String, String>();
+					for (String hash : batch) {
+						rowKeys.put(getRowKey(hash), hash);
+					}
+					ColumnPath columnPath = new ColumnPath(columnFamily);
+					columnPath.setColumn(DATA);
+					Map<String, ColumnOrSuperColumn> columns = client.multiget(keySpace, 
+							new ArrayList<String>(rowKeys.keySet()), columnPath, readCl);
+					Map<String, byte[]> contents = new HashMap<String, byte[]>();
+					for (Entry<String, ColumnOrSuperColumn> entry : columns.entrySet()) {
+						if (entry.getValue() != null && entry.getValue().column != null) {
+							contents.put(rowKeys.get(entry.getKey()), entry.getValue().column.value);
+						}
+					}
+					return contents;
+				}
+			});
+		}
+		Map<String, byte[]> result = new HashMap<String, byte[]>();
+		for (Map<String, byte[]> contents : executor.executeAll(null, commands)) {
+			result.putAll(contents);
+		}
+		return result;
+	}
+
+	/**
+	 * Pages through the garbage collection candidates, a candidate is
+	 * dropped once its content was removed or referenced again. A content is
+	 * removed by the second pass that finds it unreferenced.
+	 */
+	@Override
+	public int collectGarbage(long gracePeriod) throws IOException {
+		long expired = System.currentTimeMillis() - gracePeriod;
+		int collected = 0;
+		byte[] start = Bytes.EMPTY_BYTE_ARRAY;
+		while (true) {
+			List<ColumnOrSuperColumn> candidates = getCandidatePage(start);
+			for (ColumnOrSuperColumn candidate : candidates) {
+				if (candidate.column.timestamp > expired || Arrays.equals(start, candidate.column.name)) {
+					continue;
+				}
+				int state = collect(Bytes.toString(candidate.column.name), expired);
+				if (state == COLLECTED) {
+					collected++;
+				}
+				if (state != PENDING) {
+					removeCandidate(candidate.column);
+				}
+			}
+			if (candidates.size() < GARBAGE_PAGE_SIZE) {
+				return collected;
+			}
+			start = candidates.get(candidates.size() - 1).column.name;
+		}
+	}
+
+	private List<ColumnOrSuperColumn> getCandidatePage(final byte[] start) throws IOException {
+		return executor.execute(GARBAGE_ROW, new Command<List<ColumnOrSuperColumn>>() {
+			@Override
+			public List<ColumnOrSuperColumn> execute(Client client) throws Exception {
+				SlicePredicate slicePredicate = new SlicePredicate();
+				slicePredicate.setSlice_range(new SliceRange(start, Bytes.EMPTY_BYTE_ARRAY, false, GARBAGE_PAGE_SIZE));
+				return client.get_slice(keySpace, GARBAGE_ROW, new ColumnParent(columnFamily), slicePredicate, readCl);
+			}
+		});
+	}
+
+	/**
+	 * Collects the content if none of its references is live and all were
+	 * removed before the expiry time. The first pass deletes the references
+	 * and marks the row, the row is only removed once the mark is expired as
+	 * well, a live reference found in between removes the mark again.
+	 * @return {@link #LIVE}, {@link #PENDING} or {@link #COLLECTED}.
+	 */
+	private int collect(final String hash, final long expired) throws IOException {
+		return executor.execute(getRowKey(hash), new Command<Integer>() {
+			@Override
+			public Integer execute(Client client) throws Exception {
+				SlicePredicate slicePredicate = new SlicePredicate();
+				slicePredicate.setSlice_range(new SliceRange(Bytes.EMPTY_BYTE_ARRAY, Bytes.EMPTY_BYTE_ARRAY, false,
+						MAX_REFERENCES));
+				List<ColumnOrSuperColumn> columns = client.get_slice(keySpace, getRowKey(hash),
+						new ColumnParent(columnFamily), slicePredicate, readCl);
+				long newest = -1;
+				Column mark = null;
+				boolean live = false;
+				boolean pending = false;
+				Map<Long, List<byte[]>> references = new HashMap<Long, List<byte[]>>();
+				for (ColumnOrSuperColumn column : columns) {
+					newest = Math.max(newest, column.column.timestamp);
+					if (Arrays.equals(COLLECTING, column.column.name)) {
+						mark = column.column;
+					} else if (Bytes.toString(column.column.name).startsWith(REFERENCE_PREFIX)) {
+						if (column.column.value.length == 0) {
+							live = true;
+						} else if (Bytes.toLong(column.column.value) > expired) {
+							pending = true;
+						} else {
+							getReferences(references, column.column.timestamp).add(column.column.name);
+						}
+					}
+				}
+				if (live) {
+					if (mark != null) {
+						removeMark(client, hash, mark);
+					}
+					return LIVE;
+				}
+				if (pending) {
+					return PENDING;
+				}
+				if (mark == null) {
+					markCollecting(client, hash, references);
+					return PENDING;
+				}
+				if (mark.timestamp > expired) {
+					return PENDING;
+				}
+				client.remove(keySpace, getRowKey(hash), new ColumnPath(columnFamily), newest, writeCl);
+				return COLLECTED;
+			}
+		});
+	}
+
+	/**
+	 * Deletes the removed references at the timestamps they were removed at
+	 * and marks the row as collecting.
+	 */
+	private void markCollecting(Client client, String hash, Map<Long, List<byte[]>> references) throws Exception {
+		List<Mutation> mutations = new ArrayList<Mutation>();
+		for (Entry<Long, List<byte[]>> entry : references.entrySet()) {
+			SlicePredicate slicePredicate = new SlicePredicate();
+			slicePredicate.setColumn_names(entry.getValue());
+			Deletion deletion = new Deletion(entry.getKey());
+			deletion.setPredicate(slicePredicate);
+			mutations.add(new Mutation().setDeletion(deletion));
+		}
+		long timestamp = System.currentTimeMillis();
+		mutations.add(getInsertion(COLLECTING, Bytes.toBytes(timestamp), timestamp));
+		Map<String, Map<String, List<Mutation>>> mutationMap = new HashMap<String, Map<String, List<Mutation>>>();
+		getMutations(mutationMap, getRowKey(hash)).addAll(mutations);
+		client.batch_mutate(keySpace, mutationMap, writeCl);
+	}
+
+	private void removeMark(Client client, String hash, Column mark) throws Exception {
+		ColumnPath columnPath = new ColumnPath(columnFamily);
+		columnPath.setColumn(COLLECTING);
+		client.remove(keySpace, getRowKey(hash), columnPath, mark.timestamp, writeCl);
+	}
+
+	private static List<byte[]> getReferences(Map<Long, List<byte[]>> references, long timestamp) {
+		List<byte[]> list = references.get(timestamp);
+		if (list == null) {
+			list = new ArrayList<byte[]>();
+			references.put(timestamp, list);
+		}
+		return list;
+	}
+
+	/**
+	 * @return true if the data column is there and the row is not being collected.
+	 */
+	private static boolean isStored(List<ColumnOrSuperColumn> columns) {
+		boolean data = false;
+		for (ColumnOrSuperColumn column : columns) {
+			if (column.column == null) {
+				continue;
+			}
+			if (Arrays.equals(COLLECTING, column.column.name)) {
+				return false;
+			}
+			data |= Arrays.equals(DATA, column.column.name);
+		}
+		return data;
+	}
+
+	/**
+	 * Removes the candidate unless it was recorded again since it was read.
+	 */
+	private void removeCandidate(final Column candidate) throws IOException {
+		executor.execute(GARBAGE_ROW, new Command<Boolean>() {
+			@Override
+			public Boolean execute(Client client) throws Exception {
+				ColumnPath columnPath = new ColumnPath(columnFamily);
+				columnPath.setColumn(candidate.name);
+				client.remove(keySpace, GARBAGE_ROW, columnPath, candidate.timestamp, writeCl);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Groups the references by content hash in batches of at most
+	 * {@link #MAX_BATCH_SIZE} contents.
+	 */
+	private List<Map<String, List<String>>> getBatches(Map<String, String> references) {
+		Map<String, List<String>> byHash = new HashMap<String, List<String>>();
+		for (Entry<String, String> entry : references.entrySet()) {
+			List<String> list = byHash.get(entry.getValue());
+			if (list == null) {
+				list = new ArrayList<String>();
+				byHash.put(entry.getValue(), list);
+			}
+			list.add(entry.getKey());
+		}
+		List<Map<String, List<String>>> batches = new ArrayList<Map<String, List<String>>>();
+		Map<String, List<String>> batch = null;
+		for (Entry<String, List<String>> entry : byHash.entrySet()) {
+			if (batch == null || batch.size() == MAX_BATCH_SIZE) {
+				batch = new HashMap<String, List<String>>();
+				batches.add(batch);
+			}
+			batch.put(entry.getKey(), entry.getValue());
+		}
+		return batches;
+	}
+
+	private void addReferenceColumns(Map<String, Map<String, List<Mutation>>> mutationMap, String hash,
+			List<String> references, byte[] value, long timestamp) {
+		List<Mutation> mutations = getMutations(mutationMap, getRowKey(hash));
+		for (String reference : references) {
+			mutations.add(getInsertion(Bytes.toBytes(REFERENCE_PREFIX + reference), value, timestamp));
+		}
+	}
+
+	private List<Mutation> getMutations(Map<String, Map<String, List<Mutation>>> mutationMap, String rowKey) {
+		Map<String, List<Mutation>> columnFamilyMutations = mutationMap.get(rowKey);
+		if (columnFamilyMutations == null) {
+			columnFamilyMutations = new HashMap<String, List<Mutation>>();
+			columnFamilyMutations.put(columnFamily, new ArrayList<Mutation>());
+			mutationMap.put(rowKey, columnFamilyMutations);
+		}
+		return columnFamilyMutations.get(columnFamily);
+	}
+
+	private static Mutation getInsertion(byte[] name, byte[] value, long timestamp) {
+		ColumnOrSuperColumn column = new ColumnOrSuperColumn();
+		column.setColumn(new Column(name, value, timestamp));
+		return new Mutation().setColumn_or_supercolumn(column);
+	}
+
+	private String getRowKey(String hash) {
+		return ROW_PREFIX + hash;
+	}
+}
@@ -1,34 +1,233 @@
 package com.nearinfinity.mele.store.db.cassandra;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 import com.nearinfinity.mele.MeleConfiguration;
-import com.nearinfinity.mele.MeleDirectoryFactory;
+import com.nearinfinity.mele.PinningMeleDirectoryFactory;
+import com.nearinfinity.mele.store.db.BlockBufferPool;
+import com.nearinfinity.mele.store.db.BlockSizePolicy;
 import com.nearinfinity.mele.store.db.MeleDirectory;
+import com.nearinfinity.mele.store.db.MeleDirectoryStore;
+import com.nearinfinity.mele.store.db.ScheduledMeleDirectoryStore;
 import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+import com.nearinfinity.mele.store.db.cache.BlockCache;
+import com.nearinfinity.mele.store.db.cache.DiskBlockCache;
+import com.nearinfinity.mele.store.db.cache.FilePinPolicy;
+import com.nearinfinity.mele.store.db.cache.PinnedFileCache;
+import com.nearinfinity.mele.store.db.codec.BlockCodec;
+import com.nearinfinity.mele.store.db.codec.CompressedMeleDirectoryStore;
+import com.nearinfinity.mele.store.db.dedup.ContentStore;
+import com.nearinfinity.mele.store.db.dedup.DedupMeleDirectoryStore;
+import com.nearinfinity.mele.util.IOPriority;
+import com.nearinfinity.mele.util.IOScheduler;
+import com.nearinfinity.mele.util.NamedThreadFactory;
 
-public class CassandraDirectoryFactory implements MeleDirectoryFactory {
+public class CassandraDirectoryFactory implements PinningMeleDirectoryFactory {
     
+    private static final Log LOG = LogFactory.getLog(CassandraDirectoryFactory.class);
+
     private String cassandraKeySpace;
     private String cassandraColumnFamily;
     private int cassandraPoolSize;
-    private String cassandraHostName;
-    private int cassandraPort;
+    private CassandraExecutor executor;
+    private ConsistencyLevel writeConsistency;
+    private ConsistencyLevel readConsistency;
+    private ConsistencyLevel blockReadConsistency;
+    private BlockCache blockCache;
+    private ExecutorService readAheadExecutor;
+    private ExecutorService writeBehindExecutor;
+    private int writeBehindOutputBlocks;
+    private int writeBehindDirectoryBlocks;
+    private int readAheadBlocks;
+    private long smallFileThreshold;
+    private long inlineFileThreshold;
+    private long metaDataCacheTtl;
+    private long metaDataCacheMissingTtl;
+    private BlockCodec blockCodec;
+    private BlockSizePolicy blockSizePolicy;
+    private BlockBufferPool bufferPool;
+    private boolean directBuffers;
+    private ContentStore contentStore;
+    private ScheduledExecutorService garbageCollector;
+    private PinnedFileCache pinnedFileCache;
+    private FilePinPolicy filePinPolicy;
+    private DiskBlockCache diskBlockCache;
+    private IOScheduler scheduler;
 
     public CassandraDirectoryFactory(MeleConfiguration configuration) throws IOException {
         cassandraKeySpace = configuration.getCassandraKeySpace();
         cassandraColumnFamily = configuration.getCassandraColumnFamily();
         cassandraPoolSize = configuration.getCassandraPoolSize();
-        cassandraHostName = configuration.getCassandraHostName();
-        cassandraPort = configuration.getCassandraPort();
+        executor = new CassandraExecutor(cassandraKeySpace, configuration.getCassandraPort(), cassandraPoolSize, 
+                configuration.getCassandraIOThreads(), configuration.getCassandraRingRefreshInterval(), configuration.getCassandraHostDownTime(), 
+                configuration.getCassandraHostName().split(","));
+        executor.setHedgePercentile(configuration.getCassandraHedgePercentile());
+        executor.setHedgeMaxRatio(configuration.getCassandraHedgeMaxRatio());
+        writeConsistency = ConsistencyLevel.valueOf(configuration.getCassandraWriteConsistency());
+        readConsistency = ConsistencyLevel.valueOf(configuration.getCassandraReadConsistency());
+        blockReadConsistency = ConsistencyLevel.valueOf(configuration.getCassandraBlockReadConsistency());
+        scheduler = new IOScheduler(cassandraPoolSize, configuration.getBackgroundIOShare(),
+                configuration.getBackgroundIOBandwidth());
+        executor.setScheduler(scheduler);
+        long blockCacheSize = configuration.getBlockCacheSize();
+        if (blockCacheSize > 0) {
+            blockCache = new BlockCache(blockCacheSize, configuration.getBlockCacheClusterQuota(), 
+                    configuration.getBlockCacheConcurrency());
+        }
+        int readAheadThreads = configuration.getReadAheadThreads();
+        if (readAheadThreads > 0) {
+            readAheadExecutor = Executors.newFixedThreadPool(readAheadThreads, new NamedThreadFactory("mele-readahead"));
+        }
+        long pinnedCacheSize = configuration.getPinnedCacheSize();
+        if (pinnedCacheSize > 0) {
+            pinnedFileCache = new PinnedFileCache(pinnedCacheSize);
+            filePinPolicy = new FilePinPolicy(configuration.getPinnedFiles());
+        }
+        String diskCachePath = configuration.getDiskCachePath();
+        if (diskCachePath != null && configuration.getDiskCacheSize() > 0) {
+            diskBlockCache = new DiskBlockCache(new File(diskCachePath), configuration.getDiskCacheSize());
+        }
+        readAheadBlocks = configuration.getReadAheadBlocks();
+        int writeBehindThreads = configuration.getWriteBehindThreads();
+        if (writeBehindThreads > 0) {
+            writeBehindExecutor = Executors.newFixedThreadPool(writeBehindThreads, new NamedThreadFactory("mele-writebehind"));
+        }
+        writeBehindOutputBlocks = configuration.getWriteBehindOutputBlocks();
+        writeBehindDirectoryBlocks = configuration.getWriteBehindDirectoryBlocks();
+        smallFileThreshold = configuration.getSmallFileThreshold();
+        inlineFileThreshold = configuration.getInlineFileThreshold();
+        metaDataCacheTtl = configuration.getMetaDataCacheTtl();
+        metaDataCacheMissingTtl = configuration.getMetaDataCacheMissingTtl();
+        directBuffers = configuration.isBlockCacheDirect();
+        if (configuration.isBlockDedup()) {
+            contentStore = new CassandraContentStore(cassandraKeySpace, cassandraColumnFamily, executor);
+            long gcInterval = configuration.getBlockDedupGcInterval();
+            if (gcInterval > 0) {
+                scheduleGarbageCollection(gcInterval, configuration.getBlockDedupGcGracePeriod());
+            }
+        }
+        bufferPool = new BlockBufferPool(configuration.getBufferPoolSize());
+        blockCodec = CompressedMeleDirectoryStore.getCodec(configuration.getBlockCodec());
+        if ("lucene".equals(configuration.getBlockSizePolicy())) {
+            blockSizePolicy = BlockSizePolicy.createLucenePolicy(BLOCK_SIZE._16K);
+        } else {
+            blockSizePolicy = new BlockSizePolicy(BLOCK_SIZE._16K);
+        }
     }
 
     public Directory getDirectory(FSDirectory localDir, String directoryCluster, String directoryName) throws IOException {
         CassandraStore cassandraStore = new CassandraStore(cassandraKeySpace, 
-                cassandraColumnFamily, directoryCluster + "/" + directoryName, cassandraPoolSize, cassandraHostName, cassandraPort);
-        return new MeleDirectory(cassandraStore, BLOCK_SIZE._16K);
+                cassandraColumnFamily, directoryCluster + "/" + directoryName, executor);
+        cassandraStore.setConsistencyLevels(writeConsistency, readConsistency, blockReadConsistency);
+        MeleDirectoryStore store = cassandraStore;
+        // the compressed store has to wrap the dedup store: the content store
+        // then keeps compressed content and the short hash records are never
+        // compressed. The hashes are taken over the compressed blocks, which
+        // are the same for the same block as long as the codec is the same,
+        // so blocks written before and after the codec changes are not shared.
+        // Wrapping the other way round would store the content uncompressed.
+        if (contentStore != null) {
+            store = new DedupMeleDirectoryStore(store, contentStore, directoryCluster + "/" + directoryName);
+        }
+        // the executor takes a permit for every command of the directory and
+        // content rows, the scheduled store above them only throttles the
+        // compressed bytes background callers move
+        store = new ScheduledMeleDirectoryStore(store, scheduler, false);
+        if (blockCodec != null) {
+            store = new CompressedMeleDirectoryStore(store, blockCodec, bufferPool);
+        }
+        MeleDirectory directory = new MeleDirectory(store, BLOCK_SIZE._16K, blockCache, directoryCluster, directoryName);
+        directory.setBlockSizePolicy(blockSizePolicy);
+        directory.setBufferPool(bufferPool);
+        directory.setDirectBuffers(directBuffers);
+        directory.setReadAheadExecutor(readAheadExecutor);
+        directory.setWriteBehindExecutor(writeBehindExecutor);
+        directory.setMaxPendingBlocksPerOutput(writeBehindOutputBlocks);
+        directory.setMaxPendingBlocksPerDirectory(writeBehindDirectoryBlocks);
+        directory.setMaxReadAheadBlocks(readAheadBlocks);
+        directory.setSmallFileThreshold(smallFileThreshold);
+        directory.setInlineFileThreshold(inlineFileThreshold);
+        directory.setMetaDataCacheTtl(metaDataCacheTtl);
+        directory.setMetaDataCacheMissingTtl(metaDataCacheMissingTtl);
+        directory.setPinnedFileCache(pinnedFileCache, filePinPolicy);
+        directory.setDiskBlockCache(diskBlockCache);
+        return directory;
+    }
+
+    /**
+     * Stops the garbage collection, read ahead and write behind threads and
+     * the threads and connections of the executor, then forces the disk
+     * block cache to disk and closes the codec. The outputs of the
+     * directories have to be closed before, their pending blocks are not
+     * written anymore.
+     */
+    @Override
+    public void close() throws IOException {
+        if (garbageCollector != null) {
+            garbageCollector.shutdownNow();
+        }
+        if (readAheadExecutor != null) {
+            readAheadExecutor.shutdownNow();
+        }
+        if (writeBehindExecutor != null) {
+            writeBehindExecutor.shutdownNow();
+        }
+        executor.close();
+        try {
+            if (diskBlockCache != null) {
+                diskBlockCache.close();
+            }
+        } finally {
+            if (blockCodec != null) {
+                blockCodec.close();
+            }
+        }
+    }
+
+    private void scheduleGarbageCollection(long interval, final long gracePeriod) {
+        garbageCollector = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("mele-content-gc"));
+        garbageCollector.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                IOPriority.set(IOPriority.BACKGROUND);
+                try {
+                    int collected = contentStore.collectGarbage(gracePeriod);
+                    if (collected > 0) {
+                        LOG.info("Removed [" + collected + "] unreferenced block contents");
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Could not collect unreferenced block contents", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    @Override
+    public PinnedFileCache getPinnedFileCache() {
+        return pinnedFileCache;
+    }
+
+    @Override
+    public FilePinPolicy getFilePinPolicy() {
+        return filePinPolicy;
+    }
+
+    public DiskBlockCache getDiskBlockCache() {
+        return diskBlockCache;
     }
 }
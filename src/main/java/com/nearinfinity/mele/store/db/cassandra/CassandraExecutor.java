@@ -1,20 +1,36 @@
 package com.nearinfinity.mele.store.db.cassandra;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cassandra.thrift.TimedOutException;
-import org.apache.cassandra.thrift.TokenRange;
 import org.apache.cassandra.thrift.Cassandra.Client;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TFramedTransport;
@@ -22,109 +38,545 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
+import com.nearinfinity.mele.util.IOPriority;
+import com.nearinfinity.mele.util.IOScheduler;
+import com.nearinfinity.mele.util.NamedThreadFactory;
+
+/**
+ * Runs commands against one Cassandra cluster, an executor is created once
+ * per cluster and shared by all the stores of the cluster. The token ring of
+ * the keyspace is read with describe_ring so that a command for a row key is
+ * sent straight to one of the replicas of the key instead of a random
+ * coordinator. Every host has its own pool of at most pool size connections,
+ * connections are opened when they are first needed. The replica is chosen
+ * by the {@link HostSelector} from the latency of the hosts, a host that
+ * fails is skipped for a while instead of rediscovering the ring from the
+ * request thread. The ring is refreshed in the background.
+ * <p>
+ * Commands can also be submitted to the IO threads of the executor, which
+ * are sized apart from the application threads, so that one caller can
+ * have many requests in flight. Reads that must be fast can be hedged, a
+ * second request goes to another replica when the first one is slower than
+ * a percentile of the recent hedged reads.
+ * <p>
+ * With an {@link IOScheduler} every attempt of a command holds a permit while
+ * it runs on a connection, so the commands of a batch that run in parallel
+ * take a permit each. Commands run from the IO threads with the
+ * {@link IOPriority} of the thread that submitted them.
+ */
 public class CassandraExecutor {
 	
 	public static interface Command<T> {
 		T execute(Client client) throws Exception;
 	}
 
-	private static final long BACK_OFF_TIME = 250;
-	private static int port;
-	private static BlockingQueue<Client> clients;
-	private static Random random = new Random();
-	private static List<String> hostNames = new ArrayList<String>();
-	
-	public static void setup(int p, int clientNumber, String... hosts) {
-		port = p;
-		hostNames = Arrays.asList(hosts);
-		discoverOthersHosts();
-		clients = new ArrayBlockingQueue<Client>(clientNumber);
-		for (int i = 0; i < clientNumber; i++) {
-			try {
-				clients.put(newClient());
-			} catch (TTransportException e) {
-				throw new RuntimeException(e);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			}
+	private static final Log LOG = LogFactory.getLog(CassandraExecutor.class);
+
+	private static final int MAX_RETRIES = 10;
+	private static final long MIN_RING_REFRESH_INTERVAL = 1000;
+	private static final long MAX_HOST_DOWN_TIME = 60000;
+	private static final int HEDGE_SAMPLES = 1024;
+	private static final long HEDGE_TOKEN = 1000;
+	private static final long MAX_HEDGE_TOKENS = 10 * HEDGE_TOKEN;
+
+	private final String keySpace;
+	private final int port;
+	private final int poolSize;
+	private final List<String> seedHosts;
+	private final ConcurrentMap<String, HostPool> pools = new ConcurrentHashMap<String, HostPool>();
+	private final HostSelector selector;
+	private final ScheduledExecutorService ringRefresher;
+	private final ExecutorService ioExecutor;
+	private final AtomicBoolean ringRefreshPending = new AtomicBoolean();
+	private final AtomicLong hedgeCount = new AtomicLong();
+	private final AtomicLong hedgeTokens = new AtomicLong();
+	private volatile long hedgeTokensPerRead = 50;
+	private volatile LatencyTracker hedgeTracker;
+	private volatile IOScheduler scheduler;
+	private volatile List<String> hostNames;
+	private volatile TokenRing ring;
+	private long lastRingRefresh;
+
+	/**
+	 * @param keySpace the keyspace whose ring is used for routing.
+	 * @param port the thrift port of the hosts.
+	 * @param poolSize the maximum number of connections per host.
+	 * @param ioThreads the number of threads that run submitted commands.
+	 * @param ringRefreshInterval the time in ms between ring refreshes, 0 to only refresh after failures.
+	 * @param hostDownTime the time in ms a failed host is skipped.
+	 * @param hosts the hosts used to discover the ring.
+	 */
+	public CassandraExecutor(String keySpace, int port, int poolSize, int ioThreads, long ringRefreshInterval, 
+			long hostDownTime, String... hosts) {
+		this.keySpace = keySpace;
+		this.port = port;
+		this.poolSize = poolSize;
+		this.seedHosts = Arrays.asList(hosts);
+		this.hostNames = seedHosts;
+		this.selector = new HostSelector(hostDownTime, Math.max(hostDownTime, MAX_HOST_DOWN_TIME));
+		this.ringRefresher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("mele-cassandra-ring"));
+		this.ioExecutor = Executors.newFixedThreadPool(ioThreads, new NamedThreadFactory("mele-cassandra-io"));
+		refreshRing();
+		if (ringRefreshInterval > 0) {
+			ringRefresher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refreshRing();
+				}
+			}, ringRefreshInterval, ringRefreshInterval, TimeUnit.MILLISECONDS);
 		}
 	}
-	
-	private static void discoverOthersHosts() {
-		Set<String> realHostNames = new TreeSet<String>();
-		for (String host : hostNames) {
-			Client client = null;
+
+	/**
+	 * Runs a command that is not bound to a row key on any host.
+	 */
+	public <T> T execute(Command<T> command) throws IOException {
+		return execute(null, command);
+	}
+
+	/**
+	 * Runs the command on a replica of the row key. A host that times out or
+	 * fails is marked down and the command is retried on another replica,
+	 * the retry only backs off when every replica is down.
+	 */
+	public <T> T execute(String rowKey, Command<T> command) throws IOException {
+		return execute(rowKey, command, null, null);
+	}
+
+	/**
+	 * Runs the command like {@link #execute(String, Command)}, if it has not
+	 * finished within the hedge percentile of the recent hedged reads the
+	 * same command is sent to another replica and the first result wins. The
+	 * delay counts from the start of the first request, not from the time it
+	 * waited for an IO thread, and hedges are limited to the max hedge ratio
+	 * of the reads. The command must be a read.
+	 */
+	public <T> T executeHedged(String rowKey, Command<T> command) throws IOException {
+		final LatencyTracker tracker = hedgeTracker;
+		if (tracker != null) {
+			depositHedgeTokens();
+		}
+		long delay = tracker == null ? -1 : tracker.getPercentile();
+		if (delay < 0) {
+			long start = System.nanoTime();
+			T result = execute(rowKey, command);
+			if (tracker != null) {
+				tracker.record(System.nanoTime() - start);
+			}
+			return result;
+		}
+		CompletionService<T> completionService = new ExecutorCompletionService<T>(ioExecutor);
+		AtomicBoolean succeeded = new AtomicBoolean();
+		HedgedCall<T> primaryCall = new HedgedCall<T>(tracker, rowKey, command, null, succeeded);
+		Future<T> primary = completionService.submit(primaryCall);
+		Future<T> hedge = null;
+		try {
+			Future<T> first = pollPrimary(completionService, primaryCall, delay);
+			if (first == null && takeHedgeToken()) {
+				hedgeCount.incrementAndGet();
+				hedge = completionService.submit(new HedgedCall<T>(tracker, rowKey, command, primaryCall.host.get(),
+						succeeded));
+			}
+			if (first == null) {
+				first = completionService.take();
+			}
 			try {
-				client = newClient(host);
-				for (String keyspace : client.describe_keyspaces()) {
-				    if (!"system".equals(keyspace)) {
-				        realHostNames.addAll(getHosts(client.describe_ring(keyspace)));
-				    }
+				return get(first);
+			} catch (IOException e) {
+				if (hedge == null) {
+					throw e;
 				}
-			} catch (Exception e) {
-			    e.printStackTrace();
-			} finally {
-				close(client);
+				return get(first == primary ? hedge : primary);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} finally {
+			primary.cancel(false);
+			if (hedge != null) {
+				hedge.cancel(false);
 			}
 		}
-		if (!realHostNames.isEmpty()) {
-			hostNames = new ArrayList<String>(realHostNames);
+	}
+
+	/**
+	 * @param percentile the percentile between 0 and 1 of the hedged reads
+	 * after which a second request is sent, 0 turns hedging off.
+	 */
+	public void setHedgePercentile(double percentile) {
+		hedgeTracker = percentile > 0 ? new LatencyTracker(HEDGE_SAMPLES, percentile) : null;
+	}
+
+	/**
+	 * @param ratio the largest share of the hedged reads that may send a
+	 * second request, a burst of up to ten hedges is allowed.
+	 */
+	public void setHedgeMaxRatio(double ratio) {
+		hedgeTokensPerRead = Math.round(ratio * HEDGE_TOKEN);
+	}
+
+	/**
+	 * @param scheduler the scheduler whose permits the commands hold while
+	 * they run, null to run them without permits.
+	 */
+	public void setScheduler(IOScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @return the number of second requests sent by hedged reads.
+	 */
+	public long getHedgeCount() {
+		return hedgeCount.get();
+	}
+
+	/**
+	 * Waits until the primary request has run for the delay.
+	 * @return the first completed request, or null if the delay passed.
+	 */
+	private <T> Future<T> pollPrimary(CompletionService<T> completionService, HedgedCall<T> primaryCall, long delay) 
+			throws InterruptedException, IOException {
+		while (true) {
+			long wait = delay;
+			if (primaryCall.started) {
+				wait = delay - (System.nanoTime() - primaryCall.startTime);
+				if (wait <= 0) {
+					return null;
+				}
+			} else if (ioExecutor.isShutdown()) {
+				throw new IOException("Executor is closed");
+			}
+			Future<T> first = completionService.poll(wait, TimeUnit.NANOSECONDS);
+			if (first != null) {
+				return first;
+			}
 		}
 	}
 
-	private static Collection<String> getHosts(List<TokenRange> describeRing) {
-		Collection<String> hosts = new HashSet<String>();
-		for (TokenRange range : describeRing) {
-			hosts.addAll(range.getEndpoints());
+	private void depositHedgeTokens() {
+		long tokens;
+		do {
+			tokens = hedgeTokens.get();
+			if (tokens >= MAX_HEDGE_TOKENS) {
+				return;
+			}
+		} while (!hedgeTokens.compareAndSet(tokens, Math.min(MAX_HEDGE_TOKENS, tokens + hedgeTokensPerRead)));
+	}
+
+	private boolean takeHedgeToken() {
+		long tokens;
+		do {
+			tokens = hedgeTokens.get();
+			if (tokens < HEDGE_TOKEN) {
+				return false;
+			}
+		} while (!hedgeTokens.compareAndSet(tokens, tokens - HEDGE_TOKEN));
+		return true;
+	}
+
+	/**
+	 * One request of a hedged read, it records its latency and the host it
+	 * went to. A request that is still queued when the other one succeeded
+	 * is skipped.
+	 */
+	private class HedgedCall<T> implements Callable<T> {
+
+		final LatencyTracker tracker;
+		final String rowKey;
+		final Command<T> command;
+		final String avoidHost;
+		final AtomicBoolean succeeded;
+		final AtomicReference<String> host = new AtomicReference<String>();
+		final IOPriority priority = IOPriority.get();
+		volatile long startTime;
+		volatile boolean started;
+
+		HedgedCall(LatencyTracker tracker, String rowKey, Command<T> command, String avoidHost, 
+				AtomicBoolean succeeded) {
+			this.tracker = tracker;
+			this.rowKey = rowKey;
+			this.command = command;
+			this.avoidHost = avoidHost;
+			this.succeeded = succeeded;
+		}
+
+		@Override
+		public T call() throws Exception {
+			if (succeeded.get()) {
+				throw new CancellationException();
+			}
+			IOPriority previous = IOPriority.set(priority);
+			try {
+				startTime = System.nanoTime();
+				started = true;
+				T result = execute(rowKey, command, avoidHost, host);
+				succeeded.set(true);
+				tracker.record(System.nanoTime() - startTime);
+				return result;
+			} finally {
+				IOPriority.set(previous);
+			}
 		}
-		return hosts;
 	}
 
-	public static <T> T execute(Command<T> command) throws IOException {
+	/**
+	 * @param avoidHost a host the first attempt does not go to if the key has other replicas.
+	 * @param chosenHost is set to the host of the first attempt.
+	 */
+	private <T> T execute(String rowKey, Command<T> command, String avoidHost, AtomicReference<String> chosenHost) 
+			throws IOException {
 		int retryCount = 0;
-		while(true) {
+		while (true) {
+			List<String> candidates = getCandidates(rowKey);
+			if (avoidHost != null && retryCount == 0 && candidates.size() > 1) {
+				candidates = new ArrayList<String>(candidates);
+				candidates.remove(avoidHost);
+			}
+			String host = selector.select(candidates);
+			if (chosenHost != null && retryCount == 0) {
+				chosenHost.set(host);
+			}
+			// every candidate is down, the host is probed instead of waiting
+			// on the request thread and the request fails if it is still down
+			boolean probe = !selector.isAvailable(host);
+			if (probe) {
+				requestRingRefresh();
+			}
+			HostPool pool = getPool(host);
+			IOScheduler currentScheduler = scheduler;
+			IOPriority priority = currentScheduler == null ? null : currentScheduler.acquire();
 			try {
-				Client client = clients.take();
+				Client client;
 				try {
-					synchronized (client) {
-						return command.execute(client);
+					client = pool.take();
+				} catch (TTransportException e) {
+					LOG.warn("Could not connect to [" + host + "]");
+					selector.markDown(host, 0);
+					if (probe || ++retryCount > MAX_RETRIES) {
+						throw new IOException(e);
 					}
+					requestRingRefresh();
+					continue;
+				}
+				boolean broken = false;
+				long start = System.nanoTime();
+				try {
+					T result = command.execute(client);
+					selector.recordLatency(host, System.nanoTime() - start);
+					return result;
 				} catch (TimedOutException e) {
-					System.out.println("time out");
-					if (retryCount == 0) {
-						sleep(BACK_OFF_TIME);
-					} else if (retryCount < 10) {
-						close(client);
-						discoverOthersHosts();
-						client = newClient();
-					} else {
-						throw e;
+					LOG.warn("Request to [" + host + "] timed out");
+					selector.markDown(host, System.nanoTime() - start);
+					if (retryCount >= MAX_RETRIES) {
+						throw new IOException(e);
 					}
-					retryCount++;
+				} catch (TTransportException e) {
+					LOG.warn("Connection to [" + host + "] failed");
+					broken = true;
+					selector.markDown(host, 0);
+					if (retryCount >= MAX_RETRIES) {
+						throw new IOException(e);
+					}
+					requestRingRefresh();
+				} catch (Exception e) {
+					throw new IOException(e);
+				} finally {
+					pool.release(client, broken);
+				}
+			} finally {
+				if (currentScheduler != null) {
+					currentScheduler.release(priority);
+				}
+			}
+			retryCount++;
+		}
+	}
+
+	/**
+	 * Runs the command on a replica of the row key from an IO thread with the
+	 * priority of the calling thread.
+	 * @see #get(Future)
+	 */
+	public <T> Future<T> submit(final String rowKey, final Command<T> command) {
+		final IOPriority priority = IOPriority.get();
+		return ioExecutor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				IOPriority previous = IOPriority.set(priority);
+				try {
+					return execute(rowKey, command);
 				} finally {
-					clients.put(client);
+					IOPriority.set(previous);
 				}
+			}
+		});
+	}
+
+	/**
+	 * Runs all the commands at once, the last one in the calling thread and
+	 * the others from the IO threads. If one of them fails the commands that
+	 * did not start yet are cancelled.
+	 * @return the results in the order of the commands.
+	 */
+	public <T> List<T> executeAll(String rowKey, List<? extends Command<T>> commands) throws IOException {
+		int last = commands.size() - 1;
+		List<Future<T>> futures = new ArrayList<Future<T>>(Math.max(last, 0));
+		boolean done = false;
+		try {
+			for (int i = 0; i < last; i++) {
+				futures.add(submit(rowKey, commands.get(i)));
+			}
+			List<T> results = new ArrayList<T>(commands.size());
+			T lastResult = last < 0 ? null : execute(rowKey, commands.get(last));
+			for (Future<T> future : futures) {
+				results.add(get(future));
+			}
+			if (last >= 0) {
+				results.add(lastResult);
+			}
+			done = true;
+			return results;
+		} finally {
+			if (!done) {
+				for (Future<T> future : futures) {
+					future.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for a submitted command, the failure of the command is thrown as
+	 * it would have been by {@link #execute(String, Command)}.
+	 */
+	public static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * @return the current token ring or null if it could not be read.
+	 */
+	public TokenRing getRing() {
+		return ring;
+	}
+
+	public HostSelector getHostSelector() {
+		return selector;
+	}
+
+	/**
+	 * Closes all pooled connections.
+	 */
+	public void close() {
+		ringRefresher.shutdownNow();
+		ioExecutor.shutdownNow();
+		for (HostPool pool : pools.values()) {
+			pool.close();
+		}
+		pools.clear();
+	}
+
+	/**
+	 * Reads the token ring from the first host that answers, at most once
+	 * per second. Hosts that are marked down are asked last.
+	 */
+	public synchronized void refreshRing() {
+		long now = System.currentTimeMillis();
+		if (ring != null && now - lastRingRefresh < MIN_RING_REFRESH_INTERVAL) {
+			return;
+		}
+		lastRingRefresh = now;
+		Set<String> candidates = new LinkedHashSet<String>();
+		for (String host : hostNames) {
+			if (selector.isAvailable(host)) {
+				candidates.add(host);
+			}
+		}
+		candidates.addAll(seedHosts);
+		candidates.addAll(hostNames);
+		for (String host : candidates) {
+			Client client = null;
+			try {
+				client = newClient(host);
+				TokenRing newRing = new TokenRing(TokenRing.getPartitioner(client.describe_partitioner()), 
+						client.describe_ring(keySpace));
+				if (!newRing.getHosts().isEmpty()) {
+					ring = newRing;
+					hostNames = new ArrayList<String>(newRing.getHosts());
+				}
+				return;
 			} catch (Exception e) {
-				throw new IOException(e);
+				LOG.warn("Could not read the ring of [" + keySpace + "] from [" + host + "]", e);
+			} finally {
+				close(client);
 			}
 		}
 	}
-	
-	private static Client newClient(String host) throws TTransportException {
+
+	/**
+	 * Refreshes the ring on the ring thread, the request thread goes on with
+	 * another replica.
+	 */
+	private void requestRingRefresh() {
+		if (ringRefreshPending.compareAndSet(false, true)) {
+			try {
+				ringRefresher.execute(new Runnable() {
+					@Override
+					public void run() {
+						ringRefreshPending.set(false);
+						refreshRing();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				ringRefreshPending.set(false);
+			}
+		}
+	}
+
+	private List<String> getCandidates(String rowKey) {
+		TokenRing current = ring;
+		if (rowKey != null && current != null) {
+			List<String> endpoints = current.getEndpoints(rowKey);
+			if (!endpoints.isEmpty()) {
+				return endpoints;
+			}
+		}
+		return hostNames;
+	}
+
+	private HostPool getPool(String host) {
+		HostPool pool = pools.get(host);
+		if (pool == null) {
+			HostPool existing = pools.putIfAbsent(host, pool = new HostPool(host));
+			if (existing != null) {
+				pool = existing;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Opens a new connection to the host.
+	 */
+	protected Client newClient(String host) throws TTransportException {
 		TTransport tr = new TSocket(host, port);
 		TProtocol proto = new TBinaryProtocol(new TFramedTransport(tr));
 		Client client = new Client(proto);
 		tr.open();
 		return client;
 	}
-	
-	private static Client newClient() throws TTransportException {
-		return newClient(getRandomHostName());
-	}
-
-	private static String getRandomHostName() {
-		return hostNames.get(random.nextInt(hostNames.size()));
-	}
 
 	private static void close(Client client) {
 	    if (client == null) {
@@ -134,7 +586,53 @@ public class CassandraExecutor {
 		client.getOutputProtocol().getTransport().close();
 	}
 
-	private static void sleep(long ms) throws InterruptedException {
-		Thread.sleep(ms);
+	/**
+	 * The idle connections to one host, a connection is only used by one
+	 * command at a time.
+	 */
+	private class HostPool {
+
+		final String host;
+		final BlockingQueue<Client> idle = new LinkedBlockingQueue<Client>();
+		final Semaphore permits = new Semaphore(poolSize);
+
+		HostPool(String host) {
+			this.host = host;
+		}
+
+		Client take() throws TTransportException, IOException {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			}
+			Client client = idle.poll();
+			if (client == null) {
+				try {
+					client = newClient(host);
+				} catch (TTransportException e) {
+					permits.release();
+					throw e;
+				}
+			}
+			return client;
+		}
+
+		void release(Client client, boolean broken) {
+			if (broken) {
+				CassandraExecutor.close(client);
+			} else {
+				idle.offer(client);
+			}
+			permits.release();
+		}
+
+		void close() {
+			Client client;
+			while ((client = idle.poll()) != null) {
+				CassandraExecutor.close(client);
+			}
+		}
 	}
 }
@@ -2,17 +2,28 @@ package com.nearinfinity.mele.store.db.cassandra;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.cassandra.thrift.Column;
 import org.apache.cassandra.thrift.ColumnOrSuperColumn;
 import org.apache.cassandra.thrift.ColumnParent;
 import org.apache.cassandra.thrift.ColumnPath;
 import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
 import org.apache.cassandra.thrift.NotFoundException;
 import org.apache.cassandra.thrift.SlicePredicate;
 import org.apache.cassandra.thrift.SliceRange;
 import org.apache.cassandra.thrift.Cassandra.Client;
 
+import com.nearinfinity.mele.store.db.FileMetaData;
 import com.nearinfinity.mele.store.db.MeleDirectoryStore;
 import com.nearinfinity.mele.store.db.cassandra.CassandraExecutor.Command;
 import com.nearinfinity.mele.util.Bytes;
@@ -20,22 +31,50 @@ import com.nearinfinity.mele.util.Bytes;
 public class CassandraStore implements MeleDirectoryStore {
 	
 	private static final String SEP = "/";
+	private static final int MAX_BATCH_SIZE = 64;
+	private static final int COLUMN_NAME_CACHE_SIZE = 4096;
+	private static final byte[][] COLUMN_NAMES = new byte[COLUMN_NAME_CACHE_SIZE][];
+	
+	static {
+		for (int i = 0; i < COLUMN_NAME_CACHE_SIZE; i++) {
+			COLUMN_NAMES[i] = Bytes.toBytes((long) i);
+		}
+	}
+	private static final int LISTING_PAGE_SIZE = 1000;
 	private String keySpace;
 	private String columnFamily;
 	private String dirName;
+	private CassandraExecutor executor;
 	private ConsistencyLevel writeCl = ConsistencyLevel.DCQUORUM;
 	private ConsistencyLevel readCl = ConsistencyLevel.DCQUORUM;
+	private ConsistencyLevel blockReadCl = ConsistencyLevel.ONE;
+	private Set<String> immutableFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	
-	public CassandraStore(String keySpace, String columnFamily, String dirName, int poolSize, String hostName, int port) throws IOException {
+	/**
+	 * @param executor the executor of the cluster, shared by all the stores of the cluster.
+	 */
+	public CassandraStore(String keySpace, String columnFamily, String dirName, CassandraExecutor executor) {
 		this.keySpace = keySpace;
 		this.columnFamily = columnFamily;
 		this.dirName = dirName;
-		CassandraExecutor.setup(port, poolSize, hostName);
+		this.executor = executor;
 	}
 	
+	/**
+	 * @param writeCl the level of all writes.
+	 * @param readCl the level of meta data reads and of the blocks of files that may change.
+	 * @param blockReadCl the level of the block reads of immutable files.
+	 */
+	public void setConsistencyLevels(ConsistencyLevel writeCl, ConsistencyLevel readCl, ConsistencyLevel blockReadCl) {
+		this.writeCl = writeCl;
+		this.readCl = readCl;
+		this.blockReadCl = blockReadCl;
+	}
+
 	@Override
 	public void removeFileMetaData(final String name) throws IOException {
-		CassandraExecutor.execute(new Command<Boolean>() {
+		immutableFiles.remove(name);
+		executor.execute(getDirectoryId(), new Command<Boolean>() {
 			@Override
 			public Boolean execute(Client client) throws Exception {
 				ColumnPath columnPath = new ColumnPath(columnFamily);
@@ -48,7 +87,7 @@ public class CassandraStore implements MeleDirectoryStore {
 	
 	@Override
 	public long getFileModified(final String name) throws IOException {
-		return CassandraExecutor.execute(new Command<Long>() {
+		return executor.execute(getDirectoryId(), new Command<Long>() {
 			@Override
 			public Long execute(Client client) throws Exception {
 				ColumnPath columnPath = new ColumnPath(columnFamily);
@@ -61,7 +100,7 @@ public class CassandraStore implements MeleDirectoryStore {
 
 	@Override
 	public long getFileLength(final String name) throws IOException {
-		return CassandraExecutor.execute(new Command<Long>() {
+		return executor.execute(getDirectoryId(), new Command<Long>() {
 			@Override
 			public Long execute(Client client) throws Exception {
 				try {
@@ -77,12 +116,42 @@ public class CassandraStore implements MeleDirectoryStore {
 	}
 	
 	public void setFileLength(final String name, final long length) throws IOException {
-		CassandraExecutor.execute(new Command<Boolean>() {
+		saveFileMetaData(name, Bytes.toBytes(length));
+	}
+
+	/**
+	 * The block shift is stored as a ninth byte after the file length, the
+	 * value of files written without it is only the file length.
+	 */
+	@Override
+	public void setFileLength(final String name, final long length, final long blockShift) throws IOException {
+		byte[] value = new byte[9];
+		Bytes.putLong(value, 0, length);
+		value[8] = (byte) blockShift;
+		saveFileMetaData(name, value);
+	}
+
+	/**
+	 * The content of an inline file follows the block shift in the meta data
+	 * column, so listing the directory returns all the small files at once.
+	 */
+	@Override
+	public void setFileData(final String name, final byte[] data, final long blockShift) throws IOException {
+		byte[] value = new byte[9 + data.length];
+		Bytes.putLong(value, 0, data.length);
+		value[8] = (byte) blockShift;
+		System.arraycopy(data, 0, value, 9, data.length);
+		saveFileMetaData(name, value);
+	}
+
+	private void saveFileMetaData(final String name, final byte[] value) throws IOException {
+		setImmutable(name, value);
+		executor.execute(getDirectoryId(), new Command<Boolean>() {
 			@Override
 			public Boolean execute(Client client) throws Exception {
 				ColumnPath columnPath = new ColumnPath(columnFamily);
 				columnPath.setColumn(Bytes.toBytes(name));
-				client.insert(keySpace, getDirectoryId(), columnPath, Bytes.toBytes(length), System.currentTimeMillis(), writeCl);
+				client.insert(keySpace, getDirectoryId(), columnPath, value, System.currentTimeMillis(), writeCl);
 				return true;
 			}
 		});
@@ -103,25 +172,112 @@ public class CassandraStore implements MeleDirectoryStore {
 
 	@Override
 	public List<String> getAllFileNames() throws IOException {
-		return CassandraExecutor.execute(new Command<List<String>>() {
+		List<String> result = new ArrayList<String>();
+		for (FileMetaData metaData : getAllFileMetaData()) {
+			result.add(metaData.getName());
+		}
+		return result;
+	}
+
+	@Override
+	public List<FileMetaData> getAllFileMetaData() throws IOException {
+		List<FileMetaData> result = new ArrayList<FileMetaData>();
+		byte[] start = Bytes.EMPTY_BYTE_ARRAY;
+		while (true) {
+			List<ColumnOrSuperColumn> page = getFileMetaDataPage(start);
+			for (ColumnOrSuperColumn column : page) {
+				if (start.length != 0 && Arrays.equals(start, column.column.name)) {
+					continue;
+				}
+				FileMetaData metaData = toFileMetaData(column);
+				if (metaData.getLength() >= 0) {
+					result.add(metaData);
+				}
+			}
+			if (page.size() < LISTING_PAGE_SIZE) {
+				return result;
+			}
+			start = page.get(page.size() - 1).column.name;
+		}
+	}
+
+	@Override
+	public FileMetaData getFileMetaData(final String name) throws IOException {
+		return executor.execute(getDirectoryId(), new Command<FileMetaData>() {
 			@Override
-			public List<String> execute(Client client) throws Exception {
+			public FileMetaData execute(Client client) throws Exception {
+				try {
+					ColumnPath columnPath = new ColumnPath(columnFamily);
+					columnPath.setColumn(Bytes.toBytes(name));
+					FileMetaData metaData = toFileMetaData(client.get(keySpace, getDirectoryId(), columnPath, readCl));
+					if (metaData.getLength() < 0) {
+						return null;
+					}
+					return metaData;
+				} catch (NotFoundException e) {
+					return null;
+				}
+			}
+		});
+	}
+
+	private List<ColumnOrSuperColumn> getFileMetaDataPage(final byte[] start) throws IOException {
+		return executor.execute(getDirectoryId(), new Command<List<ColumnOrSuperColumn>>() {
+			@Override
+			public List<ColumnOrSuperColumn> execute(Client client) throws Exception {
 				SlicePredicate slicePredicate = new SlicePredicate();
-				SliceRange sliceRange = new SliceRange(Bytes.EMPTY_BYTE_ARRAY, Bytes.EMPTY_BYTE_ARRAY, false, Integer.MAX_VALUE);
+				SliceRange sliceRange = new SliceRange(start, Bytes.EMPTY_BYTE_ARRAY, false, LISTING_PAGE_SIZE);
 				slicePredicate.setSlice_range(sliceRange);
 				ColumnParent columnParent = new ColumnParent(columnFamily);
-				List<ColumnOrSuperColumn> list = client.get_slice(keySpace, getDirectoryId(), columnParent, slicePredicate, readCl);
-				List<String> result = new ArrayList<String>();
-				for (ColumnOrSuperColumn column : list) {
-					if (Bytes.toLong(column.column.value) >= 0) {
-						result.add(Bytes.toString(column.column.name));
-					}
-				}
-				return result;
+				return client.get_slice(keySpace, getDirectoryId(), columnParent, slicePredicate, readCl);
 			}
 		});
 	}
 
+	/**
+	 * The column names of the low block ids are shared, thrift never modifies them.
+	 */
+	private static byte[] getColumnName(long blockId) {
+		if (blockId >= 0 && blockId < COLUMN_NAME_CACHE_SIZE) {
+			return COLUMN_NAMES[(int) blockId];
+		}
+		return Bytes.toBytes(blockId);
+	}
+
+	private FileMetaData toFileMetaData(ColumnOrSuperColumn column) {
+		byte[] value = column.column.value;
+		long length = Bytes.toLong(value);
+		byte[] data = null;
+		if (length > 0 && value.length == 9 + length) {
+			data = Arrays.copyOfRange(value, 9, value.length);
+		}
+		String name = Bytes.toString(column.column.name);
+		setImmutable(name, value);
+		return new FileMetaData(name, length, column.column.timestamp, value.length > 8 ? value[8] : -1, data);
+	}
+
+	/**
+	 * Remembers the files whose meta data was last seen with the
+	 * {@link FileMetaData#IMMUTABLE} flag, every directory reads or writes
+	 * the meta data of a file before it reads its blocks.
+	 */
+	private void setImmutable(String name, byte[] value) {
+		if (value.length > 8 && value[8] >= 0 && (value[8] & FileMetaData.IMMUTABLE) != 0) {
+			immutableFiles.add(name);
+		} else {
+			immutableFiles.remove(name);
+		}
+	}
+
+	/**
+	 * Blocks of immutable files are read at the block read level, a replica
+	 * can only miss such a block but never return other bytes. All other
+	 * blocks may have been saved more than once and are read at the read level.
+	 */
+	private ConsistencyLevel getBlockReadCl(String name) {
+		return immutableFiles.contains(name) ? blockReadCl : readCl;
+	}
+
 	@Override
 	public void flush(String name) throws IOException {
 		
@@ -129,11 +285,11 @@ public class CassandraStore implements MeleDirectoryStore {
 
 	@Override
 	public void removeBlock(final String name, final long blockId) throws IOException {
-		CassandraExecutor.execute(new Command<Boolean>() {
+		executor.execute(getDirectoryId(name), new Command<Boolean>() {
 			@Override
 			public Boolean execute(Client client) throws Exception {
 				ColumnPath columnPath = new ColumnPath(columnFamily);
-				columnPath.setColumn(Bytes.toBytes(blockId));
+				columnPath.setColumn(getColumnName(blockId));
 				client.remove(keySpace, getDirectoryId(name), columnPath, System.currentTimeMillis(), writeCl);
 				return true;
 			}
@@ -141,40 +297,154 @@ public class CassandraStore implements MeleDirectoryStore {
 	}
 	
 	public void saveBlock(final String name, final long blockId, final byte[] block) throws IOException {
-		CassandraExecutor.execute(new Command<Boolean>() {
+		executor.execute(getDirectoryId(name), new Command<Boolean>() {
 			@Override
 			public Boolean execute(Client client) throws Exception {
 				ColumnPath columnPath = new ColumnPath(columnFamily);
-				columnPath.setColumn(Bytes.toBytes(blockId));
+				columnPath.setColumn(getColumnName(blockId));
 				client.insert(keySpace, getDirectoryId(name), columnPath, block, System.currentTimeMillis(), writeCl);
 				return true;
 			}
 		});
 	}
 
+	/**
+	 * The block is read from a single hedged request. A block of an immutable
+	 * file that is not found may not have reached that replica yet and is
+	 * read again at the read level, the other blocks were already read at it.
+	 */
 	public byte[] fetchBlock(final String name, final long blockId) throws IOException {
-	    byte[] bs = runFetchBlock(name,blockId);
-	    if (bs == null) {
-	        return runFetchBlock(name, blockId);
-	    }
-	    return bs;
+		ConsistencyLevel cl = getBlockReadCl(name);
+		byte[] bs = executor.executeHedged(getDirectoryId(name), getFetchBlockCommand(name, blockId, cl));
+		if (bs == null && cl != readCl) {
+			return executor.execute(getDirectoryId(name), getFetchBlockCommand(name, blockId, readCl));
+		}
+		return bs;
+	}
+
+	private Command<byte[]> getFetchBlockCommand(final String name, final long blockId, final ConsistencyLevel cl) {
+		return new Command<byte[]>() {
+			@Override
+			public byte[] execute(Client client) throws Exception {
+				try {
+					ColumnPath columnPath = new ColumnPath(columnFamily);
+					columnPath.setColumn(getColumnName(blockId));
+					ColumnOrSuperColumn column = client.get(keySpace, getDirectoryId(name), columnPath, cl);
+					return column.column.value;
+				} catch (NotFoundException e) {
+					return null;
+				}
+			}
+		};
+	}
+
+	/**
+	 * The batches are written at the same time.
+	 */
+	@Override
+	public void saveBlocks(final String name, Map<Long, byte[]> blocks) throws IOException {
+		List<Entry<Long, byte[]>> entries = new ArrayList<Entry<Long, byte[]>>(blocks.entrySet());
+		List<Command<Boolean>> commands = new ArrayList<Command<Boolean>>();
+		for (int i = 0; i < entries.size(); i += MAX_BATCH_SIZE) {
+			final List<Entry<Long, byte[]>> batch = entries.subList(i, Math.min(entries.size(), i + MAX_BATCH_SIZE));
+			commands.add(new Command<Boolean>() {
+				@Override
+				public Boolean execute(Client client) throws Exception {
+					long timestamp = System.currentTimeMillis();
+					List<Mutation> mutations = new ArrayList<Mutation>();
+					for (Entry<Long, byte[]> entry : batch) {
+						ColumnOrSuperColumn column = new ColumnOrSuperColumn();
+						column.setColumn(new Column(getColumnName(entry.getKey()), entry.getValue(), timestamp));
+						mutations.add(new Mutation().setColumn_or_supercolumn(column));
+					}
+					client.batch_mutate(keySpace, getMutationMap(name, mutations), writeCl);
+					return true;
+				}
+			});
+		}
+		executor.executeAll(getDirectoryId(name), commands);
+	}
+
+	/**
+	 * The batches are fetched at the same time, a batch of an immutable file
+	 * that comes back incomplete is read once more at the read level.
+	 */
+	@Override
+	public Map<Long, byte[]> fetchBlocks(String name, List<Long> blockIds) throws IOException {
+		ConsistencyLevel cl = getBlockReadCl(name);
+		List<List<Long>> batches = new ArrayList<List<Long>>();
+		List<Command<Map<Long, byte[]>>> commands = new ArrayList<Command<Map<Long, byte[]>>>();
+		for (int i = 0; i < blockIds.size(); i += MAX_BATCH_SIZE) {
+			List<Long> batch = blockIds.subList(i, Math.min(blockIds.size(), i + MAX_BATCH_SIZE));
+			batches.add(batch);
+			commands.add(getFetchBlocksCommand(name, batch, cl));
+		}
+		List<Map<Long, byte[]>> results = executor.executeAll(getDirectoryId(name), commands);
+		Map<Long, byte[]> result = new HashMap<Long, byte[]>();
+		for (int i = 0; i < batches.size(); i++) {
+			Map<Long, byte[]> blocks = results.get(i);
+			if (blocks.size() != batches.get(i).size() && cl != readCl) {
+				blocks = executor.execute(getDirectoryId(name), getFetchBlocksCommand(name, batches.get(i), readCl));
+			}
+			result.putAll(blocks);
+		}
+		return result;
+	}
+
+	@Override
+	public void removeBlocks(final String name, List<Long> blockIds) throws IOException {
+		List<Command<Boolean>> commands = new ArrayList<Command<Boolean>>();
+		for (int i = 0; i < blockIds.size(); i += MAX_BATCH_SIZE) {
+			final List<Long> batch = blockIds.subList(i, Math.min(blockIds.size(), i + MAX_BATCH_SIZE));
+			commands.add(new Command<Boolean>() {
+				@Override
+				public Boolean execute(Client client) throws Exception {
+					Deletion deletion = new Deletion(System.currentTimeMillis());
+					deletion.setPredicate(getSlicePredicate(batch));
+					List<Mutation> mutations = new ArrayList<Mutation>();
+					mutations.add(new Mutation().setDeletion(deletion));
+					client.batch_mutate(keySpace, getMutationMap(name, mutations), writeCl);
+					return true;
+				}
+			});
+		}
+		executor.executeAll(getDirectoryId(name), commands);
+	}
+
+	private Command<Map<Long, byte[]>> getFetchBlocksCommand(final String name, final List<Long> blockIds, 
+			final ConsistencyLevel cl) {
+		return new Command<Map<Long, byte[]>>() {
+			@Override
+			public Map<Long, byte[]> execute(Client client) throws Exception {
+				ColumnParent columnParent = new ColumnParent(columnFamily);
+				List<ColumnOrSuperColumn> list = client.get_slice(keySpace, getDirectoryId(name), columnParent,
+						getSlicePredicate(blockIds), cl);
+				Map<Long, byte[]> result = new HashMap<Long, byte[]>();
+				for (ColumnOrSuperColumn column : list) {
+					result.put(Bytes.toLong(column.column.name), column.column.value);
+				}
+				return result;
+			}
+		};
+	}
+
+	private SlicePredicate getSlicePredicate(List<Long> blockIds) {
+		List<byte[]> columnNames = new ArrayList<byte[]>(blockIds.size());
+		for (Long blockId : blockIds) {
+			columnNames.add(getColumnName(blockId));
+		}
+		SlicePredicate slicePredicate = new SlicePredicate();
+		slicePredicate.setColumn_names(columnNames);
+		return slicePredicate;
+	}
+
+	private Map<String, Map<String, List<Mutation>>> getMutationMap(String name, List<Mutation> mutations) {
+		Map<String, List<Mutation>> columnFamilyMutations = new HashMap<String, List<Mutation>>();
+		columnFamilyMutations.put(columnFamily, mutations);
+		Map<String, Map<String, List<Mutation>>> mutationMap = new HashMap<String, Map<String, List<Mutation>>>();
+		mutationMap.put(getDirectoryId(name), columnFamilyMutations);
+		return mutationMap;
 	}
-	
-	private byte[] runFetchBlock(final String name, final long blockId) throws IOException {
-	    return CassandraExecutor.execute(new Command<byte[]>() {
-            @Override
-            public byte[] execute(Client client) throws Exception {
-                try {
-                    ColumnPath columnPath = new ColumnPath(columnFamily);
-                    columnPath.setColumn(Bytes.toBytes(blockId));
-                    ColumnOrSuperColumn column = client.get(keySpace, getDirectoryId(name), columnPath, writeCl);
-                    return column.column.value;
-                } catch (NotFoundException e) {
-                    return null;
-                }
-            }
-        });
-    }
 
     private String getDirectoryId() {
 		return dirName;
@@ -0,0 +1,152 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chooses the host for a request from the replicas of a row key. Every host
+ * keeps an exponentially weighted moving average of its latency, a request
+ * goes to the faster of two random available hosts so that load still
+ * spreads over the replicas while a slow host gets fewer requests. The
+ * latency of a host halves with every decay time that passes without a
+ * request to it, so a host that was slow once is tried again after a while
+ * instead of being starved by the faster ones. A host
+ * that timed out or failed is marked down, the down time doubles with every
+ * consecutive failure up to the max down time. When every candidate is down
+ * the one that comes back first is probed.
+ */
+public class HostSelector {
+
+	private static final double ALPHA = 0.2;
+	public static final long DEFAULT_DECAY_TIME = 10000;
+
+	private final long downTime;
+	private final long maxDownTime;
+	private final long decayTime;
+	private final ConcurrentMap<String, HostState> states = new ConcurrentHashMap<String, HostState>();
+	private final Random random = new Random();
+
+	/**
+	 * @param downTime the time in ms a host is skipped after its first failure.
+	 * @param maxDownTime the longest time in ms a host is skipped.
+	 */
+	public HostSelector(long downTime, long maxDownTime) {
+		this(downTime, maxDownTime, DEFAULT_DECAY_TIME);
+	}
+
+	/**
+	 * @param downTime the time in ms a host is skipped after its first failure.
+	 * @param maxDownTime the longest time in ms a host is skipped.
+	 * @param decayTime the time in ms after which the latency of a host that
+	 *            got no requests counts half.
+	 */
+	public HostSelector(long downTime, long maxDownTime, long decayTime) {
+		this.downTime = downTime;
+		this.maxDownTime = maxDownTime;
+		this.decayTime = decayTime;
+	}
+
+	public String select(List<String> candidates) {
+		long now = System.currentTimeMillis();
+		List<String> available = new ArrayList<String>(candidates.size());
+		String probe = null;
+		long probeTime = Long.MAX_VALUE;
+		for (String host : candidates) {
+			long downUntil = getState(host).downUntil;
+			if (downUntil <= now) {
+				available.add(host);
+			} else if (downUntil < probeTime) {
+				probe = host;
+				probeTime = downUntil;
+			}
+		}
+		int size = available.size();
+		if (size == 0) {
+			return probe;
+		} else if (size == 1) {
+			return available.get(0);
+		}
+		int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		String host1 = available.get(first);
+		String host2 = available.get(second);
+		return getDecayedLatency(host1, now) <= getDecayedLatency(host2, now) ? host1 : host2;
+	}
+
+	/**
+	 * Records the latency of a successful request, the host is up again.
+	 */
+	public void recordLatency(String host, long nanos) {
+		HostState state = getState(host);
+		synchronized (state) {
+			state.latency = state.samples == 0 ? nanos : state.latency + ALPHA * (nanos - state.latency);
+			state.samples++;
+			state.updated = System.currentTimeMillis();
+			state.failures = 0;
+			state.downUntil = 0;
+		}
+	}
+
+	/**
+	 * Marks the host down after a failed or timed out request.
+	 * @param nanos the time the request took, counted into the latency of the host.
+	 */
+	public void markDown(String host, long nanos) {
+		HostState state = getState(host);
+		synchronized (state) {
+			if (nanos > 0) {
+				state.latency = state.samples == 0 ? nanos : state.latency + ALPHA * (nanos - state.latency);
+				state.samples++;
+				state.updated = System.currentTimeMillis();
+			}
+			long time = Math.min(maxDownTime, downTime << Math.min(state.failures, 20));
+			state.failures++;
+			state.downUntil = System.currentTimeMillis() + time;
+		}
+	}
+
+	public boolean isAvailable(String host) {
+		return getState(host).downUntil <= System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the average latency of the host in ns, 0 if it has not been used yet.
+	 */
+	public long getLatency(String host) {
+		return (long) getState(host).latency;
+	}
+
+	private double getDecayedLatency(String host, long now) {
+		HostState state = getState(host);
+		long idle = now - state.updated;
+		if (decayTime <= 0 || idle <= 0) {
+			return state.latency;
+		}
+		return state.latency * Math.pow(0.5, (double) idle / decayTime);
+	}
+
+	private HostState getState(String host) {
+		HostState state = states.get(host);
+		if (state == null) {
+			HostState existing = states.putIfAbsent(host, state = new HostState());
+			if (existing != null) {
+				state = existing;
+			}
+		}
+		return state;
+	}
+
+	private static class HostState {
+		volatile double latency;
+		volatile long downUntil;
+		volatile long updated;
+		long samples;
+		int failures;
+	}
+}
@@ -0,0 +1,55 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the latencies of the last requests in a ring and estimates a
+ * percentile of them. The percentile is recomputed after every 64 samples
+ * so that reading it costs nothing.
+ */
+public class LatencyTracker {
+
+	private static final int RECOMPUTE_INTERVAL = 64;
+	private static final int MIN_SAMPLES = RECOMPUTE_INTERVAL * 2;
+
+	private final AtomicLongArray samples;
+	private final AtomicLong count = new AtomicLong();
+	private final double percentile;
+	private volatile long value = -1;
+
+	/**
+	 * @param size the number of samples kept.
+	 * @param percentile the percentile between 0 and 1.
+	 */
+	public LatencyTracker(int size, double percentile) {
+		this.samples = new AtomicLongArray(Math.max(size, MIN_SAMPLES));
+		this.percentile = percentile;
+	}
+
+	public void record(long nanos) {
+		long n = count.getAndIncrement();
+		samples.set((int) (n % samples.length()), nanos);
+		if (n + 1 >= MIN_SAMPLES && (n + 1) % RECOMPUTE_INTERVAL == 0) {
+			recompute((int) Math.min(n + 1, samples.length()));
+		}
+	}
+
+	/**
+	 * @return the percentile in ns, or -1 until enough samples were recorded.
+	 */
+	public long getPercentile() {
+		return value;
+	}
+
+	private void recompute(int length) {
+		long[] sorted = new long[length];
+		for (int i = 0; i < length; i++) {
+			sorted[i] = samples.get(i);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile * length) - 1;
+		value = sorted[Math.max(0, Math.min(length - 1, index))];
+	}
+}
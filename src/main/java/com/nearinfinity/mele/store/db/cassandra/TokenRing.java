@@ -0,0 +1,85 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.dht.Token.TokenFactory;
+import org.apache.cassandra.thrift.TokenRange;
+
+/**
+ * The token ring of a keyspace as returned by describe_ring, maps a row key
+ * to the replicas that own it using the partitioner of the cluster. Every
+ * range owns the tokens after its start token up to and including its end
+ * token, the last range wraps around to the first.
+ */
+public class TokenRing {
+
+	private final IPartitioner<?> partitioner;
+	private final TreeMap<Token<?>, List<String>> ranges = new TreeMap<Token<?>, List<String>>();
+	private final Set<String> hosts = new TreeSet<String>();
+
+	public TokenRing(IPartitioner<?> partitioner, List<TokenRange> tokenRanges) {
+		this.partitioner = partitioner;
+		TokenFactory<?> tokenFactory = partitioner.getTokenFactory();
+		for (TokenRange range : tokenRanges) {
+			List<String> endpoints = Collections.unmodifiableList(new ArrayList<String>(range.getEndpoints()));
+			ranges.put(tokenFactory.fromString(range.getEnd_token()), endpoints);
+			hosts.addAll(endpoints);
+		}
+	}
+
+	/**
+	 * Creates the partitioner named by describe_partitioner.
+	 * 
+	 * @throws IllegalArgumentException if the partitioner can not be created.
+	 */
+	public static IPartitioner<?> getPartitioner(String className) {
+		try {
+			return (IPartitioner<?>) Class.forName(className).getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Unknown partitioner [" + className + "]", e);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Partitioner [" + className + "] has no default constructor", e);
+		} catch (InstantiationException e) {
+			throw new IllegalArgumentException("Could not create partitioner [" + className + "]", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Could not create partitioner [" + className + "]", e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException("Could not create partitioner [" + className + "]", e.getCause());
+		}
+	}
+
+	/**
+	 * @return the replicas of the row key, or an empty list if the ring is empty.
+	 */
+	public List<String> getEndpoints(String rowKey) {
+		if (ranges.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Map.Entry<Token<?>, List<String>> entry = ranges.ceilingEntry(partitioner.getToken(rowKey));
+		if (entry == null) {
+			entry = ranges.firstEntry();
+		}
+		return entry.getValue();
+	}
+
+	/**
+	 * @return all hosts of the ring.
+	 */
+	public Set<String> getHosts() {
+		return hosts;
+	}
+
+	@Override
+	public String toString() {
+		return "TokenRing [ranges=" + ranges + "]";
+	}
+}
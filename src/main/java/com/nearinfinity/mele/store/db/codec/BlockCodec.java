@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses single blocks of file data. Closing a codec
+ * releases the resources it holds between calls.
+ */
+public interface BlockCodec extends Closeable {
+
+    /**
+     * The id that is recorded in every block that was compressed with this codec.
+     */
+    byte getId();
+
+    /**
+     * The name of the codec used in the configuration.
+     */
+    String getName();
+
+    /**
+     * Compresses the block into the output buffer.
+     * @param block the binary data.
+     * @param offset the offset of the data.
+     * @param length the length of the data.
+     * @param output the buffer that receives the compressed data.
+     * @param outputOffset the offset in the output buffer.
+     * @param outputLength the space available in the output buffer.
+     * @return the length of the compressed data or -1 if it does not fit.
+     * @throws IOException
+     */
+    int compress(byte[] block, int offset, int length, byte[] output, int outputOffset, int outputLength)
+            throws IOException;
+
+    /**
+     * Decompresses the block.
+     * @param data the compressed data.
+     * @param offset the offset of the compressed data.
+     * @param length the length of the compressed data.
+     * @param rawLength the length of the data before compression.
+     * @return the decompressed data.
+     * @throws IOException
+     */
+    byte[] decompress(byte[] data, int offset, int length, int rawLength) throws IOException;
+
+}
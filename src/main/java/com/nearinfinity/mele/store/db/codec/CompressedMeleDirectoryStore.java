@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.nearinfinity.mele.store.db.BlockBufferPool;
+import com.nearinfinity.mele.store.db.FileMetaData;
+import com.nearinfinity.mele.store.db.MeleDirectoryStore;
+
+/**
+ * Compresses every block before it is saved to the wrapped store and
+ * decompresses it when it is fetched. Every saved block starts with a header
+ * of a marker, the codec id and the uncompressed length, so blocks written
+ * with different codecs can be read back. Blocks that do not shrink by at
+ * least the header are saved uncompressed. Blocks without a valid header were
+ * written before compression was enabled and are passed through as they are.
+ */
+public class CompressedMeleDirectoryStore implements MeleDirectoryStore {
+
+    public static final byte NONE = 0;
+    private static final byte[] MARKER = { 'm', 'c', 'b', 1 };
+    private static final int CODEC_OFFSET = MARKER.length;
+    private static final int LENGTH_OFFSET = CODEC_OFFSET + 1;
+    static final int HEADER_LENGTH = LENGTH_OFFSET + 4;
+
+    private static final Map<String, BlockCodec> CODECS_BY_NAME = new HashMap<String, BlockCodec>();
+    private static final Map<Byte, BlockCodec> CODECS_BY_ID = new HashMap<Byte, BlockCodec>();
+
+    static {
+        register(new DeflateBlockCodec());
+    }
+
+    private static void register(BlockCodec codec) {
+        CODECS_BY_NAME.put(codec.getName(), codec);
+        CODECS_BY_ID.put(codec.getId(), codec);
+    }
+
+    /**
+     * Looks up a codec by the name used in the configuration.
+     * @param name the codec name.
+     * @return the codec or null if the name is "none" or null.
+     */
+    public static BlockCodec getCodec(String name) {
+        if (name == null || "none".equals(name)) {
+            return null;
+        }
+        BlockCodec codec = CODECS_BY_NAME.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown block codec [" + name + "]");
+        }
+        return codec;
+    }
+
+    private final MeleDirectoryStore store;
+    private final BlockCodec codec;
+    private final BlockBufferPool bufferPool;
+
+    public CompressedMeleDirectoryStore(MeleDirectoryStore store, BlockCodec codec) {
+        this(store, codec, new BlockBufferPool(16));
+    }
+
+    public CompressedMeleDirectoryStore(MeleDirectoryStore store, BlockCodec codec, BlockBufferPool bufferPool) {
+        this.store = store;
+        this.codec = codec;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void saveBlock(String name, long blockId, byte[] block) throws IOException {
+        store.saveBlock(name, blockId, encode(block));
+    }
+
+    @Override
+    public byte[] fetchBlock(String name, long blockId) throws IOException {
+        return decode(store.fetchBlock(name, blockId));
+    }
+
+    @Override
+    public void saveBlocks(String name, Map<Long, byte[]> blocks) throws IOException {
+        Map<Long, byte[]> encoded = new HashMap<Long, byte[]>();
+        for (Entry<Long, byte[]> entry : blocks.entrySet()) {
+            encoded.put(entry.getKey(), encode(entry.getValue()));
+        }
+        store.saveBlocks(name, encoded);
+    }
+
+    @Override
+    public Map<Long, byte[]> fetchBlocks(String name, List<Long> blockIds) throws IOException {
+        Map<Long, byte[]> blocks = store.fetchBlocks(name, blockIds);
+        for (Entry<Long, byte[]> entry : blocks.entrySet()) {
+            entry.setValue(decode(entry.getValue()));
+        }
+        return blocks;
+    }
+
+    @Override
+    public List<String> getAllFileNames() throws IOException {
+        return store.getAllFileNames();
+    }
+
+    @Override
+    public List<FileMetaData> getAllFileMetaData() throws IOException {
+        return store.getAllFileMetaData();
+    }
+
+    @Override
+    public FileMetaData getFileMetaData(String name) throws IOException {
+        return store.getFileMetaData(name);
+    }
+
+    @Override
+    public boolean fileExists(String name) throws IOException {
+        return store.fileExists(name);
+    }
+
+    @Override
+    public long getFileModified(String name) throws IOException {
+        return store.getFileModified(name);
+    }
+
+    @Override
+    public long getFileLength(String name) throws IOException {
+        return store.getFileLength(name);
+    }
+
+    @Override
+    public void setFileLength(String name, long length) throws IOException {
+        store.setFileLength(name, length);
+    }
+
+    @Override
+    public void setFileLength(String name, long length, long blockShift) throws IOException {
+        store.setFileLength(name, length, blockShift);
+    }
+
+    @Override
+    public void setFileData(String name, byte[] data, long blockShift) throws IOException {
+        store.setFileData(name, data, blockShift);
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    @Override
+    public void flush(String name) throws IOException {
+        store.flush(name);
+    }
+
+    @Override
+    public void removeBlock(String name, long blockId) throws IOException {
+        store.removeBlock(name, blockId);
+    }
+
+    @Override
+    public void removeBlocks(String name, List<Long> blockIds) throws IOException {
+        store.removeBlocks(name, blockIds);
+    }
+
+    @Override
+    public void removeFileMetaData(String name) throws IOException {
+        store.removeFileMetaData(name);
+    }
+
+    /**
+     * Compresses into a pooled scratch buffer that is no larger than the
+     * block, so a block that does not shrink is detected without compressing
+     * it completely.
+     */
+    private byte[] encode(byte[] block) throws IOException {
+        byte[] scratch = bufferPool.acquire(block.length);
+        try {
+            int size = -1;
+            if (block.length > HEADER_LENGTH) {
+                size = codec.compress(block, 0, block.length, scratch, 0, block.length - HEADER_LENGTH);
+            }
+            byte[] result;
+            if (size >= 0) {
+                result = new byte[HEADER_LENGTH + size];
+                result[CODEC_OFFSET] = codec.getId();
+                System.arraycopy(scratch, 0, result, HEADER_LENGTH, size);
+            } else {
+                result = new byte[HEADER_LENGTH + block.length];
+                result[CODEC_OFFSET] = NONE;
+                System.arraycopy(block, 0, result, HEADER_LENGTH, block.length);
+            }
+            System.arraycopy(MARKER, 0, result, 0, MARKER.length);
+            putInt(result, LENGTH_OFFSET, block.length);
+            return result;
+        } finally {
+            bufferPool.release(scratch);
+        }
+    }
+
+    private byte[] decode(byte[] data) throws IOException {
+        if (data == null || !hasHeader(data)) {
+            return data;
+        }
+        byte id = data[CODEC_OFFSET];
+        int rawLength = getInt(data, LENGTH_OFFSET);
+        if (id == NONE) {
+            return Arrays.copyOfRange(data, HEADER_LENGTH, HEADER_LENGTH + rawLength);
+        }
+        return CODECS_BY_ID.get(id).decompress(data, HEADER_LENGTH, data.length - HEADER_LENGTH, rawLength);
+    }
+
+    /**
+     * Checks the marker, the codec id and the lengths so a block written
+     * before compression was enabled is not mistaken for an encoded one.
+     */
+    private static boolean hasHeader(byte[] data) {
+        if (data.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MARKER.length; i++) {
+            if (data[i] != MARKER[i]) {
+                return false;
+            }
+        }
+        byte id = data[CODEC_OFFSET];
+        int rawLength = getInt(data, LENGTH_OFFSET);
+        if (id == NONE) {
+            return rawLength == data.length - HEADER_LENGTH;
+        }
+        return CODECS_BY_ID.containsKey(id) && rawLength > data.length - HEADER_LENGTH;
+    }
+
+    private static void putInt(byte[] b, int offset, int i) {
+        b[offset] = (byte) (i >>> 24);
+        b[offset + 1] = (byte) (i >>> 16);
+        b[offset + 2] = (byte) (i >>> 8);
+        b[offset + 3] = (byte) i;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8)
+                | (b[offset + 3] & 0xFF);
+    }
+}
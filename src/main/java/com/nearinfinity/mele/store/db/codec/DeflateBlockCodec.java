@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db.codec;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses blocks with deflate, the default level favors speed over ratio.
+ * Deflaters and inflaters hold native memory, so they are reused from a pool
+ * and ended when the codec is closed. A codec that is used after close
+ * creates new ones.
+ */
+public class DeflateBlockCodec implements BlockCodec {
+
+    public static final byte ID = 1;
+    public static final String NAME = "deflate";
+
+    private final int level;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    public DeflateBlockCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateBlockCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int compress(byte[] block, int offset, int length, byte[] output, int outputOffset, int outputLength)
+            throws IOException {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+        try {
+            deflater.setInput(block, offset, length);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == outputLength) {
+                    return -1;
+                }
+                size += deflater.deflate(output, outputOffset + size, outputLength - size);
+            }
+            return size;
+        } finally {
+            deflater.reset();
+            deflaters.add(deflater);
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int rawLength) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(data, offset, length);
+            byte[] block = new byte[rawLength];
+            int size = 0;
+            while (size < rawLength) {
+                int inflated = inflater.inflate(block, size, rawLength - size);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += inflated;
+            }
+            if (size != rawLength) {
+                throw new IOException("Expected [" + rawLength + "] bytes but inflated [" + size + "]");
+            }
+            return block;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.reset();
+            inflaters.add(inflater);
+        }
+    }
+
+    /**
+     * Ends the pooled deflaters and inflaters, ones that are in use while
+     * the codec is closed go back to the pool.
+     */
+    @Override
+    public void close() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+}
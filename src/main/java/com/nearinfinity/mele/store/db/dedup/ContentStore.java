@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db.dedup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores block content under the hash of the content and keeps track of the
+ * file blocks that refer to it. Removing a reference only marks it removed,
+ * content is removed by {@link #collectGarbage(long)} once all its
+ * references have been removed for a grace period, so a reference added
+ * concurrently with the removal of the last one does not lose the content.
+ */
+public interface ContentStore {
+
+    /**
+     * Records that the references point to their content.
+     * @param references the content hash keyed by the file block that refers
+     *            to it.
+     * @return the hashes of the content that is already stored.
+     * @throws IOException
+     */
+    Set<String> addReferences(Map<String, String> references) throws IOException;
+
+    /**
+     * Marks the references removed.
+     * @param references the content hash keyed by the file block that
+     *            referred to it.
+     * @throws IOException
+     */
+    void removeReferences(Map<String, String> references) throws IOException;
+
+    /**
+     * Saves the contents.
+     * @param contents the content keyed by hash.
+     * @throws IOException
+     */
+    void saveContents(Map<String, byte[]> contents) throws IOException;
+
+    /**
+     * Fetches many contents in as few calls as possible.
+     * @param hashes the content hashes.
+     * @return the content keyed by hash, missing content is not included.
+     * @throws IOException
+     */
+    Map<String, byte[]> fetchContents(List<String> hashes) throws IOException;
+
+    /**
+     * Removes the content that has no references left and whose last
+     * reference was removed at least the grace period ago.
+     * @param gracePeriod the grace period in milliseconds.
+     * @return the number of removed contents.
+     * @throws IOException
+     */
+    int collectGarbage(long gracePeriod) throws IOException;
+
+}
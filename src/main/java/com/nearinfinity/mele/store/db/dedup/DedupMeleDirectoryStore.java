@@ -0,0 +1,347 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.db.dedup;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.nearinfinity.mele.store.db.FileMetaData;
+import com.nearinfinity.mele.store.db.MeleDirectoryStore;
+
+/**
+ * Stores every block once in a shared {@link ContentStore} under the SHA-1
+ * hash of its content, the wrapped store only keeps a hash record of each
+ * file block. Blocks whose content is already stored are not uploaded again,
+ * so copying or restoring an index mostly writes hashes and directories that
+ * hold the same segments share the storage.
+ * <p>
+ * A hash record starts with a marker, blocks the wrapped store holds without
+ * it were written before deduplication was enabled and are passed through
+ * as they are. The content store tracks the file blocks that refer to each
+ * content and collects the content once it is no longer referenced.
+ * <p>
+ * The hash records of the files that are being written since they were
+ * truncated are kept in memory, so saving a block does not read the record
+ * it replaces. Truncating a file releases the blocks it had before.
+ */
+public class DedupMeleDirectoryStore implements MeleDirectoryStore {
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /** Marks the blocks of the wrapped store that hold a content hash. */
+    private static final byte[] HASH_MARKER = { 0, 'm', 'e', 'l', 'e', 'd', 'd', 1 };
+    private static final int HASH_LENGTH = 20;
+    static final int HASH_RECORD_LENGTH = HASH_MARKER.length + HASH_LENGTH;
+
+    private final MeleDirectoryStore store;
+    private final ContentStore contentStore;
+    private final String directoryId;
+    private final ConcurrentMap<String, ConcurrentMap<Long, byte[]>> writtenFiles = new ConcurrentHashMap<String, ConcurrentMap<Long, byte[]>>();
+
+    /**
+     * @param store the store of the file meta data and block hashes.
+     * @param contentStore the shared content store.
+     * @param directoryId the id of the directory in the references.
+     */
+    public DedupMeleDirectoryStore(MeleDirectoryStore store, ContentStore contentStore, String directoryId) {
+        this.store = store;
+        this.contentStore = contentStore;
+        this.directoryId = directoryId;
+    }
+
+    @Override
+    public void saveBlock(String name, long blockId, byte[] block) throws IOException {
+        Map<Long, byte[]> blocks = new HashMap<Long, byte[]>();
+        blocks.put(blockId, block);
+        saveBlocks(name, blocks);
+    }
+
+    /**
+     * Uploads only the content the content store does not have yet, then
+     * replaces the hashes of the file blocks and releases the content they
+     * referred to before. The references and contents of all blocks are
+     * written with one batch each.
+     */
+    @Override
+    public void saveBlocks(String name, Map<Long, byte[]> blocks) throws IOException {
+        ConcurrentMap<Long, byte[]> written = writtenFiles.get(name);
+        Map<Long, byte[]> previous;
+        if (written == null) {
+            previous = getHashRecords(store.fetchBlocks(name, new ArrayList<Long>(blocks.keySet())));
+        } else {
+            previous = new HashMap<Long, byte[]>();
+            for (Long blockId : blocks.keySet()) {
+                byte[] record = written.get(blockId);
+                if (record != null) {
+                    previous.put(blockId, record);
+                }
+            }
+        }
+        Map<Long, byte[]> records = new HashMap<Long, byte[]>();
+        Map<String, String> references = new HashMap<String, String>();
+        Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        for (Entry<Long, byte[]> entry : blocks.entrySet()) {
+            byte[] record = toHashRecord(hash(entry.getValue()));
+            if (Arrays.equals(record, previous.get(entry.getKey()))) {
+                previous.remove(entry.getKey());
+                continue;
+            }
+            String hex = toHex(record);
+            references.put(getReference(name, entry.getKey()), hex);
+            contents.put(hex, entry.getValue());
+            records.put(entry.getKey(), record);
+        }
+        if (!references.isEmpty()) {
+            contents.keySet().removeAll(contentStore.addReferences(references));
+            if (!contents.isEmpty()) {
+                contentStore.saveContents(contents);
+            }
+            store.saveBlocks(name, records);
+            if (written != null) {
+                written.putAll(records);
+            }
+        }
+        release(name, previous);
+    }
+
+    @Override
+    public byte[] fetchBlock(String name, long blockId) throws IOException {
+        byte[] block = store.fetchBlock(name, blockId);
+        if (block == null || !isHashRecord(block)) {
+            return block;
+        }
+        String hex = toHex(block);
+        return contentStore.fetchContents(Arrays.asList(hex)).get(hex);
+    }
+
+    @Override
+    public Map<Long, byte[]> fetchBlocks(String name, List<Long> blockIds) throws IOException {
+        Map<Long, byte[]> blocks = store.fetchBlocks(name, blockIds);
+        List<String> hexes = new ArrayList<String>();
+        for (byte[] block : blocks.values()) {
+            if (isHashRecord(block)) {
+                hexes.add(toHex(block));
+            }
+        }
+        Map<String, byte[]> contents = hexes.isEmpty() ? new HashMap<String, byte[]>() : contentStore
+                .fetchContents(hexes);
+        Map<Long, byte[]> result = new HashMap<Long, byte[]>();
+        for (Entry<Long, byte[]> entry : blocks.entrySet()) {
+            byte[] content = isHashRecord(entry.getValue()) ? contents.get(toHex(entry.getValue())) : entry.getValue();
+            if (content != null) {
+                result.put(entry.getKey(), content);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void removeBlock(String name, long blockId) throws IOException {
+        removeBlocks(name, Arrays.asList(blockId));
+    }
+
+    @Override
+    public void removeBlocks(String name, List<Long> blockIds) throws IOException {
+        Map<Long, byte[]> records = getHashRecords(store.fetchBlocks(name, blockIds));
+        store.removeBlocks(name, blockIds);
+        release(name, records);
+    }
+
+    @Override
+    public List<String> getAllFileNames() throws IOException {
+        return store.getAllFileNames();
+    }
+
+    @Override
+    public List<FileMetaData> getAllFileMetaData() throws IOException {
+        return store.getAllFileMetaData();
+    }
+
+    @Override
+    public FileMetaData getFileMetaData(String name) throws IOException {
+        return store.getFileMetaData(name);
+    }
+
+    @Override
+    public boolean fileExists(String name) throws IOException {
+        return store.fileExists(name);
+    }
+
+    @Override
+    public long getFileModified(String name) throws IOException {
+        return store.getFileModified(name);
+    }
+
+    @Override
+    public long getFileLength(String name) throws IOException {
+        return store.getFileLength(name);
+    }
+
+    @Override
+    public void setFileLength(String name, long length) throws IOException {
+        FileMetaData truncated = length == 0 ? store.getFileMetaData(name) : null;
+        store.setFileLength(name, length);
+        updateWrittenFile(name, length, truncated);
+    }
+
+    @Override
+    public void setFileLength(String name, long length, long blockShift) throws IOException {
+        FileMetaData truncated = length == 0 ? store.getFileMetaData(name) : null;
+        store.setFileLength(name, length, blockShift);
+        updateWrittenFile(name, length, truncated);
+    }
+
+    @Override
+    public void setFileData(String name, byte[] data, long blockShift) throws IOException {
+        store.setFileData(name, data, blockShift);
+        writtenFiles.remove(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    @Override
+    public void flush(String name) throws IOException {
+        store.flush(name);
+    }
+
+    @Override
+    public void removeFileMetaData(String name) throws IOException {
+        writtenFiles.remove(name);
+        store.removeFileMetaData(name);
+    }
+
+    /**
+     * Starts keeping the hash records of a file that was truncated and
+     * removes the blocks it had, the records are dropped once the length of
+     * the file is set when the file is closed. The blocks of a file written
+     * without a block shift are unknown here, saving its blocks reads the
+     * records they replace.
+     * @param truncated the meta data of the file before it was truncated or
+     *            null if the length was not set to 0.
+     */
+    private void updateWrittenFile(String name, long length, FileMetaData truncated) throws IOException {
+        if (length > 0) {
+            writtenFiles.remove(name);
+            return;
+        }
+        if (truncated == null || truncated.getLength() == 0 || truncated.getData() != null) {
+            writtenFiles.put(name, new ConcurrentHashMap<Long, byte[]>());
+        } else if (truncated.getBlockShift() < 0) {
+            writtenFiles.remove(name);
+        } else {
+            long maxBlockId = (truncated.getLength() - 1) >>> truncated.getBlockShift();
+            List<Long> blockIds = new ArrayList<Long>();
+            for (long blockId = 0; blockId <= maxBlockId; blockId++) {
+                blockIds.add(blockId);
+            }
+            removeBlocks(name, blockIds);
+            writtenFiles.put(name, new ConcurrentHashMap<Long, byte[]>());
+        }
+    }
+
+    private void release(String name, Map<Long, byte[]> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        Map<String, String> references = new HashMap<String, String>();
+        for (Entry<Long, byte[]> entry : records.entrySet()) {
+            references.put(getReference(name, entry.getKey()), toHex(entry.getValue()));
+        }
+        contentStore.removeReferences(references);
+    }
+
+    /**
+     * @return the blocks that are hash records, blocks written before
+     *         deduplication was enabled are left out.
+     */
+    private static Map<Long, byte[]> getHashRecords(Map<Long, byte[]> blocks) {
+        Map<Long, byte[]> records = new HashMap<Long, byte[]>();
+        for (Entry<Long, byte[]> entry : blocks.entrySet()) {
+            if (isHashRecord(entry.getValue())) {
+                records.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return records;
+    }
+
+    static boolean isHashRecord(byte[] block) {
+        if (block.length != HASH_RECORD_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_MARKER.length; i++) {
+            if (block[i] != HASH_MARKER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] toHashRecord(byte[] hash) {
+        byte[] record = new byte[HASH_RECORD_LENGTH];
+        System.arraycopy(HASH_MARKER, 0, record, 0, HASH_MARKER.length);
+        System.arraycopy(hash, 0, record, HASH_MARKER.length, hash.length);
+        return record;
+    }
+
+    private String getReference(String name, long blockId) {
+        return directoryId + "/" + name + "/" + blockId;
+    }
+
+    private static byte[] hash(byte[] block) {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        return digest.digest(block);
+    }
+
+    /**
+     * @return the hex of the hash in the record.
+     */
+    private static String toHex(byte[] record) {
+        char[] chars = new char[HASH_LENGTH * 2];
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            byte b = record[HASH_MARKER.length + i];
+            chars[i * 2] = HEX[(b >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[b & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,758 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.store.db.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nearinfinity.mele.store.db.ByteBufferMeleDirectoryStore;
+import com.nearinfinity.mele.store.db.FileMetaData;
+import com.nearinfinity.mele.util.Bytes;
+import com.nearinfinity.mele.util.NamedThreadFactory;
+
+/**
+ * Stores the blocks and meta data of a directory on local disk by appending
+ * records to segment log files, every segment is memory mapped so blocks are
+ * served as slices of the mapping without copying. The location of the latest
+ * record of every block and file is kept in memory and rebuilt by scanning the
+ * segments when the store is opened, a torn record at the end of the log is
+ * detected by its checksum and discarded.
+ * <p>
+ * Overwritten and removed records stay in their segment until the segment is
+ * compacted, segments whose live records take up less than the compaction
+ * threshold are rewritten into the active segment and deleted in the
+ * background. Records are only guaranteed to survive a crash once
+ * {@link #flush(String)} has returned.
+ */
+public class LogStructuredMeleDirectoryStore implements ByteBufferMeleDirectoryStore {
+
+    private static final Log LOG = LogFactory.getLog(LogStructuredMeleDirectoryStore.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    public static final long DEFAULT_COMPACTION_INTERVAL = 60000;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** The record length and checksum that precede every record body. */
+    private static final int RECORD_HEADER_LENGTH = 8;
+    /** The type, name length and key that start every record body. */
+    private static final int BODY_HEADER_LENGTH = 11;
+    private static final byte BLOCK = 1;
+    private static final byte META_DATA = 2;
+    private static final byte REMOVE_BLOCK = 3;
+    private static final byte REMOVE_META_DATA = 4;
+
+    private final File dir;
+    private final int segmentSize;
+    private final double compactionThreshold;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+    private final ConcurrentMap<String, ConcurrentMap<Long, Location>> blocks = new ConcurrentHashMap<String, ConcurrentMap<Long, Location>>();
+    private final ConcurrentMap<String, FileEntry> files = new ConcurrentHashMap<String, FileEntry>();
+    private final Object writeLock = new Object();
+    private final Object compactionLock = new Object();
+    private final ScheduledExecutorService compactionExecutor;
+    private volatile Segment active;
+
+    public LogStructuredMeleDirectoryStore(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * @param dir the directory of the segment files.
+     * @param segmentSize the size of a segment file.
+     * @param compactionThreshold the fraction of live records below which a segment is compacted.
+     * @param compactionInterval the milliseconds between background compactions, background compaction is
+     *            disabled when not positive.
+     * @throws IOException
+     */
+    public LogStructuredMeleDirectoryStore(File dir, int segmentSize, double compactionThreshold,
+            long compactionInterval) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory [" + dir + "]");
+        }
+        recover();
+        if (compactionInterval > 0) {
+            compactionExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("mele-compaction"));
+            compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (Throwable t) {
+                        LOG.error("Could not compact segments in [" + LogStructuredMeleDirectoryStore.this.dir + "]", t);
+                    }
+                }
+            }, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+        } else {
+            compactionExecutor = null;
+        }
+    }
+
+    @Override
+    public void saveBlock(String name, long blockId, byte[] block) throws IOException {
+        saveBlockBuffer(name, blockId, ByteBuffer.wrap(block));
+    }
+
+    @Override
+    public void saveBlockBuffer(String name, long blockId, ByteBuffer block) throws IOException {
+        synchronized (writeLock) {
+            putBlock(name, blockId, append(BLOCK, name, blockId, block));
+        }
+    }
+
+    @Override
+    public void saveBlocks(String name, Map<Long, byte[]> blocks) throws IOException {
+        synchronized (writeLock) {
+            for (Entry<Long, byte[]> entry : blocks.entrySet()) {
+                putBlock(name, entry.getKey(), append(BLOCK, name, entry.getKey(), ByteBuffer.wrap(entry.getValue())));
+            }
+        }
+    }
+
+    @Override
+    public byte[] fetchBlock(String name, long blockId) throws IOException {
+        return toBytes(fetchBlockBuffer(name, blockId));
+    }
+
+    @Override
+    public ByteBuffer fetchBlockBuffer(String name, long blockId) throws IOException {
+        Location location = getLocation(name, blockId);
+        if (location == null) {
+            return null;
+        }
+        return location.getData();
+    }
+
+    @Override
+    public Map<Long, byte[]> fetchBlocks(String name, List<Long> blockIds) throws IOException {
+        Map<Long, byte[]> result = new HashMap<Long, byte[]>();
+        for (Entry<Long, ByteBuffer> entry : fetchBlockBuffers(name, blockIds).entrySet()) {
+            result.put(entry.getKey(), toBytes(entry.getValue()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Long, ByteBuffer> fetchBlockBuffers(String name, List<Long> blockIds) throws IOException {
+        Map<Long, ByteBuffer> result = new HashMap<Long, ByteBuffer>();
+        for (Long blockId : blockIds) {
+            Location location = getLocation(name, blockId);
+            if (location != null) {
+                result.put(blockId, location.getData());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getAllFileNames() throws IOException {
+        return new ArrayList<String>(files.keySet());
+    }
+
+    @Override
+    public List<FileMetaData> getAllFileMetaData() throws IOException {
+        List<FileMetaData> result = new ArrayList<FileMetaData>();
+        for (FileEntry entry : files.values()) {
+            result.add(entry.metaData);
+        }
+        return result;
+    }
+
+    @Override
+    public FileMetaData getFileMetaData(String name) throws IOException {
+        FileEntry entry = files.get(name);
+        if (entry == null) {
+            return null;
+        }
+        return entry.metaData;
+    }
+
+    @Override
+    public boolean fileExists(String name) throws IOException {
+        return files.containsKey(name);
+    }
+
+    @Override
+    public long getFileModified(String name) throws IOException {
+        FileEntry entry = files.get(name);
+        if (entry == null) {
+            return -1l;
+        }
+        return entry.metaData.getLastModified();
+    }
+
+    @Override
+    public long getFileLength(String name) throws IOException {
+        FileEntry entry = files.get(name);
+        if (entry == null) {
+            return -1l;
+        }
+        return entry.metaData.getLength();
+    }
+
+    @Override
+    public void setFileLength(String name, long length) throws IOException {
+        setFileLength(name, length, -1);
+    }
+
+    @Override
+    public void setFileLength(String name, long length, long blockShift) throws IOException {
+        saveFileMetaData(new FileMetaData(name, length, System.currentTimeMillis(), blockShift, null));
+    }
+
+    @Override
+    public void setFileData(String name, byte[] data, long blockShift) throws IOException {
+        saveFileMetaData(new FileMetaData(name, data.length, System.currentTimeMillis(), blockShift, data.clone()));
+    }
+
+    @Override
+    public void removeBlock(String name, long blockId) throws IOException {
+        removeBlocks(name, Arrays.asList(blockId));
+    }
+
+    @Override
+    public void removeBlocks(String name, List<Long> blockIds) throws IOException {
+        synchronized (writeLock) {
+            for (Long blockId : blockIds) {
+                if (getLocation(name, blockId) != null) {
+                    append(REMOVE_BLOCK, name, blockId, null);
+                    putBlock(name, blockId, null);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeFileMetaData(String name) throws IOException {
+        synchronized (writeLock) {
+            if (files.containsKey(name)) {
+                append(REMOVE_META_DATA, name, 0, null);
+                putFileEntry(name, null);
+            }
+        }
+    }
+
+    /**
+     * Forces every segment that was written since the last flush to disk.
+     */
+    @Override
+    public void flush(String name) throws IOException {
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
+        flush(null);
+    }
+
+    /**
+     * Rewrites the live records of every full segment whose live records take
+     * up less than the compaction threshold into the active segment and
+     * deletes the segment. Writers are only blocked while a single record is
+     * copied.
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            for (Segment segment : segments.values()) {
+                boolean compactable;
+                synchronized (writeLock) {
+                    compactable = segment != active && segment.getLiveRatio() < compactionThreshold;
+                }
+                if (compactable) {
+                    compact(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the names of the files that have at least one block.
+     */
+    public List<String> getAllBlockFileNames() {
+        return new ArrayList<String>(blocks.keySet());
+    }
+
+    /**
+     * @return the ids of the blocks stored for the file.
+     */
+    public List<Long> getBlockIds(String name) {
+        ConcurrentMap<Long, Location> locations = blocks.get(name);
+        if (locations == null) {
+            return new ArrayList<Long>();
+        }
+        return new ArrayList<Long>(locations.keySet());
+    }
+
+    /**
+     * @return the number of segment files.
+     */
+    public int getNumberOfSegments() {
+        return segments.size();
+    }
+
+    private void compact(Segment segment) throws IOException {
+        for (Record record : readRecords(segment)) {
+            synchronized (writeLock) {
+                if (isLive(segment, record)) {
+                    copy(segment, record);
+                }
+            }
+        }
+        synchronized (writeLock) {
+            for (Segment s : segments.values()) {
+                s.force();
+            }
+            segments.remove(segment.id);
+        }
+        // Blocks handed out before the compaction still refer to the mapping,
+        // which stays valid until it is garbage collected.
+        if (!segment.file.delete()) {
+            LOG.warn("Could not delete compacted segment [" + segment.file + "]");
+        }
+    }
+
+    /**
+     * A removal only has to be kept while an older segment may still hold
+     * the record it removed.
+     */
+    private boolean isLive(Segment segment, Record record) {
+        switch (record.type) {
+        case BLOCK:
+            Location location = getLocation(record.name, record.key);
+            return location != null && location.segment == segment && location.offset == record.offset;
+        case META_DATA:
+            FileEntry entry = files.get(record.name);
+            return entry != null && entry.location.segment == segment && entry.location.offset == record.offset;
+        case REMOVE_BLOCK:
+            return segments.firstKey() < segment.id && getLocation(record.name, record.key) == null;
+        case REMOVE_META_DATA:
+            return segments.firstKey() < segment.id && !files.containsKey(record.name);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Copies the record as is, so its checksum stays valid.
+     */
+    private void copy(Segment segment, Record record) throws IOException {
+        Segment target = getActiveSegment(record.length);
+        int offset = target.position;
+        ByteBuffer out = target.buffer.duplicate();
+        out.position(offset);
+        out.put(segment.slice(record.offset, record.length));
+        target.written(out.position());
+        Location location = new Location(target, offset, record.length, offset + record.dataOffset - record.offset,
+                record.dataLength);
+        if (record.type == BLOCK) {
+            putBlock(record.name, record.key, location);
+        } else if (record.type == META_DATA) {
+            putFileEntry(record.name, new FileEntry(files.get(record.name).metaData, location));
+        }
+    }
+
+    private void saveFileMetaData(FileMetaData metaData) throws IOException {
+        byte[] data = metaData.getData();
+        ByteBuffer payload = ByteBuffer.allocate(17 + (data == null ? 0 : data.length));
+        payload.putLong(metaData.getLastModified());
+        payload.putLong(metaData.getStoredBlockShift());
+        if (data == null) {
+            payload.put((byte) 0);
+        } else {
+            payload.put((byte) 1);
+            payload.put(data);
+        }
+        payload.flip();
+        synchronized (writeLock) {
+            Location location = append(META_DATA, metaData.getName(), metaData.getLength(), payload);
+            putFileEntry(metaData.getName(), new FileEntry(metaData, location));
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, must be called while holding
+     * the write lock.
+     */
+    private Location append(byte type, String name, long key, ByteBuffer payload) throws IOException {
+        byte[] nameBytes = Bytes.toBytes(name);
+        byte[] header = new byte[BODY_HEADER_LENGTH + nameBytes.length];
+        header[0] = type;
+        header[1] = (byte) (nameBytes.length >>> 8);
+        header[2] = (byte) nameBytes.length;
+        System.arraycopy(nameBytes, 0, header, 3, nameBytes.length);
+        Bytes.putLong(header, 3 + nameBytes.length, key);
+        int payloadLength = payload == null ? 0 : payload.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        if (payloadLength > 0) {
+            if (payload.hasArray()) {
+                crc.update(payload.array(), payload.arrayOffset() + payload.position(), payloadLength);
+            } else {
+                crc.update(toBytes(payload));
+            }
+        }
+        int length = RECORD_HEADER_LENGTH + header.length + payloadLength;
+        Segment segment = getActiveSegment(length);
+        int offset = segment.position;
+        ByteBuffer out = segment.buffer.duplicate();
+        out.position(offset);
+        out.putInt(header.length + payloadLength);
+        out.putInt((int) crc.getValue());
+        out.put(header);
+        if (payloadLength > 0) {
+            out.put(payload.duplicate());
+        }
+        segment.written(out.position());
+        return new Location(segment, offset, length, offset + RECORD_HEADER_LENGTH + header.length, payloadLength);
+    }
+
+    private Segment getActiveSegment(int length) throws IOException {
+        if (active == null || active.position + length > active.capacity) {
+            long id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+            active = Segment.create(getSegmentFile(id), id, Math.max(segmentSize, length));
+            segments.put(id, active);
+        }
+        return active;
+    }
+
+    private Location getLocation(String name, long blockId) {
+        ConcurrentMap<Long, Location> locations = blocks.get(name);
+        if (locations == null) {
+            return null;
+        }
+        return locations.get(blockId);
+    }
+
+    /**
+     * Points the block at its new location, or removes it when the location
+     * is null, and moves the live bytes of the old record to the new one.
+     */
+    private void putBlock(String name, long blockId, Location location) {
+        ConcurrentMap<Long, Location> locations = blocks.get(name);
+        if (locations == null) {
+            if (location == null) {
+                return;
+            }
+            locations = new ConcurrentHashMap<Long, Location>();
+            blocks.put(name, locations);
+        }
+        Location old = location == null ? locations.remove(blockId) : locations.put(blockId, location);
+        if (old != null) {
+            old.segment.live -= old.length;
+        }
+        if (location != null) {
+            location.segment.live += location.length;
+        } else if (locations.isEmpty()) {
+            blocks.remove(name);
+        }
+    }
+
+    private void putFileEntry(String name, FileEntry entry) {
+        FileEntry old = entry == null ? files.remove(name) : files.put(name, entry);
+        if (old != null) {
+            old.location.segment.live -= old.location.length;
+        }
+        if (entry != null) {
+            entry.location.segment.live += entry.location.length;
+        }
+    }
+
+    /**
+     * Rebuilds the locations by replaying the segments in the order they were
+     * written. A segment that ends with a torn record is cut at the last valid
+     * record, the rest of the last segment is cleared so that stale records
+     * cannot reappear behind new ones.
+     */
+    private void recover() throws IOException {
+        File[] segmentFiles = dir.listFiles();
+        if (segmentFiles == null) {
+            throw new IOException("Could not list directory [" + dir + "]");
+        }
+        for (File file : segmentFiles) {
+            String fileName = file.getName();
+            if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+                long id = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                        fileName.length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, Segment.open(file, id));
+            }
+        }
+        for (Segment segment : segments.values()) {
+            for (Record record : readRecords(segment)) {
+                Location location = new Location(segment, record.offset, record.length, record.dataOffset,
+                        record.dataLength);
+                switch (record.type) {
+                case BLOCK:
+                    putBlock(record.name, record.key, location);
+                    break;
+                case META_DATA:
+                    putFileEntry(record.name, new FileEntry(toFileMetaData(record, location), location));
+                    break;
+                case REMOVE_BLOCK:
+                    putBlock(record.name, record.key, null);
+                    break;
+                case REMOVE_META_DATA:
+                    putFileEntry(record.name, null);
+                    break;
+                }
+                segment.position = record.offset + record.length;
+            }
+        }
+        if (!segments.isEmpty()) {
+            active = segments.lastEntry().getValue();
+            active.clear();
+        }
+    }
+
+    private FileMetaData toFileMetaData(Record record, Location location) {
+        ByteBuffer payload = location.getData();
+        long lastModified = payload.getLong();
+        long blockShift = payload.getLong();
+        byte[] data = null;
+        if (payload.get() == 1) {
+            data = new byte[payload.remaining()];
+            payload.get(data);
+        }
+        return new FileMetaData(record.name, record.key, lastModified, blockShift, data);
+    }
+
+    /**
+     * Reads the records of the segment up to the first one that is torn or
+     * corrupt.
+     */
+    private List<Record> readRecords(Segment segment) {
+        List<Record> records = new ArrayList<Record>();
+        ByteBuffer buffer = segment.buffer.duplicate();
+        CRC32 crc = new CRC32();
+        byte[] body = new byte[0];
+        int position = 0;
+        while (position + RECORD_HEADER_LENGTH <= segment.capacity) {
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength == 0) {
+                break;
+            }
+            if (bodyLength < BODY_HEADER_LENGTH || bodyLength > segment.capacity - position - RECORD_HEADER_LENGTH) {
+                LOG.warn("Segment [" + segment.file + "] has an invalid record at [" + position + "]");
+                break;
+            }
+            if (body.length < bodyLength) {
+                body = new byte[bodyLength];
+            }
+            buffer.position(position + RECORD_HEADER_LENGTH);
+            buffer.get(body, 0, bodyLength);
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                LOG.warn("Segment [" + segment.file + "] has a corrupt record at [" + position + "]");
+                break;
+            }
+            int nameLength = ((body[1] & 0xFF) << 8) | (body[2] & 0xFF);
+            if (BODY_HEADER_LENGTH + nameLength > bodyLength) {
+                LOG.warn("Segment [" + segment.file + "] has an invalid record at [" + position + "]");
+                break;
+            }
+            Record record = new Record();
+            record.type = body[0];
+            record.name = Bytes.toString(Arrays.copyOfRange(body, 3, 3 + nameLength));
+            record.key = Bytes.toLong(body, 3 + nameLength);
+            record.offset = position;
+            record.length = RECORD_HEADER_LENGTH + bodyLength;
+            record.dataOffset = position + RECORD_HEADER_LENGTH + BODY_HEADER_LENGTH + nameLength;
+            record.dataLength = bodyLength - BODY_HEADER_LENGTH - nameLength;
+            records.add(record);
+            position += record.length;
+        }
+        return records;
+    }
+
+    private File getSegmentFile(long id) {
+        return new File(dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static class Segment {
+
+        final long id;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        /** The bytes of the records that are still referenced, guarded by the write lock. */
+        long live;
+        /** The end of the last record, guarded by the write lock. */
+        int position;
+        boolean dirty;
+
+        static Segment create(File file, long id, int capacity) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(capacity);
+                return new Segment(file, id, raf.getChannel().map(MapMode.READ_WRITE, 0, capacity));
+            } finally {
+                raf.close();
+            }
+        }
+
+        static Segment open(File file, long id) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                return new Segment(file, id, channel.map(MapMode.READ_WRITE, 0, channel.size()));
+            } finally {
+                raf.close();
+            }
+        }
+
+        Segment(File file, long id, MappedByteBuffer buffer) {
+            this.file = file;
+            this.id = id;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+        }
+
+        ByteBuffer slice(int offset, int length) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(offset);
+            slice.limit(offset + length);
+            return slice.slice();
+        }
+
+        void written(int position) {
+            this.position = position;
+            this.dirty = true;
+        }
+
+        void force() {
+            if (dirty) {
+                buffer.force();
+                dirty = false;
+            }
+        }
+
+        double getLiveRatio() {
+            if (position == 0) {
+                return 0;
+            }
+            return (double) live / position;
+        }
+
+        /**
+         * Zeroes everything after the last record, which is only left over by
+         * a record that was torn by a crash.
+         */
+        void clear() {
+            ByteBuffer rest = buffer.duplicate();
+            rest.position(position);
+            boolean clean = true;
+            while (rest.hasRemaining() && clean) {
+                clean = rest.get() == 0;
+            }
+            if (!clean) {
+                byte[] zeros = new byte[4096];
+                rest.position(position);
+                while (rest.hasRemaining()) {
+                    rest.put(zeros, 0, Math.min(zeros.length, rest.remaining()));
+                }
+                buffer.force();
+            }
+        }
+    }
+
+    private static class Location {
+
+        final Segment segment;
+        final int offset;
+        final int length;
+        final int dataOffset;
+        final int dataLength;
+
+        Location(Segment segment, int offset, int length, int dataOffset, int dataLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        ByteBuffer getData() {
+            return segment.slice(dataOffset, dataLength);
+        }
+    }
+
+    private static class FileEntry {
+
+        final FileMetaData metaData;
+        final Location location;
+
+        FileEntry(FileMetaData metaData, Location location) {
+            this.metaData = metaData;
+            this.location = location;
+        }
+    }
+
+    private static class Record {
+        byte type;
+        String name;
+        long key;
+        int offset;
+        int length;
+        int dataOffset;
+        int dataLength;
+    }
+}
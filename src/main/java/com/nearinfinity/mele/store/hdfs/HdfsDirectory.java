@@ -32,15 +32,29 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 
+import com.nearinfinity.mele.util.IOContext;
+import com.nearinfinity.mele.util.IOPriority;
+import com.nearinfinity.mele.util.IOScheduler;
+
 /** @author Aaron McCurry (amccurry@nearinfinity.com) */
 public class HdfsDirectory extends Directory {
 
     private Path hdfsDirPath;
     private FileSystem fileSystem;
+    private IOScheduler scheduler;
 
     public HdfsDirectory(Path hdfsDirPath, FileSystem fileSystem) {
+        this(hdfsDirPath, fileSystem, null);
+    }
+
+    /**
+     * @param scheduler schedules the reads and the bulk writes by priority,
+     *            nothing is scheduled when it is null.
+     */
+    public HdfsDirectory(Path hdfsDirPath, FileSystem fileSystem, IOScheduler scheduler) {
         this.hdfsDirPath = hdfsDirPath;
         this.fileSystem = fileSystem;
+        this.scheduler = scheduler;
         try {
             if (!fileSystem.exists(hdfsDirPath)) {
                 fileSystem.mkdirs(hdfsDirPath);
@@ -95,7 +109,12 @@ public class HdfsDirectory extends Directory {
 
             @Override
             public void writeBytes(byte[] b, int off, int len) throws IOException {
-                outputStream.write(b, off, len);
+                IOPriority priority = acquire();
+                try {
+                    outputStream.write(b, off, len);
+                } finally {
+                    release(priority, len);
+                }
                 length += len;
             }
         };
@@ -125,11 +144,18 @@ public class HdfsDirectory extends Directory {
 
             @Override
             protected void readInternal(byte[] b, int offset, int length) throws IOException {
-                synchronized (inputStream) {
-                    long position = getFilePointer();
-                    inputStream.seek(position);
-                    inputStream.read(b, offset, length);
+                long start = System.nanoTime();
+                IOPriority priority = acquire();
+                try {
+                    synchronized (inputStream) {
+                        long position = getFilePointer();
+                        inputStream.seek(position);
+                        inputStream.read(b, offset, length);
+                    }
+                } finally {
+                    release(priority, length);
                 }
+                IOContext.recordFetch(1, length, System.nanoTime() - start);
             }
         };
     }
@@ -173,4 +199,18 @@ public class HdfsDirectory extends Directory {
         // do nothing
     }
 
+    private IOPriority acquire() throws IOException {
+        if (scheduler == null) {
+            return null;
+        }
+        return scheduler.acquire();
+    }
+
+    private void release(IOPriority priority, long bytes) throws IOException {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.release(priority);
+        scheduler.throttle(priority, bytes);
+    }
 }
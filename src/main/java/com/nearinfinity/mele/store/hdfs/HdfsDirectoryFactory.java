@@ -9,19 +9,30 @@ import org.apache.lucene.store.FSDirectory;
 
 import com.nearinfinity.mele.MeleConfiguration;
 import com.nearinfinity.mele.MeleDirectoryFactory;
+import com.nearinfinity.mele.util.IOScheduler;
 
 public class HdfsDirectoryFactory implements MeleDirectoryFactory {
     
     private String baseHdfsPath;
     private FileSystem hdfsFileSystem;
+    private IOScheduler scheduler;
 
     public HdfsDirectoryFactory(MeleConfiguration configuration, FileSystem hdfsFileSystem) throws IOException {
         this.hdfsFileSystem = hdfsFileSystem;
         this.baseHdfsPath = configuration.getBaseHdfsPath();
+        this.scheduler = new IOScheduler(configuration.getHdfsIOPermits(), configuration.getBackgroundIOShare(),
+                configuration.getBackgroundIOBandwidth());
     }
 
     public Directory getDirectory(FSDirectory localDir, String directoryCluster, String directoryName) throws IOException {
         Path hdfsDirPath = new Path(baseHdfsPath, directoryCluster);
-        return new HdfsDirectory(new Path(hdfsDirPath, directoryName), hdfsFileSystem);
+        return new HdfsDirectory(new Path(hdfsDirPath, directoryName), hdfsFileSystem, scheduler);
+    }
+
+    /**
+     * The file system is left open, it belongs to the caller.
+     */
+    public void close() throws IOException {
+
     }
 }
@@ -13,5 +13,10 @@ public class NoRepMeleDirectoryFactory implements MeleDirectoryFactory {
     public Directory getDirectory(FSDirectory localDir, String directoryCluster, String directoryName) throws IOException {
         return localDir;
     }
+
+    @Override
+    public void close() throws IOException {
+
+    }
     
 }
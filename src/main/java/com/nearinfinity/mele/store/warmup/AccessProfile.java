@@ -0,0 +1,309 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+
+/**
+ * Counts how often every region of the files of a directory is read, a
+ * region is a fixed size range of a file. The profile is saved to a small
+ * file next to the index and is used to read the hottest regions again when
+ * the directory is opened, before the first queries arrive.
+ * <p>
+ * Every save halves the heat of all regions so that the profile follows the
+ * current workload, regions that cooled down to zero and the coldest regions
+ * beyond the maximum number of regions are dropped.
+ */
+public class AccessProfile {
+
+    public static final int DEFAULT_REGION_SHIFT = 16;
+    public static final int DEFAULT_MAX_REGIONS = 16384;
+
+    private static final int VERSION = 1;
+
+    private final ConcurrentMap<Region, AtomicInteger> heat = new ConcurrentHashMap<Region, AtomicInteger>();
+    private final int regionShift;
+    private final int maxRegions;
+
+    public AccessProfile() {
+        this(DEFAULT_REGION_SHIFT, DEFAULT_MAX_REGIONS);
+    }
+
+    /**
+     * @param regionShift the size of a region as a power of two.
+     * @param maxRegions the maximum number of regions kept by a save.
+     */
+    public AccessProfile(int regionShift, int maxRegions) {
+        this.regionShift = regionShift;
+        this.maxRegions = maxRegions;
+    }
+
+    public int getRegionShift() {
+        return regionShift;
+    }
+
+    /**
+     * @return the region that contains the position.
+     */
+    public long getRegion(long position) {
+        return position >>> regionShift;
+    }
+
+    /**
+     * Records a read of the region of the file.
+     */
+    public void record(String fileName, long region) {
+        Region key = new Region(fileName, region);
+        AtomicInteger count = heat.get(key);
+        if (count == null) {
+            AtomicInteger existing = heat.putIfAbsent(key, count = new AtomicInteger());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Forgets all regions of the file, called when the file is deleted or
+     * written again.
+     */
+    public void removeFile(String fileName) {
+        for (Region region : heat.keySet()) {
+            if (region.fileName.equals(fileName)) {
+                heat.remove(region);
+            }
+        }
+    }
+
+    /**
+     * @return the heat of the region of the file.
+     */
+    public int getHeat(String fileName, long region) {
+        AtomicInteger count = heat.get(new Region(fileName, region));
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of regions in the profile.
+     */
+    public int size() {
+        return heat.size();
+    }
+
+    /**
+     * @return the regions ordered by heat, hottest first.
+     */
+    public List<Region> getHotRegions() {
+        final Map<Region, Integer> snapshot = new HashMap<Region, Integer>();
+        for (Map.Entry<Region, AtomicInteger> entry : heat.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        List<Region> regions = new ArrayList<Region>(snapshot.keySet());
+        Collections.sort(regions, new Comparator<Region>() {
+            @Override
+            public int compare(Region o1, Region o2) {
+                return snapshot.get(o2).compareTo(snapshot.get(o1));
+            }
+        });
+        return regions;
+    }
+
+    /**
+     * Writes the hottest regions to the file and halves the heat of every
+     * region afterwards. The file is replaced atomically.
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        List<Region> regions = getHotRegions();
+        if (regions.size() > maxRegions) {
+            for (Region region : regions.subList(maxRegions, regions.size())) {
+                heat.remove(region);
+            }
+            regions = regions.subList(0, maxRegions);
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            output.writeInt(VERSION);
+            output.writeInt(regionShift);
+            output.writeInt(regions.size());
+            for (Region region : regions) {
+                output.writeUTF(region.fileName);
+                output.writeLong(region.region);
+                output.writeInt(getHeat(region.fileName, region.region));
+            }
+        } finally {
+            output.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename [" + tmp + "] to [" + file + "]");
+            }
+        }
+        decay();
+    }
+
+    /**
+     * Loads a saved profile, an empty profile is returned when the file does
+     * not exist. A profile saved with a different region size is loaded with
+     * the region size it was saved with.
+     * @throws IOException
+     */
+    public static AccessProfile load(File file, int maxRegions) throws IOException {
+        if (!file.exists()) {
+            return new AccessProfile(DEFAULT_REGION_SHIFT, maxRegions);
+        }
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown profile version [" + version + "] in [" + file + "]");
+            }
+            AccessProfile profile = new AccessProfile(input.readInt(), maxRegions);
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                Region region = new Region(input.readUTF(), input.readLong());
+                profile.heat.put(region, new AtomicInteger(input.readInt()));
+            }
+            return profile;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads the hottest regions of the files that still exist in the
+     * directory so that they end up in the caches below it. Regions of files
+     * that changed length are read as long as they are within the file.
+     * @return the number of bytes read.
+     * @throws IOException
+     */
+    public long warmUp(Directory directory) throws IOException {
+        Map<String, IndexInput> inputs = new HashMap<String, IndexInput>();
+        byte[] buffer = new byte[1 << regionShift];
+        long bytes = 0;
+        try {
+            for (Region region : getHotRegions()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                IndexInput input = inputs.get(region.fileName);
+                if (input == null) {
+                    if (inputs.containsKey(region.fileName) || !directory.fileExists(region.fileName)) {
+                        inputs.put(region.fileName, null);
+                        continue;
+                    }
+                    input = directory.openInput(region.fileName);
+                    inputs.put(region.fileName, input);
+                }
+                long position = region.region << regionShift;
+                if (position >= input.length()) {
+                    continue;
+                }
+                int length = (int) Math.min(buffer.length, input.length() - position);
+                input.seek(position);
+                input.readBytes(buffer, 0, length);
+                bytes += length;
+            }
+        } finally {
+            for (IndexInput input : inputs.values()) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private void decay() {
+        for (Map.Entry<Region, AtomicInteger> entry : heat.entrySet()) {
+            AtomicInteger count = entry.getValue();
+            int current;
+            do {
+                current = count.get();
+            } while (!count.compareAndSet(current, current >>> 1));
+            if (current >>> 1 == 0) {
+                heat.remove(entry.getKey(), count);
+            }
+        }
+    }
+
+    /**
+     * A region of a file.
+     */
+    public static final class Region {
+
+        private final String fileName;
+        private final long region;
+
+        Region(String fileName, long region) {
+            this.fileName = fileName;
+            this.region = region;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getRegion() {
+            return region;
+        }
+
+        @Override
+        public int hashCode() {
+            return fileName.hashCode() * 31 + (int) (region ^ (region >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Region)) {
+                return false;
+            }
+            Region other = (Region) obj;
+            return region == other.region && fileName.equals(other.fileName);
+        }
+
+        @Override
+        public String toString() {
+            return fileName + "@" + region;
+        }
+    }
+}
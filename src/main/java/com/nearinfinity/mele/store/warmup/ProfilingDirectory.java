@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.warmup;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+
+/**
+ * Records the regions read through the inputs of any directory in an
+ * {@link AccessProfile}. Background reads such as merges and replication are
+ * not recorded.
+ */
+public class ProfilingDirectory extends Directory {
+
+    private final Directory directory;
+    private final AccessProfile profile;
+
+    /**
+     * @param directory the wrapped directory.
+     * @param profile the profile the reads are recorded in.
+     */
+    public ProfilingDirectory(Directory directory, AccessProfile profile) {
+        this.directory = directory;
+        this.profile = profile;
+    }
+
+    public AccessProfile getProfile() {
+        return profile;
+    }
+
+    public void clearLock(String name) throws IOException {
+        directory.clearLock(name);
+    }
+
+    public void close() throws IOException {
+        directory.close();
+    }
+
+    public IndexOutput createOutput(String name) throws IOException {
+        profile.removeFile(name);
+        return directory.createOutput(name);
+    }
+
+    public void deleteFile(String name) throws IOException {
+        profile.removeFile(name);
+        directory.deleteFile(name);
+    }
+
+    public boolean fileExists(String name) throws IOException {
+        return directory.fileExists(name);
+    }
+
+    public long fileLength(String name) throws IOException {
+        return directory.fileLength(name);
+    }
+
+    public long fileModified(String name) throws IOException {
+        return directory.fileModified(name);
+    }
+
+    public LockFactory getLockFactory() {
+        return directory.getLockFactory();
+    }
+
+    public String getLockID() {
+        return directory.getLockID();
+    }
+
+    public String[] listAll() throws IOException {
+        return directory.listAll();
+    }
+
+    public Lock makeLock(String name) {
+        return directory.makeLock(name);
+    }
+
+    public IndexInput openInput(String name, int bufferSize) throws IOException {
+        return new ProfilingIndexInput(directory.openInput(name, bufferSize), profile, name);
+    }
+
+    public IndexInput openInput(String name) throws IOException {
+        return new ProfilingIndexInput(directory.openInput(name), profile, name);
+    }
+
+    public void setLockFactory(LockFactory lockFactory) {
+        directory.setLockFactory(lockFactory);
+    }
+
+    public void sync(String name) throws IOException {
+        directory.sync(name);
+    }
+
+    public String toString() {
+        return "profiling:" + directory.toString();
+    }
+
+    public void touchFile(String name) throws IOException {
+        directory.touchFile(name);
+    }
+}
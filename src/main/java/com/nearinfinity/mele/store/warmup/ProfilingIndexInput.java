@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.warmup;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.IndexInput;
+
+import com.nearinfinity.mele.util.IOPriority;
+
+/**
+ * Delegates to the input of the wrapped directory and records a read of a
+ * region whenever the input moves into a region other than the last one it
+ * read from.
+ */
+class ProfilingIndexInput extends IndexInput {
+
+    private IndexInput input;
+    private final AccessProfile profile;
+    private final String name;
+    private long lastRegion = -1;
+
+    ProfilingIndexInput(IndexInput input, AccessProfile profile, String name) {
+        this.input = input;
+        this.profile = profile;
+        this.name = name;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        record(input.getFilePointer());
+        return input.readByte();
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+        long position = input.getFilePointer();
+        record(position);
+        if (len > 0) {
+            record(position + len - 1);
+        }
+        input.readBytes(b, offset, len);
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len, boolean useBuffer) throws IOException {
+        long position = input.getFilePointer();
+        record(position);
+        if (len > 0) {
+            record(position + len - 1);
+        }
+        input.readBytes(b, offset, len, useBuffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    @Override
+    public long getFilePointer() {
+        return input.getFilePointer();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        input.seek(pos);
+    }
+
+    @Override
+    public long length() {
+        return input.length();
+    }
+
+    @Override
+    public Object clone() {
+        ProfilingIndexInput clone = (ProfilingIndexInput) super.clone();
+        clone.input = (IndexInput) input.clone();
+        return clone;
+    }
+
+    private void record(long position) {
+        long region = profile.getRegion(position);
+        if (region != lastRegion) {
+            lastRegion = region;
+            if (!IOPriority.isBackground()) {
+                profile.record(name, region);
+            }
+        }
+    }
+}
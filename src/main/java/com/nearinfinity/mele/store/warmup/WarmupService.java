@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.store.warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.store.Directory;
+
+import com.nearinfinity.mele.util.NamedThreadFactory;
+
+/**
+ * Keeps an {@link AccessProfile} for every opened directory, saves the
+ * profiles periodically and reads the hottest regions of a directory in the
+ * background when it is opened, one directory after the other.
+ */
+public class WarmupService {
+
+    private static final Log LOG = LogFactory.getLog(WarmupService.class);
+
+    public static final String PROFILE_FILE_NAME = "mele.access.profile";
+
+    private final Map<File, AccessProfile> profiles = new ConcurrentHashMap<File, AccessProfile>();
+    private final int maxRegions;
+    private final ExecutorService warmupExecutor;
+    private final ScheduledExecutorService saveExecutor;
+
+    /**
+     * @param saveInterval the time between two saves of the profiles in ms.
+     * @param maxRegions the maximum number of regions kept per profile.
+     */
+    public WarmupService(long saveInterval, int maxRegions) {
+        this.maxRegions = maxRegions;
+        this.warmupExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("mele-warmup"));
+        this.saveExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("mele-profile"));
+        saveExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                saveProfiles();
+            }
+        }, saveInterval, saveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the profile saved in the local path of the directory, starts to
+     * warm up the directory with it and returns the directory wrapped so that
+     * its reads are recorded.
+     * @param directory the directory.
+     * @param localPath the local path the profile is kept in.
+     * @throws IOException
+     */
+    public Directory open(final Directory directory, File localPath) throws IOException {
+        File file = new File(localPath, PROFILE_FILE_NAME);
+        AccessProfile profile;
+        try {
+            profile = AccessProfile.load(file, maxRegions);
+        } catch (IOException e) {
+            LOG.error("Could not load access profile [" + file + "], starting with an empty one", e);
+            profile = new AccessProfile(AccessProfile.DEFAULT_REGION_SHIFT, maxRegions);
+        }
+        profiles.put(file, profile);
+        if (profile.size() > 0) {
+            final AccessProfile warmupProfile = profile;
+            warmupExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long s = System.currentTimeMillis();
+                    try {
+                        long bytes = warmupProfile.warmUp(directory);
+                        LOG.info("Warmed up [" + bytes + "] bytes of " + directory + " in ["
+                                + (System.currentTimeMillis() - s) + " ms]");
+                    } catch (IOException e) {
+                        LOG.error("Could not warm up " + directory, e);
+                    }
+                }
+            });
+        }
+        return new ProfilingDirectory(directory, profile);
+    }
+
+    /**
+     * Saves all profiles.
+     */
+    public void saveProfiles() {
+        for (Map.Entry<File, AccessProfile> entry : profiles.entrySet()) {
+            File file = entry.getKey();
+            if (!file.getParentFile().exists()) {
+                profiles.remove(file);
+                continue;
+            }
+            try {
+                entry.getValue().save(file);
+            } catch (IOException e) {
+                LOG.error("Could not save access profile [" + file + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Saves all profiles and stops the background threads.
+     */
+    public void close() {
+        saveExecutor.shutdownNow();
+        warmupExecutor.shutdownNow();
+        saveProfiles();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.util;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy.OneMerge;
+
+/**
+ * Runs every merge with {@link IOPriority#BACKGROUND}, so that the segments a
+ * merge reads do not push the blocks that serve searches out of the block
+ * cache. Set it on the index writer of a Mele directory with
+ * {@link org.apache.lucene.index.IndexWriter#setMergeScheduler}.
+ */
+public class BackgroundMergeScheduler extends ConcurrentMergeScheduler {
+
+    @Override
+    protected void doMerge(OneMerge merge) throws IOException {
+        IOPriority previous = IOPriority.set(IOPriority.BACKGROUND);
+        try {
+            super.doMerge(merge);
+        } finally {
+            IOPriority.set(previous);
+        }
+    }
+}
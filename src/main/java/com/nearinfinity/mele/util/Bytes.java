@@ -19,7 +19,6 @@
 package com.nearinfinity.mele.util;
 
 import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
 
 /** @author Aaron McCurry (amccurry@nearinfinity.com) */
 public class Bytes {
@@ -44,10 +43,27 @@ public class Bytes {
     }
 
     public static byte[] toBytes(long l) {
-        return ByteBuffer.allocate(8).putLong(l).array();
+        byte[] bs = new byte[8];
+        putLong(bs, 0, l);
+        return bs;
     }
 
     public static long toLong(byte[] bs) {
-        return ByteBuffer.wrap(bs).getLong();
+        return toLong(bs, 0);
+    }
+
+    public static void putLong(byte[] bs, int offset, long l) {
+        for (int i = offset + 7; i >= offset; i--) {
+            bs[i] = (byte) l;
+            l >>>= 8;
+        }
+    }
+
+    public static long toLong(byte[] bs, int offset) {
+        long l = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            l = (l << 8) | (bs[i] & 0xFF);
+        }
+        return l;
     }
 }
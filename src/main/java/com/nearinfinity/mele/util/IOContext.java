@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for the IO done on behalf of a unit of work such as a search. A
+ * context is opened on the current thread, the directories record their cache
+ * hits and misses, the blocks and bytes they fetched and the time the thread
+ * was blocked on them into every context open on the thread, contexts can be
+ * nested:
+ * 
+ * <pre>
+ * IOContext context = IOContext.open();
+ * try {
+ *     searcher.search(query, 10);
+ * } finally {
+ *     LOG.info(context.close());
+ * }
+ * </pre>
+ * 
+ * Nothing is recorded on threads without a context. Work handed to other
+ * threads, such as read ahead, is accounted for when the context is carried
+ * over with {@link #set(IOContext)}, only the time spent on the thread that
+ * opened the context counts as blocked.
+ */
+public class IOContext {
+
+    private static final ThreadLocal<IOContext> CURRENT = new ThreadLocal<IOContext>();
+
+    private final IOContext parent;
+    private final Thread owner;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong fetchedBlocks = new AtomicLong();
+    private final AtomicLong fetchedBytes = new AtomicLong();
+    private final AtomicLong fetchNanos = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong copyNanos = new AtomicLong();
+
+    private IOContext(IOContext parent, Thread owner) {
+        this.parent = parent;
+        this.owner = owner;
+    }
+
+    /**
+     * Opens a context on the current thread, the context that was open
+     * before is restored when it is closed.
+     */
+    public static IOContext open() {
+        IOContext context = new IOContext(CURRENT.get(), Thread.currentThread());
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * @return the innermost context of the current thread or null.
+     */
+    public static IOContext get() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes the context the context of the current thread.
+     * @param context the context or null.
+     * @return the previous context.
+     */
+    public static IOContext set(IOContext context) {
+        IOContext previous = CURRENT.get();
+        CURRENT.set(context);
+        return previous;
+    }
+
+    /**
+     * Records a block that was served from a cache.
+     */
+    public static void recordCacheHit() {
+        for (IOContext context = CURRENT.get(); context != null; context = context.parent) {
+            context.cacheHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records blocks that had to be fetched because they were not cached.
+     */
+    public static void recordCacheMisses(int blocks) {
+        for (IOContext context = CURRENT.get(); context != null; context = context.parent) {
+            context.cacheMisses.addAndGet(blocks);
+        }
+    }
+
+    /**
+     * Records a read from a remote store.
+     * @param blocks the number of blocks read.
+     * @param bytes the number of bytes read.
+     * @param nanos the time the read took.
+     */
+    public static void recordFetch(int blocks, long bytes, long nanos) {
+        Thread thread = Thread.currentThread();
+        for (IOContext context = CURRENT.get(); context != null; context = context.parent) {
+            context.fetchedBlocks.addAndGet(blocks);
+            context.fetchedBytes.addAndGet(bytes);
+            context.fetchNanos.addAndGet(nanos);
+            if (context.owner == thread) {
+                context.blockedNanos.addAndGet(nanos);
+            }
+        }
+    }
+
+    /**
+     * Records the time the current thread waited for a read done by another
+     * thread.
+     */
+    public static void recordWait(long nanos) {
+        Thread thread = Thread.currentThread();
+        for (IOContext context = CURRENT.get(); context != null; context = context.parent) {
+            if (context.owner == thread) {
+                context.blockedNanos.addAndGet(nanos);
+            }
+        }
+    }
+
+    /**
+     * Records a file copied between directories by replication.
+     */
+    public static void recordCopy(long bytes, long nanos) {
+        for (IOContext context = CURRENT.get(); context != null; context = context.parent) {
+            context.copiedBytes.addAndGet(bytes);
+            context.copyNanos.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * Closes the context and restores the context that was open before it
+     * on the current thread.
+     * @return this context with its final totals.
+     */
+    public IOContext close() {
+        if (CURRENT.get() == this) {
+            CURRENT.set(parent);
+        }
+        return this;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getFetchedBlocks() {
+        return fetchedBlocks.get();
+    }
+
+    public long getFetchedBytes() {
+        return fetchedBytes.get();
+    }
+
+    /**
+     * @return the time spent in remote reads on any thread in ns.
+     */
+    public long getFetchNanos() {
+        return fetchNanos.get();
+    }
+
+    /**
+     * @return the time the thread that opened the context was blocked on
+     *         reads in ns.
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.get();
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    public long getCopyNanos() {
+        return copyNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "IOContext [cacheHits=" + cacheHits + ", cacheMisses=" + cacheMisses + ", fetchedBlocks="
+                + fetchedBlocks + ", fetchedBytes=" + fetchedBytes + ", fetchMs=" + fetchNanos.get() / 1000000
+                + ", blockedMs=" + blockedNanos.get() / 1000000 + ", copiedBytes=" + copiedBytes + ", copyMs="
+                + copyNanos.get() / 1000000 + "]";
+    }
+}
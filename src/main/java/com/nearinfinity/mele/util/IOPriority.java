@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nearinfinity.mele.util;
+
+/**
+ * The priority of the IO done by the current thread. Searches run as
+ * {@link #INTERACTIVE}, merges and replication copies mark their thread as
+ * {@link #BACKGROUND} so that the blocks they stream are not admitted into the
+ * block cache:
+ * 
+ * <pre>
+ * IOPriority previous = IOPriority.set(IOPriority.BACKGROUND);
+ * try {
+ *     ...
+ * } finally {
+ *     IOPriority.set(previous);
+ * }
+ * </pre>
+ */
+public enum IOPriority {
+
+    INTERACTIVE, BACKGROUND;
+
+    private static final ThreadLocal<IOPriority> PRIORITY = new ThreadLocal<IOPriority>() {
+        @Override
+        protected IOPriority initialValue() {
+            return INTERACTIVE;
+        }
+    };
+
+    /**
+     * @return the priority of the current thread.
+     */
+    public static IOPriority get() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Sets the priority of the current thread.
+     * @param priority the new priority.
+     * @return the previous priority.
+     */
+    public static IOPriority set(IOPriority priority) {
+        IOPriority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        return previous;
+    }
+
+    /**
+     * @return true if the current thread does background IO.
+     */
+    public static boolean isBackground() {
+        return PRIORITY.get() == BACKGROUND;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nearinfinity.mele.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Hands out a fixed number of IO permits, usually one per connection to a
+ * store, by the {@link IOPriority} of the calling thread. Interactive callers
+ * are always served before waiting background callers, background callers
+ * never hold more than their share of the permits so that some are always
+ * left for searches, and the bytes they move can be limited to a bandwidth:
+ * 
+ * <pre>
+ * IOPriority priority = scheduler.acquire();
+ * try {
+ *     ...
+ * } finally {
+ *     scheduler.release(priority);
+ * }
+ * scheduler.throttle(priority, bytes);
+ * </pre>
+ */
+public class IOScheduler {
+
+    public static final double DEFAULT_BACKGROUND_SHARE = 0.25;
+
+    private final int permits;
+    private final int backgroundPermits;
+    private final long backgroundBytesPerSecond;
+    private final Object bandwidthLock = new Object();
+    private int inUse;
+    private int backgroundInUse;
+    private int interactiveWaiting;
+    private long backgroundAvailableAt;
+
+    /**
+     * @param permits the number of permits.
+     */
+    public IOScheduler(int permits) {
+        this(permits, DEFAULT_BACKGROUND_SHARE, 0);
+    }
+
+    /**
+     * @param permits the number of permits.
+     * @param backgroundShare the share of the permits background callers can
+     *            hold at once, at least one permit.
+     * @param backgroundBytesPerSecond the bandwidth of background callers, 0
+     *            for no limit.
+     */
+    public IOScheduler(int permits, double backgroundShare, long backgroundBytesPerSecond) {
+        this.permits = permits;
+        this.backgroundPermits = Math.max(1, (int) (permits * backgroundShare));
+        this.backgroundBytesPerSecond = backgroundBytesPerSecond;
+        this.backgroundAvailableAt = System.nanoTime();
+    }
+
+    /**
+     * Waits for a permit for the priority of the current thread.
+     * @return the priority the permit was granted for.
+     * @throws IOException if the thread is interrupted while waiting.
+     */
+    public synchronized IOPriority acquire() throws IOException {
+        IOPriority priority = IOPriority.get();
+        try {
+            if (priority == IOPriority.BACKGROUND) {
+                while (inUse >= permits || backgroundInUse >= backgroundPermits || interactiveWaiting > 0) {
+                    wait();
+                }
+                backgroundInUse++;
+            } else {
+                interactiveWaiting++;
+                try {
+                    while (inUse >= permits) {
+                        wait();
+                    }
+                } finally {
+                    interactiveWaiting--;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        inUse++;
+        return priority;
+    }
+
+    /**
+     * Returns a permit.
+     * @param priority the priority returned by {@link #acquire()}.
+     */
+    public synchronized void release(IOPriority priority) {
+        inUse--;
+        if (priority == IOPriority.BACKGROUND) {
+            backgroundInUse--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Delays background callers so that the bytes they moved stay within the
+     * background bandwidth, interactive callers are never delayed.
+     * @param priority the priority returned by {@link #acquire()}.
+     * @param bytes the number of bytes moved.
+     * @throws IOException if the thread is interrupted while waiting.
+     */
+    public void throttle(IOPriority priority, long bytes) throws IOException {
+        if (priority != IOPriority.BACKGROUND || backgroundBytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+        long delay;
+        synchronized (bandwidthLock) {
+            long now = System.nanoTime();
+            if (backgroundAvailableAt - now < 0) {
+                backgroundAvailableAt = now;
+            }
+            delay = backgroundAvailableAt - now;
+            backgroundAvailableAt += bytes * 1000000000L / backgroundBytesPerSecond;
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+    }
+
+    public synchronized int getPermitsInUse() {
+        return inUse;
+    }
+
+    public synchronized int getBackgroundPermitsInUse() {
+        return backgroundInUse;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IOScheduler [permits=" + permits + ", backgroundPermits=" + backgroundPermits + ", inUse=" + inUse
+                + ", backgroundInUse=" + backgroundInUse + ", interactiveWaiting=" + interactiveWaiting + "]";
+    }
+}
@@ -0,0 +1,119 @@
+package com.nearinfinity.mele.store.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+import com.nearinfinity.mele.store.db.cache.BlockCache;
+import com.nearinfinity.mele.store.db.codec.CompressedMeleDirectoryStore;
+import com.nearinfinity.mele.store.db.codec.DeflateBlockCodec;
+import com.nearinfinity.mele.util.Bytes;
+
+/**
+ * Measures the bytes allocated by the calling thread per operation on the
+ * block read and write paths of an in memory directory. Reads are served
+ * from the block cache, writes go through a compressing store that shares
+ * the buffer pool of the directory. Every operation gets warm up iterations
+ * so the numbers do not include class loading or the first fill of the
+ * pools, and every result is consumed so the work can not be optimized away.
+ * <p>
+ * Needs a JVM that reports allocated bytes per thread (HotSpot).
+ * <p>
+ * Usage: BlockAllocationBenchmark
+ */
+public class BlockAllocationBenchmark {
+
+    private static final int BLOCK_LENGTH = 16 * 1024;
+    private static final int FILE_LENGTH = 64 * BLOCK_LENGTH;
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        final Random random = new Random(1);
+        final byte[] data = new byte[FILE_LENGTH];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) random.nextInt(16);
+        }
+        BlockBufferPool bufferPool = new BlockBufferPool(16);
+        DeflateBlockCodec codec = new DeflateBlockCodec();
+        MeleDirectoryStore store = new CompressedMeleDirectoryStore(new MemoryMeleDirectoryStore(), codec, bufferPool);
+        final MeleDirectory directory = new MeleDirectory(store, BLOCK_SIZE._16K,
+                new BlockCache(4 * FILE_LENGTH, 0, 4), "cluster", "dir");
+        directory.setBufferPool(bufferPool);
+        write(directory, "file", data);
+        final IndexInput input = directory.openInput("file");
+        final byte[] buffer = new byte[1024];
+
+        System.out.println("operation\tbytes/op");
+        run("cached read 1k", new Operation() {
+            @Override
+            public long run(int i) throws Exception {
+                input.seek((long) random.nextInt(FILE_LENGTH / buffer.length) * buffer.length);
+                input.readBytes(buffer, 0, buffer.length);
+                return buffer[i & (buffer.length - 1)];
+            }
+        });
+        run("cached read byte", new Operation() {
+            @Override
+            public long run(int i) throws Exception {
+                input.seek(random.nextInt(FILE_LENGTH));
+                return input.readByte();
+            }
+        });
+        run("block id encode", new Operation() {
+            @Override
+            public long run(int i) throws Exception {
+                Bytes.putLong(buffer, 0, i);
+                return Bytes.toLong(buffer, 0);
+            }
+        });
+        run("file write " + FILE_LENGTH / 1024 + "k", new Operation() {
+            @Override
+            public long run(int i) throws Exception {
+                write(directory, "write", data);
+                return directory.fileLength("write");
+            }
+        }, WARMUP_ITERATIONS / 100, ITERATIONS / 100);
+        System.out.println("checksum\t" + sink);
+
+        input.close();
+        directory.close();
+        codec.close();
+    }
+
+    private static void write(MeleDirectory directory, String name, byte[] data) throws Exception {
+        IndexOutput output = directory.createOutput(name);
+        output.writeBytes(data, data.length);
+        output.close();
+    }
+
+    private static void run(String name, Operation operation) throws Exception {
+        run(name, operation, WARMUP_ITERATIONS, ITERATIONS);
+    }
+
+    private static void run(String name, Operation operation, int warmupIterations, int iterations)
+            throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            sink += operation.run(i);
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = THREADS.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run(i);
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - start;
+        System.out.println(name + "\t" + allocated / iterations);
+    }
+
+    private interface Operation {
+        long run(int i) throws Exception;
+    }
+}
@@ -0,0 +1,32 @@
+package com.nearinfinity.mele.store.db;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+
+import org.junit.Test;
+
+public class BlockBufferPoolTest {
+
+    @Test
+    public void testBuffersAreRoundedUpAndReused() {
+        BlockBufferPool pool = new BlockBufferPool(1);
+        byte[] buffer = pool.acquire(1000);
+        assertEquals(1024, buffer.length);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(1024));
+        assertNotSame(buffer, pool.acquire(1024));
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        BlockBufferPool pool = new BlockBufferPool(1);
+        byte[] first = new byte[16];
+        byte[] second = new byte[16];
+        pool.release(first);
+        pool.release(second);
+        pool.release(new byte[10]);
+        assertSame(first, pool.acquire(16));
+        assertNotSame(second, pool.acquire(16));
+    }
+}
@@ -0,0 +1,508 @@
+package com.nearinfinity.mele.store.db;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.Version;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+import com.nearinfinity.mele.store.db.cache.BlockCache;
+import com.nearinfinity.mele.util.IOContext;
+import com.nearinfinity.mele.util.IOPriority;
+
+public class MeleDirectoryTest {
+
+    private static final int _1000 = 1000;
+
+    private MemoryMeleDirectoryStore store;
+    private MeleDirectory directory;
+
+    @Before
+    public void setUp() {
+        store = new MemoryMeleDirectoryStore();
+        directory = new MeleDirectory(store, BLOCK_SIZE._1K, new BlockCache(1024 * 1024, 0, 4), "cluster", "dir");
+    }
+
+    @Test
+    public void testLuceneIndex() throws Exception {
+        populate(directory);
+        assertEquals(_1000, IndexReader.open(directory).numDocs());
+    }
+
+    @Test
+    public void testLuceneIndexWithDirectBuffers() throws Exception {
+        directory.setDirectBuffers(true);
+        populate(directory);
+        assertEquals(_1000, IndexReader.open(directory).numDocs());
+    }
+
+    @Test
+    public void testLuceneIndexWithWriteBehind() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            directory.setWriteBehindExecutor(executor);
+            directory.setMaxPendingBlocksPerOutput(2);
+            directory.setMaxPendingBlocksPerDirectory(4);
+            populate(directory);
+            assertEquals(_1000, IndexReader.open(directory).numDocs());
+
+            byte[] data = randomBytes(1024 * 10 + 100);
+            IndexOutput output = directory.createOutput("test");
+            output.writeBytes(data, data.length);
+            directory.sync("test");
+            output.close();
+            assertFileEquals(data, "test");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWriteBehindFailureIsReportedOnClose() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            MeleDirectory failing = new MeleDirectory(new MemoryMeleDirectoryStore() {
+                @Override
+                public void saveBlock(String name, long blockId, byte[] block) throws IOException {
+                    throw new IOException("Store is down");
+                }
+            }, BLOCK_SIZE._1K);
+            failing.setWriteBehindExecutor(executor);
+            IndexOutput output = failing.createOutput("test");
+            output.writeBytes(randomBytes(1024 * 3), 1024 * 3);
+            try {
+                output.close();
+                fail();
+            } catch (IOException e) {
+                assertEquals("Store is down", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFullBlocksWaitForPendingSaveOfSameBlock() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MeleDirectory slow = new MeleDirectory(new MemoryMeleDirectoryStore() {
+                @Override
+                public void saveBlock(String name, long blockId, byte[] block) throws IOException {
+                    if (block.length < 1024) {
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    super.saveBlock(name, blockId, block);
+                }
+            }, BLOCK_SIZE._1K);
+            slow.setWriteBehindExecutor(executor);
+            slow.setInlineFileThreshold(0);
+            byte[] data = randomBytes(1024 * 2);
+            IndexOutput output = slow.createOutput("test");
+            output.writeBytes(new byte[100], 100);
+            output.flush();
+            output.seek(0);
+            output.writeBytes(data, data.length);
+            output.close();
+            IndexInput input = slow.openInput("test");
+            byte[] buf = new byte[data.length];
+            input.readBytes(buf, 0, buf.length);
+            input.close();
+            assertTrue(Arrays.equals(data, buf));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPendingBlockLimitChangesForOpenOutputs() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            directory.setWriteBehindExecutor(executor);
+            directory.setMaxPendingBlocksPerOutput(8);
+            directory.setMaxPendingBlocksPerDirectory(8);
+            byte[] data = randomBytes(1024 * 20 + 10);
+            IndexOutput output = directory.createOutput("test");
+            directory.setMaxPendingBlocksPerDirectory(2);
+            output.writeBytes(data, data.length);
+            output.close();
+            assertFileEquals(data, "test");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWritesEachBlockOnce() throws IOException {
+        byte[] data = randomBytes(1024 * 10 + 100);
+        IndexOutput output = directory.createOutput("test");
+        for (int i = 0; i < data.length; i += 10) {
+            output.writeBytes(data, i, Math.min(10, data.length - i));
+        }
+        output.close();
+        assertEquals(11, store.saveCount.get());
+        assertEquals(0, store.fetchCount.get());
+        assertEquals(2, store.setLengthCount.get());
+        assertFileEquals(data, "test");
+    }
+
+    @Test
+    public void testTailBlockIsTrimmed() throws IOException {
+        byte[] data = randomBytes(1024 * 2 + 100);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+        assertEquals(1024, store.fetchBlock("test", 1).length);
+        assertEquals(100, store.fetchBlock("test", 2).length);
+        assertFileEquals(data, "test");
+
+        output = directory.createOutput("small");
+        output.writeInt(1);
+        output.close();
+        assertEquals(4, store.fetchBlock("small", 0).length);
+        IndexInput input = directory.openInput("small");
+        assertEquals(1, input.readInt());
+        input.close();
+    }
+
+    @Test
+    public void testBlockSizePerFileType() throws Exception {
+        BlockSizePolicy policy = new BlockSizePolicy(BLOCK_SIZE._1K);
+        policy.setBlockSize("tis", BLOCK_SIZE._2K);
+        directory.setBlockSizePolicy(policy);
+        byte[] data = randomBytes(3000);
+        IndexOutput output = directory.createOutput("test.tis");
+        output.writeBytes(data, data.length);
+        output.close();
+        assertEquals(2048, store.fetchBlock("test.tis", 0).length);
+        assertEquals(952, store.fetchBlock("test.tis", 1).length);
+        assertEquals(11, store.getFileMetaData("test.tis").getBlockShift());
+
+        directory.setBlockSizePolicy(new BlockSizePolicy(BLOCK_SIZE._1K));
+        assertFileEquals(data, "test.tis");
+
+        Directory luceneDirectory = new MeleDirectory(store, BLOCK_SIZE._1K);
+        ((MeleDirectory) luceneDirectory).setBlockSizePolicy(BlockSizePolicy.createLucenePolicy(BLOCK_SIZE._1K));
+        populate(luceneDirectory);
+        assertEquals(_1000, IndexReader.open(luceneDirectory).numDocs());
+    }
+
+    @Test
+    public void testVIntsAcrossBlocksAndClones() throws IOException {
+        IndexOutput output = directory.createOutput("test");
+        for (int i = 0; i < 2000; i++) {
+            output.writeVInt(i * 1000);
+            output.writeVLong(i * 100000000L);
+        }
+        output.close();
+        IndexInput input = directory.openInput("test");
+        IndexInput clone = (IndexInput) input.clone();
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i * 1000, input.readVInt());
+            assertEquals(i * 100000000L, input.readVLong());
+        }
+        assertEquals(input.length(), input.getFilePointer());
+        try {
+            input.readByte();
+            fail();
+        } catch (IOException e) {
+        }
+        assertEquals(0, clone.readVInt());
+        clone.seek(input.length() - 1);
+        clone.readByte();
+        input.close();
+    }
+
+    @Test
+    public void testLargeWritesAndReads() throws IOException {
+        byte[] data = randomBytes(1024 * 10 + 100);
+        IndexOutput output = directory.createOutput("test");
+        output.writeByte(data[0]);
+        output.writeBytes(data, 1, data.length - 1);
+        output.close();
+        assertEquals(11, store.saveCount.get());
+        assertFileEquals(data, "test");
+    }
+
+    @Test
+    public void testSeekBackAndOverwrite() throws IOException {
+        byte[] data = randomBytes(1024 * 3 + 7);
+        IndexOutput output = directory.createOutput("test");
+        output.writeLong(0);
+        output.writeBytes(data, 8, data.length - 8);
+        output.seek(0);
+        output.writeBytes(data, 0, 8);
+        assertEquals(data.length, output.length());
+        output.close();
+        assertFileEquals(data, "test");
+    }
+
+    @Test
+    public void testOnlyNewFilesWrittenOnceAreImmutable() throws IOException {
+        byte[] data = randomBytes(1024 * 3 + 7);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+        assertTrue(store.getFileMetaData("test").isImmutable());
+        assertEquals(10, store.getFileMetaData("test").getBlockShift());
+        assertFileEquals(data, "test");
+
+        output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+        assertFalse(store.getFileMetaData("test").isImmutable());
+
+        output = directory.createOutput("seek");
+        output.writeLong(0);
+        output.writeBytes(data, 8, data.length - 8);
+        output.seek(0);
+        output.writeBytes(data, 0, 8);
+        output.close();
+        assertFalse(store.getFileMetaData("seek").isImmutable());
+        assertFileEquals(data, "seek");
+    }
+
+    @Test
+    public void testDeleteFile() throws IOException {
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(randomBytes(1024 * 4), 1024 * 4);
+        output.close();
+        directory.deleteFile("test");
+        assertFalse(directory.fileExists("test"));
+        assertEquals(0, store.getNumberOfBlocks());
+    }
+
+    @Test
+    public void testSequentialReadAhead() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            byte[] data = randomBytes(1024 * 20 + 3);
+            IndexOutput output = directory.createOutput("test");
+            output.writeBytes(data, data.length);
+            output.close();
+            MeleDirectory uncached = new MeleDirectory(store, BLOCK_SIZE._1K, null, "cluster", "dir");
+            uncached.setReadAheadExecutor(executor);
+            uncached.setMaxReadAheadBlocks(4);
+            int fetchCount = store.fetchCount.get();
+            int batchFetchCount = store.batchFetchCount.get();
+            IndexInput input = uncached.openInput("test");
+            for (int i = 0; i < data.length; i++) {
+                assertEquals("Position [" + i + "]", data[i], input.readByte());
+            }
+            // only the first block is read by the caller, the other 20 blocks
+            // are fetched ahead in batches of a growing window
+            assertEquals(21, store.fetchCount.get() - fetchCount);
+            int batches = store.batchFetchCount.get() - batchFetchCount;
+            assertTrue(batches > 0 && batches <= 20 / 2);
+            input.seek(1024 * 5 + 1);
+            assertEquals(data[1024 * 5 + 1], input.readByte());
+            input.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSmallFilesAreFetchedWhole() throws IOException {
+        directory.setSmallFileThreshold(1024 * 4);
+        byte[] data = randomBytes(1024 * 3 + 1);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+        IndexInput input = directory.openInput("test");
+        int fetchCount = store.fetchCount.get();
+        byte[] buf = new byte[data.length];
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        assertEquals(fetchCount, store.fetchCount.get());
+        assertFileEquals(data, "test");
+    }
+
+    @Test
+    public void testMetaDataCache() throws IOException {
+        directory.setMetaDataCacheMissingTtl(10000);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(randomBytes(100), 100);
+        output.close();
+        // createOutput looks up whether the file is new and close reads
+        // back the meta data the store wrote
+        assertEquals(2, store.metaDataCount.get());
+        assertEquals(100, directory.fileLength("test"));
+        directory.openInput("test").close();
+        directory.deleteFile("test");
+        assertFalse(directory.fileExists("test"));
+        assertFalse(directory.fileExists("missing"));
+        assertFalse(directory.fileExists("missing"));
+        assertEquals(3, store.metaDataCount.get());
+        assertEquals(0, directory.listAll().length);
+        assertEquals(0, directory.listAll().length);
+        assertEquals(4, store.metaDataCount.get());
+    }
+
+    @Test
+    public void testMissingFilesAreNotCachedByDefault() throws IOException {
+        assertFalse(directory.fileExists("test"));
+        MeleDirectory other = new MeleDirectory(store, BLOCK_SIZE._1K);
+        IndexOutput output = other.createOutput("test");
+        output.writeBytes(randomBytes(100), 100);
+        output.close();
+        assertTrue(directory.fileExists("test"));
+    }
+
+    @Test
+    public void testCreateOutputIgnoresCachedMissingFile() throws IOException {
+        directory.setMetaDataCacheMissingTtl(10000);
+        assertFalse(directory.fileExists("test"));
+        MeleDirectory other = new MeleDirectory(store, BLOCK_SIZE._1K);
+        IndexOutput output = other.createOutput("test");
+        output.writeBytes(randomBytes(100), 100);
+        output.close();
+        assertFalse(directory.fileExists("test"));
+        // the file was created by another directory, so it is not new
+        output = directory.createOutput("test");
+        output.writeBytes(randomBytes(100), 100);
+        output.close();
+        assertFalse(store.getFileMetaData("test").isImmutable());
+    }
+
+    @Test
+    public void testSmallFilesAreStoredInline() throws Exception {
+        directory.setInlineFileThreshold(512);
+        byte[] data = randomBytes(300);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.flush();
+        output.close();
+        assertEquals(0, store.saveCount.get());
+        assertEquals(0, store.getNumberOfBlocks());
+
+        MeleDirectory reopened = new MeleDirectory(store, BLOCK_SIZE._1K);
+        assertEquals(1, reopened.listAll().length);
+        int metaDataCount = store.metaDataCount.get();
+        IndexInput input = reopened.openInput("test");
+        byte[] buf = new byte[data.length];
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        assertEquals(0, store.fetchCount.get());
+        assertEquals(metaDataCount, store.metaDataCount.get());
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], buf[i]);
+        }
+
+        populate(directory);
+        assertEquals(_1000, IndexReader.open(directory).numDocs());
+    }
+
+    @Test
+    public void testBackgroundReadsBypassCache() throws IOException {
+        BlockCache cache = new BlockCache(1024 * 1024, 0, 1);
+        MeleDirectory cached = new MeleDirectory(store, BLOCK_SIZE._1K, cache, "cluster", "dir");
+        byte[] data = randomBytes(1024 * 4);
+        IndexOutput output = cached.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+
+        IOPriority previous = IOPriority.set(IOPriority.BACKGROUND);
+        try {
+            IndexInput input = cached.openInput("test");
+            input.readBytes(new byte[data.length], 0, data.length);
+            input.close();
+        } finally {
+            IOPriority.set(previous);
+        }
+        assertEquals(0, cache.getSize());
+        assertEquals(4, store.fetchCount.get());
+
+        IndexInput input = cached.openInput("test");
+        input.readBytes(new byte[data.length], 0, data.length);
+        input.close();
+        assertEquals(1024 * 4, cache.getSize());
+    }
+
+    @Test
+    public void testIOContextCountsFetches() throws IOException {
+        byte[] data = randomBytes(1024 * 4);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+
+        IOContext outer = IOContext.open();
+        IOContext context = IOContext.open();
+        assertFileEquals(data, "test");
+        assertEquals(context, context.close());
+        assertEquals(4, context.getCacheMisses());
+        assertEquals(0, context.getCacheHits());
+        assertEquals(4, context.getFetchedBlocks());
+        assertEquals(1024 * 4, context.getFetchedBytes());
+        assertEquals(context.getFetchNanos(), context.getBlockedNanos());
+
+        context = IOContext.open();
+        assertFileEquals(data, "test");
+        context.close();
+        assertEquals(4, context.getCacheHits());
+        assertEquals(0, context.getFetchedBlocks());
+
+        outer.close();
+        assertNull(IOContext.get());
+        assertEquals(4, outer.getCacheHits());
+        assertEquals(4, outer.getCacheMisses());
+    }
+
+    private void assertFileEquals(byte[] data, String name) throws IOException {
+        assertEquals(data.length, directory.fileLength(name));
+        IndexInput input = directory.openInput(name);
+        byte[] buf = new byte[data.length];
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        for (int i = 0; i < data.length; i++) {
+            assertEquals("Position [" + i + "]", data[i], buf[i]);
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+
+    private void populate(Directory directory) throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new StandardAnalyzer(Version.LUCENE_30),
+                MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < _1000; i++) {
+            writer.addDocument(genDoc());
+        }
+        writer.close();
+    }
+
+    private Document genDoc() {
+        Document document = new Document();
+        document.add(new Field("id", UUID.randomUUID().toString(), Store.YES, Index.ANALYZED_NO_NORMS));
+        return document;
+    }
+}
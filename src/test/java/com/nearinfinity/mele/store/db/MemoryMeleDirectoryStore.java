@@ -0,0 +1,171 @@
+package com.nearinfinity.mele.store.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MemoryMeleDirectoryStore implements MeleDirectoryStore {
+
+    private Map<String, Long> lengths = new ConcurrentHashMap<String, Long>();
+    private Map<String, Long> modified = new ConcurrentHashMap<String, Long>();
+    private Map<String, Long> blockShifts = new ConcurrentHashMap<String, Long>();
+    private Map<String, byte[]> data = new ConcurrentHashMap<String, byte[]>();
+    private Map<String, byte[]> blocks = new ConcurrentHashMap<String, byte[]>();
+    public AtomicInteger fetchCount = new AtomicInteger();
+    public AtomicInteger batchFetchCount = new AtomicInteger();
+    public AtomicInteger saveCount = new AtomicInteger();
+    public AtomicInteger setLengthCount = new AtomicInteger();
+    public AtomicInteger metaDataCount = new AtomicInteger();
+
+    @Override
+    public void saveBlock(String name, long blockId, byte[] block) throws IOException {
+        saveCount.incrementAndGet();
+        blocks.put(getKey(name, blockId), block.clone());
+    }
+
+    @Override
+    public byte[] fetchBlock(String name, long blockId) throws IOException {
+        fetchCount.incrementAndGet();
+        byte[] block = blocks.get(getKey(name, blockId));
+        if (block == null) {
+            return null;
+        }
+        return block.clone();
+    }
+
+    @Override
+    public void saveBlocks(String name, Map<Long, byte[]> blocks) throws IOException {
+        for (Map.Entry<Long, byte[]> entry : blocks.entrySet()) {
+            saveBlock(name, entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<Long, byte[]> fetchBlocks(String name, List<Long> blockIds) throws IOException {
+        batchFetchCount.incrementAndGet();
+        Map<Long, byte[]> result = new HashMap<Long, byte[]>();
+        for (Long blockId : blockIds) {
+            byte[] block = fetchBlock(name, blockId);
+            if (block != null) {
+                result.put(blockId, block);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getAllFileNames() throws IOException {
+        return new ArrayList<String>(lengths.keySet());
+    }
+
+    @Override
+    public List<FileMetaData> getAllFileMetaData() throws IOException {
+        metaDataCount.incrementAndGet();
+        List<FileMetaData> result = new ArrayList<FileMetaData>();
+        for (String name : lengths.keySet()) {
+            result.add(new FileMetaData(name, getFileLength(name), getFileModified(name), getBlockShift(name),
+                    data.get(name)));
+        }
+        return result;
+    }
+
+    @Override
+    public FileMetaData getFileMetaData(String name) throws IOException {
+        metaDataCount.incrementAndGet();
+        if (!lengths.containsKey(name)) {
+            return null;
+        }
+        return new FileMetaData(name, getFileLength(name), getFileModified(name), getBlockShift(name), data.get(name));
+    }
+
+    @Override
+    public boolean fileExists(String name) throws IOException {
+        return lengths.containsKey(name);
+    }
+
+    @Override
+    public long getFileModified(String name) throws IOException {
+        Long m = modified.get(name);
+        if (m == null) {
+            return -1l;
+        }
+        return m;
+    }
+
+    @Override
+    public long getFileLength(String name) throws IOException {
+        Long length = lengths.get(name);
+        if (length == null) {
+            return -1l;
+        }
+        return length;
+    }
+
+    @Override
+    public void setFileLength(String name, long length) throws IOException {
+        setLengthCount.incrementAndGet();
+        lengths.put(name, length);
+        modified.put(name, System.currentTimeMillis());
+        blockShifts.remove(name);
+        data.remove(name);
+    }
+
+    @Override
+    public void setFileLength(String name, long length, long blockShift) throws IOException {
+        setFileLength(name, length);
+        blockShifts.put(name, blockShift);
+    }
+
+    @Override
+    public void setFileData(String name, byte[] data, long blockShift) throws IOException {
+        setFileLength(name, data.length, blockShift);
+        this.data.put(name, data.clone());
+    }
+
+    private long getBlockShift(String name) {
+        Long blockShift = blockShifts.get(name);
+        return blockShift == null ? -1 : blockShift;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+    }
+
+    @Override
+    public void flush(String name) throws IOException {
+
+    }
+
+    @Override
+    public void removeBlock(String name, long blockId) throws IOException {
+        blocks.remove(getKey(name, blockId));
+    }
+
+    @Override
+    public void removeBlocks(String name, List<Long> blockIds) throws IOException {
+        for (Long blockId : blockIds) {
+            removeBlock(name, blockId);
+        }
+    }
+
+    @Override
+    public void removeFileMetaData(String name) throws IOException {
+        lengths.remove(name);
+        modified.remove(name);
+        blockShifts.remove(name);
+        data.remove(name);
+    }
+
+    public int getNumberOfBlocks() {
+        return blocks.size();
+    }
+
+    private String getKey(String name, long blockId) {
+        return name + "/" + blockId;
+    }
+}
@@ -0,0 +1,137 @@
+package com.nearinfinity.mele.store.db.cache;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BlockCacheTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @Test
+    public void testHitsAndMisses() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 10, 0, 1);
+        BlockCacheKey key = new BlockCacheKey("cluster", "dir", "_0.tis", 0);
+        assertNull(cache.get(key));
+        cache.put(key, ByteBuffer.allocate(BLOCK_SIZE));
+        assertNotNull(cache.get(new BlockCacheKey("cluster", "dir", "_0.tis", 0)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(BLOCK_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 2, 0, 1);
+        BlockCacheKey key0 = new BlockCacheKey("cluster", "dir", "_0.tis", 0);
+        BlockCacheKey key1 = new BlockCacheKey("cluster", "dir", "_0.tis", 1);
+        BlockCacheKey key2 = new BlockCacheKey("cluster", "dir", "_0.tis", 2);
+        cache.put(key0, ByteBuffer.allocate(BLOCK_SIZE));
+        cache.put(key1, ByteBuffer.allocate(BLOCK_SIZE));
+        cache.get(key0);
+        cache.put(key2, ByteBuffer.allocate(BLOCK_SIZE));
+        assertNotNull(cache.get(key0));
+        assertNull(cache.get(key1));
+        assertNotNull(cache.get(key2));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(BLOCK_SIZE * 2, cache.getSize());
+    }
+
+    @Test
+    public void testClusterQuota() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 4, BLOCK_SIZE * 2, 1);
+        BlockCacheKey other = new BlockCacheKey("other", "dir", "_0.tis", 0);
+        cache.put(other, ByteBuffer.allocate(BLOCK_SIZE));
+        for (int i = 0; i < 4; i++) {
+            cache.put(new BlockCacheKey("greedy", "dir", "_0.tis", i), ByteBuffer.allocate(BLOCK_SIZE));
+        }
+        assertNotNull(cache.get(other));
+        assertEquals(BLOCK_SIZE * 2, cache.getClusterSize("greedy"));
+        assertEquals(BLOCK_SIZE * 3, cache.getSize());
+    }
+
+    @Test
+    public void testClusterQuotaWithManySegments() throws Exception {
+        final BlockCache cache = new BlockCache(BLOCK_SIZE * 64, BLOCK_SIZE * 16, 4);
+        BlockCacheKey other = new BlockCacheKey("other", "dir", "_0.tis", 0);
+        cache.put(other, ByteBuffer.allocate(BLOCK_SIZE));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String fileName = "_" + t + ".tis";
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 256; i++) {
+                        cache.put(new BlockCacheKey("greedy", "dir", fileName, i), ByteBuffer.allocate(BLOCK_SIZE));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNotNull(cache.get(other));
+        assertEquals(BLOCK_SIZE * 16, cache.getClusterSize("greedy"));
+        assertEquals(BLOCK_SIZE * 17, cache.getSize());
+    }
+
+    @Test
+    public void testRemoveFile() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 100, 0, 4);
+        for (int i = 0; i < 4; i++) {
+            cache.put(new BlockCacheKey("cluster", "dir", "_0.tis", i), ByteBuffer.allocate(BLOCK_SIZE));
+            cache.put(new BlockCacheKey("cluster", "dir", "_0.frq", i), ByteBuffer.allocate(BLOCK_SIZE));
+        }
+        cache.removeFile("cluster", "dir", "_0.tis");
+        for (int i = 0; i < 4; i++) {
+            assertNull(cache.get(new BlockCacheKey("cluster", "dir", "_0.tis", i)));
+            assertNotNull(cache.get(new BlockCacheKey("cluster", "dir", "_0.frq", i)));
+        }
+        assertEquals(BLOCK_SIZE * 4, cache.getSize());
+        assertEquals(BLOCK_SIZE * 4, cache.getClusterSize("cluster"));
+    }
+
+    @Test
+    public void testScanDoesNotEvictHotBlocks() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 4, 0, 1);
+        for (int i = 0; i < 4; i++) {
+            BlockCacheKey key = new BlockCacheKey("cluster", "dir", "_0.tis", i);
+            for (int j = 0; j < 3; j++) {
+                if (cache.get(key) == null) {
+                    cache.put(key, ByteBuffer.allocate(BLOCK_SIZE));
+                }
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            BlockCacheKey key = new BlockCacheKey("cluster", "dir", "_1.frq", i);
+            if (cache.get(key) == null) {
+                cache.put(key, ByteBuffer.allocate(BLOCK_SIZE));
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(cache.get(new BlockCacheKey("cluster", "dir", "_0.tis", i)));
+        }
+        assertEquals(100, cache.getRejectionCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testPeekDoesNotPromote() {
+        BlockCache cache = new BlockCache(BLOCK_SIZE * 2, 0, 1);
+        BlockCacheKey key0 = new BlockCacheKey("cluster", "dir", "_0.tis", 0);
+        BlockCacheKey key1 = new BlockCacheKey("cluster", "dir", "_0.tis", 1);
+        BlockCacheKey key2 = new BlockCacheKey("cluster", "dir", "_0.tis", 2);
+        cache.put(key0, ByteBuffer.allocate(BLOCK_SIZE));
+        cache.put(key1, ByteBuffer.allocate(BLOCK_SIZE));
+        assertNotNull(cache.peek(key0));
+        cache.put(key2, ByteBuffer.allocate(BLOCK_SIZE));
+        assertNull(cache.peek(key0));
+        assertNotNull(cache.peek(key1));
+        assertEquals(0, cache.getHitCount());
+    }
+}
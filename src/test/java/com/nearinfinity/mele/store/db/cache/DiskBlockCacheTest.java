@@ -0,0 +1,186 @@
+package com.nearinfinity.mele.store.db.cache;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.MeleDirectory;
+import com.nearinfinity.mele.store.db.MemoryMeleDirectoryStore;
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+import com.nearinfinity.mele.store.db.local.LogStructuredMeleDirectoryStore;
+
+public class DiskBlockCacheTest {
+
+    private File dir;
+    private DiskBlockCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("target/test-tmp/diskcache-" + UUID.randomUUID());
+        cache = open(1024 * 3);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        cache.put(key("a", 0), 4096, 1, block(1024));
+        cache.put(key("a", 1), 4096, 1, block(1024));
+        cache.put(key("a", 2), 4096, 1, block(1024));
+        assertNotNull(cache.get(key("a", 0), 4096, 1));
+        cache.put(key("a", 3), 4096, 1, block(1024));
+        assertEquals(3 * 1024, cache.getSize());
+        assertNull(cache.get(key("a", 1), 4096, 1));
+        assertNotNull(cache.get(key("a", 0), 4096, 1));
+        assertNotNull(cache.get(key("a", 3), 4096, 1));
+    }
+
+    @Test
+    public void testRecoversAfterReopen() throws IOException {
+        ByteBuffer block = block(1024);
+        cache.put(key("a", 0), 2048, 1, block);
+        cache.put(key("a", 1), 2048, 1, block);
+        cache.put(key("b", 0), 10, 1, block(10));
+        cache.removeFile("cluster", "dir", "b");
+        cache.close();
+
+        cache = open(1024 * 3);
+        assertEquals(2, cache.getNumberOfBlocks());
+        assertEquals(block, cache.get(key("a", 1), 2048, 1));
+        assertNull(cache.get(key("b", 0), 10, 1));
+        assertNull(cache.get(key("a", 0), 1024, 1));
+
+        cache.put(key("a", 0), 1024, 1, block(1024));
+        assertEquals(1, cache.getNumberOfBlocks());
+        assertNull(cache.get(key("a", 1), 2048, 1));
+    }
+
+    @Test
+    public void testRecreatedFileWithSameLengthIsNotServed() throws IOException {
+        cache.put(key("a", 0), 1024, 1, block(1024));
+        assertNotNull(cache.get(key("a", 0), 1024, 1));
+        assertNull(cache.get(key("a", 0), 1024, 2));
+        cache.put(key("a", 0), 1024, 2, block(512));
+        assertEquals(block(512), cache.get(key("a", 0), 1024, 2));
+        assertNull(cache.get(key("a", 0), 1024, 1));
+        assertEquals(1, cache.getNumberOfBlocks());
+        assertEquals(512, cache.getSize());
+    }
+
+    @Test
+    public void testConcurrentPutsStayWithinLimit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int t = 0; t < 4; t++) {
+            final String file = "f" + t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 50; i++) {
+                        cache.put(key(file, i % 5), 4096, i / 5, block(512));
+                        cache.get(key(file, i % 5), 4096, i / 5);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(cache.getSize() <= 1024 * 3);
+        assertEquals(cache.getNumberOfBlocks() * 512, cache.getSize());
+    }
+
+    @Test
+    public void testRestartedDirectoryReadsFromDisk() throws IOException {
+        cache.close();
+        cache = open(1024 * 1024);
+        // the store stamps the file before the directory could
+        MemoryMeleDirectoryStore store = new MemoryMeleDirectoryStore() {
+            @Override
+            public void setFileLength(String name, long length, long blockShift) throws IOException {
+                super.setFileLength(name, length, blockShift);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        byte[] data = new byte[1024 * 5 + 10];
+        new Random(1).nextBytes(data);
+        MeleDirectory directory = new MeleDirectory(store, BLOCK_SIZE._1K, new BlockCache(1024 * 1024, 0, 1),
+                "cluster", "dir");
+        directory.setSmallFileThreshold(0);
+        directory.setDiskBlockCache(cache);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+        assertTrue(Arrays.equals(data, read(directory, "test")));
+        int fetchCount = store.fetchCount.get();
+        assertTrue(fetchCount > 0);
+        cache.close();
+
+        cache = open(1024 * 1024);
+        directory = new MeleDirectory(store, BLOCK_SIZE._1K, new BlockCache(1024 * 1024, 0, 1), "cluster", "dir");
+        directory.setSmallFileThreshold(0);
+        directory.setDiskBlockCache(cache);
+        assertTrue(Arrays.equals(data, read(directory, "test")));
+        assertEquals(fetchCount, store.fetchCount.get());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(6, cache.getHitCount());
+    }
+
+    private byte[] read(MeleDirectory directory, String name) throws IOException {
+        IndexInput input = directory.openInput(name);
+        byte[] buf = new byte[(int) input.length()];
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        return buf;
+    }
+
+    private DiskBlockCache open(long maxBytes) throws IOException {
+        return new DiskBlockCache(new LogStructuredMeleDirectoryStore(dir, 64 * 1024, 0.5, 0), maxBytes);
+    }
+
+    private BlockCacheKey key(String file, long blockId) {
+        return new BlockCacheKey("cluster", "dir", file, blockId);
+    }
+
+    private ByteBuffer block(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return ByteBuffer.wrap(data);
+    }
+}
@@ -0,0 +1,119 @@
+package com.nearinfinity.mele.store.db.cache;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.MeleDirectory;
+import com.nearinfinity.mele.store.db.MemoryMeleDirectoryStore;
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+
+public class PinnedFileCacheTest {
+
+    private final FilePinPolicy policy = new FilePinPolicy("tii,fnm,nrm,segments");
+
+    @Test
+    public void testPolicy() {
+        assertTrue(policy.isPinned("_0.tii"));
+        assertTrue(policy.isPinned("segments_2"));
+        assertFalse(policy.isPinned("segments.gen"));
+        assertFalse(policy.isPinned("_0.tis"));
+    }
+
+    @Test
+    public void testReferencedFilesAreNotEvicted() throws IOException {
+        RAMDirectory ram = new RAMDirectory();
+        PinnedFileCache cache = new PinnedFileCache(1500);
+        Directory directory = new PinnedFileDirectory(ram, cache, policy, "ram/");
+        write(directory, "_0.tii", 1000);
+        write(directory, "_1.tii", 1000);
+
+        IndexInput input = directory.openInput("_0.tii");
+        IndexInput clone = (IndexInput) input.clone();
+        assertEquals(1000, cache.getSize());
+        IndexInput unpinned = directory.openInput("_1.tii");
+        assertFalse(unpinned instanceof PinnedIndexInput);
+        unpinned.close();
+        assertEquals(1, cache.getRejectionCount());
+
+        assertEquals(7, input.readByte());
+        clone.seek(999);
+        assertEquals(7, clone.readByte());
+        input.close();
+        IndexInput other = directory.openInput("_1.tii");
+        assertEquals(1000, cache.getSize());
+        other.close();
+
+        directory.openInput("_1.tii").close();
+        assertEquals(2, cache.getLoadCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testOverwrittenFileIsReloaded() throws IOException {
+        PinnedFileCache cache = new PinnedFileCache(1024 * 1024);
+        Directory directory = new PinnedFileDirectory(new RAMDirectory(), cache, policy, "ram/");
+        write(directory, "segments_1", 10);
+        IndexInput input = directory.openInput("segments_1");
+        directory.deleteFile("segments_1");
+        write(directory, "segments_1", 20);
+        assertEquals(10, input.length());
+        input.close();
+        assertEquals(0, cache.getSize());
+        input = directory.openInput("segments_1");
+        assertEquals(20, input.length());
+        input.close();
+        assertEquals(2, cache.getLoadCount());
+    }
+
+    @Test
+    public void testMeleDirectoryPinsFiles() throws Exception {
+        MemoryMeleDirectoryStore store = new MemoryMeleDirectoryStore();
+        MeleDirectory directory = new MeleDirectory(store, BLOCK_SIZE._1K, new BlockCache(1024 * 1024, 0, 1),
+                "cluster", "dir");
+        PinnedFileCache cache = new PinnedFileCache(1024 * 1024);
+        directory.setPinnedFileCache(cache, policy);
+        IndexWriter writer = new IndexWriter(directory, new StandardAnalyzer(Version.LUCENE_30),
+                MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 1000; i++) {
+            Document document = new Document();
+            document.add(new Field("id", UUID.randomUUID().toString(), Store.YES, Index.ANALYZED));
+            writer.addDocument(document);
+        }
+        writer.close();
+        IndexReader reader = IndexReader.open(directory);
+        assertEquals(1000, reader.numDocs());
+        assertTrue(cache.getSize() > 0);
+        assertNotNull(reader.norms("id"));
+        long pinned = cache.getSize();
+        reader.close();
+        assertEquals(pinned, cache.getSize());
+    }
+
+    private void write(Directory directory, String name, int length) throws IOException {
+        IndexOutput output = directory.createOutput(name);
+        for (int i = 0; i < length; i++) {
+            output.writeByte((byte) 7);
+        }
+        output.close();
+    }
+}
@@ -0,0 +1,112 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Cassandra.Client;
+
+import com.nearinfinity.mele.store.db.cassandra.CassandraExecutor.Command;
+import com.nearinfinity.mele.util.Bytes;
+
+/**
+ * Measures block fetch throughput of one calling thread against a running
+ * cluster, the caller keeps a fixed number of submitted fetches in flight.
+ * Every concurrency level gets a warm up iteration followed by measured
+ * iterations, the first line is the blocking execute for comparison.
+ * Iterations are timed with nanoTime and every fetched block is consumed
+ * so the fetches can not be optimized away.
+ * <p>
+ * Usage: CassandraExecutorBenchmark host port keyspace columnfamily
+ */
+public class CassandraExecutorBenchmark {
+
+    private static final int[] CONCURRENCY = { 1, 2, 4, 8, 16, 32, 64 };
+    private static final int BLOCKS = 1024;
+    private static final int BLOCK_SIZE = 16 * 1024;
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int ITERATIONS = 3;
+    private static final long ITERATION_TIME = TimeUnit.SECONDS.toNanos(5);
+    private static final String DIR = "benchmark/executor";
+
+    public static void main(String[] args) throws Exception {
+        final String keySpace = args[2];
+        final String columnFamily = args[3];
+        CassandraExecutor executor = new CassandraExecutor(keySpace, Integer.parseInt(args[1]), 64, 64, 60000, 5000,
+                args[0].split(","));
+        CassandraStore store = new CassandraStore(keySpace, columnFamily, DIR, executor);
+        byte[] block = new byte[BLOCK_SIZE];
+        new Random(1).nextBytes(block);
+        for (int i = 0; i < BLOCKS; i++) {
+            store.saveBlock(getName(i), 0, block);
+        }
+
+        Random random = new Random();
+        long sink = 0;
+        System.out.println("concurrency\tops/s\tMB/s");
+        for (int c = -1; c < CONCURRENCY.length; c++) {
+            int concurrency = c < 0 ? 1 : CONCURRENCY[c];
+            double opsPerSecond = 0;
+            for (int iteration = 0; iteration < WARMUP_ITERATIONS + ITERATIONS; iteration++) {
+                long count = 0;
+                long start = System.nanoTime();
+                long end = start + ITERATION_TIME;
+                Queue<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+                while (System.nanoTime() - end < 0) {
+                    String rowKey = DIR + "/" + getName(random.nextInt(BLOCKS));
+                    Command<byte[]> command = getFetchCommand(keySpace, columnFamily, rowKey);
+                    if (c < 0) {
+                        sink += consume(executor.execute(rowKey, command));
+                        count++;
+                        continue;
+                    }
+                    inFlight.add(executor.submit(rowKey, command));
+                    if (inFlight.size() >= concurrency) {
+                        sink += consume(CassandraExecutor.get(inFlight.poll()));
+                        count++;
+                    }
+                }
+                while (!inFlight.isEmpty()) {
+                    sink += consume(CassandraExecutor.get(inFlight.poll()));
+                    count++;
+                }
+                if (iteration >= WARMUP_ITERATIONS) {
+                    opsPerSecond += count * 1e9 / (System.nanoTime() - start) / ITERATIONS;
+                }
+            }
+            System.out.println((c < 0 ? "execute" : Integer.toString(concurrency)) + "\t"
+                    + Math.round(opsPerSecond) + "\t" + Math.round(opsPerSecond * BLOCK_SIZE / (1024 * 1024)));
+        }
+
+        System.out.println("checksum\t" + sink);
+
+        for (int i = 0; i < BLOCKS; i++) {
+            store.removeBlock(getName(i), 0);
+        }
+        executor.close();
+    }
+
+    private static Command<byte[]> getFetchCommand(final String keySpace, final String columnFamily,
+            final String rowKey) {
+        return new Command<byte[]>() {
+            @Override
+            public byte[] execute(Client client) throws Exception {
+                ColumnPath columnPath = new ColumnPath(columnFamily);
+                columnPath.setColumn(Bytes.toBytes(0L));
+                return client.get(keySpace, rowKey, columnPath, ConsistencyLevel.ONE).column.value;
+            }
+        };
+    }
+
+    private static long consume(byte[] block) {
+        return block.length + block[0] + block[block.length - 1];
+    }
+
+    private static String getName(int i) {
+        return "block" + i;
+    }
+}
@@ -0,0 +1,220 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Cassandra.Client;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.cassandra.CassandraExecutor.Command;
+import com.nearinfinity.mele.util.IOPriority;
+import com.nearinfinity.mele.util.IOScheduler;
+
+public class CassandraExecutorTest {
+
+    private CassandraExecutor executor;
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void testSlowReadIsHedged() throws Exception {
+        executor = newExecutor(4);
+        warmUp();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        String result = executor.executeHedged("row", new Command<String>() {
+            @Override
+            public String execute(Client client) throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    release.await(10, TimeUnit.SECONDS);
+                    return "primary";
+                }
+                return "hedge";
+            }
+        });
+        release.countDown();
+        assertEquals("hedge", result);
+        assertEquals(2, calls.get());
+        assertEquals(1, executor.getHedgeCount());
+    }
+
+    @Test
+    public void testFailedReadFallsBackToHedge() throws Exception {
+        executor = newExecutor(4);
+        warmUp();
+        final CountDownLatch hedgeStarted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        String result = executor.executeHedged("row", new Command<String>() {
+            @Override
+            public String execute(Client client) throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    hedgeStarted.await(10, TimeUnit.SECONDS);
+                    throw new Exception("primary failed");
+                }
+                hedgeStarted.countDown();
+                Thread.sleep(100);
+                return "hedge";
+            }
+        });
+        assertEquals("hedge", result);
+    }
+
+    @Test
+    public void testQueuedHedgeIsCancelled() throws Exception {
+        executor = newExecutor(1);
+        warmUp();
+        final AtomicInteger calls = new AtomicInteger();
+        String result = executor.executeHedged("row", new Command<String>() {
+            @Override
+            public String execute(Client client) throws Exception {
+                calls.incrementAndGet();
+                Thread.sleep(200);
+                return "primary";
+            }
+        });
+        assertEquals("primary", result);
+        assertEquals(1, executor.getHedgeCount());
+        Thread.sleep(200);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testHedgesAreLimited() throws Exception {
+        executor = newExecutor(4);
+        executor.setHedgeMaxRatio(0);
+        warmUp();
+        String result = executor.executeHedged("row", new Command<String>() {
+            @Override
+            public String execute(Client client) throws Exception {
+                Thread.sleep(100);
+                return "primary";
+            }
+        });
+        assertEquals("primary", result);
+        assertEquals(0, executor.getHedgeCount());
+    }
+
+    @Test
+    public void testFailureIsThrownWithoutHedge() throws Exception {
+        executor = newExecutor(4);
+        try {
+            executor.executeHedged("row", new Command<String>() {
+                @Override
+                public String execute(Client client) throws Exception {
+                    throw new Exception("failed");
+                }
+            });
+        } catch (IOException e) {
+            assertTrue(e.getCause().getMessage().equals("failed"));
+            return;
+        }
+        throw new AssertionError("expected a failure");
+    }
+
+    @Test
+    public void testFailedExecuteAllCancelsQueuedCommands() throws Exception {
+        executor = newExecutor(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger queuedCalls = new AtomicInteger();
+        List<Command<String>> commands = new ArrayList<Command<String>>();
+        commands.add(new Command<String>() {
+            @Override
+            public String execute(Client client) throws Exception {
+                release.await(10, TimeUnit.SECONDS);
+                return "blocking";
+            }
+        });
+        commands.add(new Command<String>() {
+            @Override
+            public String execute(Client client) throws Exception {
+                queuedCalls.incrementAndGet();
+                return "queued";
+            }
+        });
+        commands.add(new Command<String>() {
+            @Override
+            public String execute(Client client) throws Exception {
+                throw new Exception("failed");
+            }
+        });
+        try {
+            executor.executeAll("row", commands);
+            throw new AssertionError("expected a failure");
+        } catch (IOException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+        release.countDown();
+        Thread.sleep(200);
+        assertEquals(0, queuedCalls.get());
+    }
+
+    @Test
+    public void testParallelCommandsTakeOnePermitEach() throws Exception {
+        executor = newExecutor(4);
+        final IOScheduler scheduler = new IOScheduler(8, 0.25, 0);
+        executor.setScheduler(scheduler);
+        final AtomicInteger maxInUse = new AtomicInteger();
+        final AtomicInteger interactiveCalls = new AtomicInteger();
+        List<Command<String>> commands = new ArrayList<Command<String>>();
+        for (int i = 0; i < 4; i++) {
+            commands.add(new Command<String>() {
+                @Override
+                public String execute(Client client) throws Exception {
+                    if (!IOPriority.isBackground()) {
+                        interactiveCalls.incrementAndGet();
+                    }
+                    int inUse = scheduler.getBackgroundPermitsInUse();
+                    while (inUse > maxInUse.get()) {
+                        maxInUse.compareAndSet(maxInUse.get(), inUse);
+                    }
+                    Thread.sleep(50);
+                    return "done";
+                }
+            });
+        }
+        IOPriority previous = IOPriority.set(IOPriority.BACKGROUND);
+        try {
+            assertEquals(4, executor.executeAll("row", commands).size());
+        } finally {
+            IOPriority.set(previous);
+        }
+        assertEquals(0, interactiveCalls.get());
+        assertEquals(2, maxInUse.get());
+        assertEquals(0, scheduler.getPermitsInUse());
+    }
+
+    private void warmUp() throws IOException {
+        for (int i = 0; i < 128; i++) {
+            executor.executeHedged("row", new Command<String>() {
+                @Override
+                public String execute(Client client) throws Exception {
+                    return "fast";
+                }
+            });
+        }
+    }
+
+    private CassandraExecutor newExecutor(int ioThreads) {
+        CassandraExecutor executor = new CassandraExecutor("keyspace", 9160, 4, ioThreads, 0, 5000, "host") {
+            @Override
+            protected Client newClient(String host) {
+                return new Client(new TBinaryProtocol(new TMemoryBuffer(0)));
+            }
+        };
+        executor.setHedgePercentile(0.5);
+        return executor;
+    }
+}
@@ -0,0 +1,60 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Cassandra.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.FileMetaData;
+
+public class CassandraStoreTest {
+
+    private MemoryCassandra cassandra;
+    private CassandraExecutor executor;
+    private CassandraStore store;
+
+    @Before
+    public void setUp() {
+        cassandra = new MemoryCassandra();
+        executor = new CassandraExecutor("keyspace", 9160, 4, 4, 0, 5000, "host") {
+            @Override
+            protected Client newClient(String host) {
+                return cassandra.newClient();
+            }
+        };
+        store = new CassandraStore("keyspace", "cf", "cluster/dir", executor);
+        store.setConsistencyLevels(ConsistencyLevel.QUORUM, ConsistencyLevel.QUORUM, ConsistencyLevel.ONE);
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void testMissingBlockIsReadOnceAtReadLevel() throws Exception {
+        store.setFileLength("mutable", 1024, 10);
+        int reads = cassandra.getReadCount();
+        assertNull(store.fetchBlock("mutable", 0));
+        assertEquals(reads + 1, cassandra.getReadCount());
+        assertTrue(store.fetchBlocks("mutable", Arrays.asList(0L, 1L)).isEmpty());
+        assertEquals(reads + 2, cassandra.getReadCount());
+    }
+
+    @Test
+    public void testMissingBlockOfImmutableFileIsReadAgain() throws Exception {
+        store.setFileLength("immutable", 1024, 10 | FileMetaData.IMMUTABLE);
+        int reads = cassandra.getReadCount();
+        assertNull(store.fetchBlock("immutable", 0));
+        assertEquals(reads + 2, cassandra.getReadCount());
+        assertTrue(store.fetchBlocks("immutable", Arrays.asList(0L, 1L)).isEmpty());
+        assertEquals(reads + 4, cassandra.getReadCount());
+    }
+}
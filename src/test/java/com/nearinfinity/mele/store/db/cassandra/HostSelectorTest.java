@@ -0,0 +1,74 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HostSelectorTest {
+
+    private final List<String> hosts = Arrays.asList("a", "b", "c");
+
+    @Test
+    public void testFastHostIsPreferred() {
+        HostSelector selector = new HostSelector(5000, 60000);
+        selector.recordLatency("a", 1000000);
+        selector.recordLatency("b", 1000000);
+        selector.recordLatency("c", 50000000);
+        int slow = 0;
+        for (int i = 0; i < 300; i++) {
+            if ("c".equals(selector.select(hosts))) {
+                slow++;
+            }
+        }
+        assertEquals(0, slow);
+        assertEquals(50000000, selector.getLatency("c"));
+    }
+
+    @Test
+    public void testSlowHostIsTriedAgainAfterDecay() throws InterruptedException {
+        HostSelector selector = new HostSelector(5000, 60000, 10);
+        selector.recordLatency("c", 50000000);
+        Thread.sleep(200);
+        selector.recordLatency("a", 1000000);
+        selector.recordLatency("b", 1000000);
+        int slow = 0;
+        for (int i = 0; i < 300; i++) {
+            if ("c".equals(selector.select(hosts))) {
+                slow++;
+            }
+        }
+        assertTrue(slow > 0);
+        assertEquals(50000000, selector.getLatency("c"));
+    }
+
+    @Test
+    public void testDownHostIsSkipped() {
+        HostSelector selector = new HostSelector(5000, 60000);
+        selector.markDown("a", 0);
+        assertFalse(selector.isAvailable("a"));
+        for (int i = 0; i < 100; i++) {
+            assertFalse("a".equals(selector.select(hosts)));
+        }
+        selector.recordLatency("a", 1000);
+        assertTrue(selector.isAvailable("a"));
+    }
+
+    @Test
+    public void testFirstHostBackIsProbedWhenAllAreDown() throws InterruptedException {
+        HostSelector selector = new HostSelector(5000, 60000);
+        selector.markDown("b", 0);
+        selector.markDown("b", 0);
+        selector.markDown("c", 0);
+        Thread.sleep(10);
+        selector.markDown("a", 0);
+        assertEquals("c", selector.select(hosts));
+        selector = new HostSelector(0, 0);
+        selector.markDown("a", 0);
+        assertTrue(selector.isAvailable("a"));
+    }
+}
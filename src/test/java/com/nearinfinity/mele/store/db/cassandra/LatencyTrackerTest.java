@@ -0,0 +1,34 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import static junit.framework.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void testPercentile() {
+        LatencyTracker tracker = new LatencyTracker(1024, 0.95);
+        for (int i = 1; i <= 127; i++) {
+            tracker.record(i);
+        }
+        assertEquals(-1, tracker.getPercentile());
+        for (int i = 128; i <= 1024; i++) {
+            tracker.record(i);
+        }
+        assertEquals(973, tracker.getPercentile());
+    }
+
+    @Test
+    public void testOldSamplesAreForgotten() {
+        LatencyTracker tracker = new LatencyTracker(256, 0.5);
+        for (int i = 0; i < 256; i++) {
+            tracker.record(1000);
+        }
+        assertEquals(1000, tracker.getPercentile());
+        for (int i = 0; i < 256; i++) {
+            tracker.record(10);
+        }
+        assertEquals(10, tracker.getPercentile());
+    }
+}
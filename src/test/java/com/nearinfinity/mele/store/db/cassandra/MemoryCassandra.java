@@ -0,0 +1,238 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.NotFoundException;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.thrift.Cassandra.Client;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+/**
+ * Keeps the rows of a single column family in memory and hands out clients
+ * that read and write them with the timestamp rules of Cassandra, a deletion
+ * removes every column written at or before its timestamp. Every call is
+ * atomic, a listener can run code between the calls of another client.
+ */
+public class MemoryCassandra {
+
+    public interface Listener {
+        void afterGetSlice(String key) throws Exception;
+    }
+
+    private static final Comparator<byte[]> BYTES = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            for (int i = 0; i < a.length && i < b.length; i++) {
+                int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private final Map<String, Row> rows = new HashMap<String, Row>();
+    private final AtomicInteger readCount = new AtomicInteger();
+    private volatile Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of read calls made by all clients.
+     */
+    public int getReadCount() {
+        return readCount.get();
+    }
+
+    public Client newClient() {
+        return new Client(new TBinaryProtocol(new TMemoryBuffer(0))) {
+            @Override
+            public ColumnOrSuperColumn get(String keySpace, String key, ColumnPath columnPath,
+                    ConsistencyLevel consistencyLevel) throws NotFoundException {
+                readCount.incrementAndGet();
+                ColumnOrSuperColumn column = MemoryCassandra.this.get(key, columnPath.column);
+                if (column == null) {
+                    throw new NotFoundException();
+                }
+                return column;
+            }
+
+            @Override
+            public List<ColumnOrSuperColumn> get_slice(String keySpace, String key, ColumnParent columnParent,
+                    SlicePredicate predicate, ConsistencyLevel consistencyLevel) {
+                readCount.incrementAndGet();
+                List<ColumnOrSuperColumn> columns = getSlice(key, predicate);
+                Listener current = listener;
+                if (current != null) {
+                    try {
+                        current.afterGetSlice(key);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return columns;
+            }
+
+            @Override
+            public Map<String, ColumnOrSuperColumn> multiget(String keySpace, List<String> keys,
+                    ColumnPath columnPath, ConsistencyLevel consistencyLevel) {
+                readCount.incrementAndGet();
+                Map<String, ColumnOrSuperColumn> result = new HashMap<String, ColumnOrSuperColumn>();
+                for (String key : keys) {
+                    result.put(key, MemoryCassandra.this.get(key, columnPath.column));
+                }
+                return result;
+            }
+
+            @Override
+            public Map<String, List<ColumnOrSuperColumn>> multiget_slice(String keySpace, List<String> keys,
+                    ColumnParent columnParent, SlicePredicate predicate, ConsistencyLevel consistencyLevel) {
+                readCount.incrementAndGet();
+                Map<String, List<ColumnOrSuperColumn>> result = new HashMap<String, List<ColumnOrSuperColumn>>();
+                for (String key : keys) {
+                    result.put(key, getSlice(key, predicate));
+                }
+                return result;
+            }
+
+            @Override
+            public void insert(String keySpace, String key, ColumnPath columnPath, byte[] value, long timestamp,
+                    ConsistencyLevel consistencyLevel) {
+                MemoryCassandra.this.insert(key, new Column(columnPath.column, value, timestamp));
+            }
+
+            @Override
+            public void remove(String keySpace, String key, ColumnPath columnPath, long timestamp,
+                    ConsistencyLevel consistencyLevel) {
+                MemoryCassandra.this.remove(key, columnPath.column, timestamp);
+            }
+
+            @Override
+            public void batch_mutate(String keySpace, Map<String, Map<String, List<Mutation>>> mutationMap,
+                    ConsistencyLevel consistencyLevel) {
+                MemoryCassandra.this.batchMutate(mutationMap);
+            }
+        };
+    }
+
+    private synchronized ColumnOrSuperColumn get(String key, byte[] name) {
+        Row row = rows.get(key);
+        Column column = row == null ? null : row.columns.get(name);
+        return column == null ? null : new ColumnOrSuperColumn().setColumn(column);
+    }
+
+    private synchronized List<ColumnOrSuperColumn> getSlice(String key, SlicePredicate predicate) {
+        List<ColumnOrSuperColumn> result = new ArrayList<ColumnOrSuperColumn>();
+        Row row = rows.get(key);
+        if (row == null) {
+            return result;
+        }
+        if (predicate.column_names != null) {
+            for (byte[] name : predicate.column_names) {
+                Column column = row.columns.get(name);
+                if (column != null) {
+                    result.add(new ColumnOrSuperColumn().setColumn(column));
+                }
+            }
+            return result;
+        }
+        SliceRange range = predicate.slice_range;
+        for (Column column : row.columns.values()) {
+            if (result.size() == range.count) {
+                break;
+            }
+            if ((range.start.length == 0 || BYTES.compare(column.name, range.start) >= 0)
+                    && (range.finish.length == 0 || BYTES.compare(column.name, range.finish) <= 0)) {
+                result.add(new ColumnOrSuperColumn().setColumn(column));
+            }
+        }
+        return result;
+    }
+
+    private synchronized void insert(String key, Column column) {
+        Row row = rows.get(key);
+        if (row == null) {
+            row = new Row();
+            rows.put(key, row);
+        }
+        Long deleted = row.deleted.get(column.name);
+        Column current = row.columns.get(column.name);
+        if (column.timestamp <= row.rowDeleted || (deleted != null && column.timestamp <= deleted)
+                || (current != null && current.timestamp > column.timestamp)) {
+            return;
+        }
+        row.columns.put(column.name, column);
+    }
+
+    private synchronized void remove(String key, byte[] name, long timestamp) {
+        Row row = rows.get(key);
+        if (row == null) {
+            row = new Row();
+            rows.put(key, row);
+        }
+        if (name == null) {
+            row.rowDeleted = Math.max(row.rowDeleted, timestamp);
+            List<byte[]> names = new ArrayList<byte[]>(row.columns.keySet());
+            for (byte[] columnName : names) {
+                removeColumn(row, columnName, timestamp);
+            }
+        } else {
+            Long deleted = row.deleted.get(name);
+            row.deleted.put(name, deleted == null ? timestamp : Math.max(deleted, timestamp));
+            removeColumn(row, name, timestamp);
+        }
+    }
+
+    private static void removeColumn(Row row, byte[] name, long timestamp) {
+        Column column = row.columns.get(name);
+        if (column != null && column.timestamp <= timestamp) {
+            row.columns.remove(name);
+        }
+    }
+
+    private synchronized void batchMutate(Map<String, Map<String, List<Mutation>>> mutationMap) {
+        for (Entry<String, Map<String, List<Mutation>>> entry : mutationMap.entrySet()) {
+            for (List<Mutation> mutations : entry.getValue().values()) {
+                for (Mutation mutation : mutations) {
+                    if (mutation.column_or_supercolumn != null) {
+                        insert(entry.getKey(), mutation.column_or_supercolumn.column);
+                    } else {
+                        Deletion deletion = mutation.deletion;
+                        if (deletion.predicate == null) {
+                            remove(entry.getKey(), null, deletion.timestamp);
+                        } else {
+                            for (byte[] name : deletion.predicate.column_names) {
+                                remove(entry.getKey(), name, deletion.timestamp);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Row {
+        final TreeMap<byte[], Column> columns = new TreeMap<byte[], Column>(BYTES);
+        final TreeMap<byte[], Long> deleted = new TreeMap<byte[], Long>(BYTES);
+        long rowDeleted = Long.MIN_VALUE;
+    }
+}
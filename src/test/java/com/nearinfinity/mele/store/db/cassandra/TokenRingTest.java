@@ -0,0 +1,51 @@
+package com.nearinfinity.mele.store.db.cassandra;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.apache.cassandra.thrift.TokenRange;
+import org.junit.Test;
+
+public class TokenRingTest {
+
+    private static final BigInteger MAX = BigInteger.valueOf(2).pow(127);
+
+    @Test
+    public void testRowKeyIsRoutedToOwningRange() throws Exception {
+        RandomPartitioner partitioner = (RandomPartitioner) TokenRing.getPartitioner(RandomPartitioner.class.getName());
+        BigInteger t1 = MAX.divide(BigInteger.valueOf(3));
+        BigInteger t2 = t1.shiftLeft(1);
+        List<TokenRange> ranges = new ArrayList<TokenRange>();
+        ranges.add(new TokenRange(t2.toString(), "0", Arrays.asList("a", "b")));
+        ranges.add(new TokenRange("0", t1.toString(), Arrays.asList("b", "c")));
+        ranges.add(new TokenRange(t1.toString(), t2.toString(), Arrays.asList("c", "a")));
+        TokenRing ring = new TokenRing(partitioner, ranges);
+        assertEquals(3, ring.getHosts().size());
+
+        for (int i = 0; i < 100; i++) {
+            String rowKey = "cluster/dir/_" + i + ".tis";
+            BigInteger token = new BigInteger(partitioner.getTokenFactory().toString(partitioner.getToken(rowKey)));
+            List<String> endpoints = ring.getEndpoints(rowKey);
+            if (token.compareTo(t1) <= 0 && token.signum() > 0) {
+                assertEquals(Arrays.asList("b", "c"), endpoints);
+            } else if (token.compareTo(t2) <= 0 && token.signum() > 0) {
+                assertEquals(Arrays.asList("c", "a"), endpoints);
+            } else {
+                assertEquals(Arrays.asList("a", "b"), endpoints);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyRing() throws Exception {
+        TokenRing ring = new TokenRing(new RandomPartitioner(), new ArrayList<TokenRange>());
+        assertTrue(ring.getEndpoints("row").isEmpty());
+        assertTrue(ring.getHosts().isEmpty());
+    }
+}
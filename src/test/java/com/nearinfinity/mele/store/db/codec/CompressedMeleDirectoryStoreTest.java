@@ -0,0 +1,109 @@
+package com.nearinfinity.mele.store.db.codec;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.MemoryMeleDirectoryStore;
+
+public class CompressedMeleDirectoryStoreTest {
+
+    private MemoryMeleDirectoryStore memoryStore;
+    private CompressedMeleDirectoryStore store;
+
+    @Before
+    public void setUp() {
+        memoryStore = new MemoryMeleDirectoryStore();
+        store = new CompressedMeleDirectoryStore(memoryStore, CompressedMeleDirectoryStore.getCodec("deflate"));
+    }
+
+    @Test
+    public void testCompressibleBlock() throws IOException {
+        byte[] block = new byte[1024];
+        Arrays.fill(block, (byte) 7);
+        store.saveBlock("test", 0, block);
+        assertTrue(memoryStore.fetchBlock("test", 0).length < block.length);
+        assertTrue(Arrays.equals(block, store.fetchBlock("test", 0)));
+    }
+
+    @Test
+    public void testIncompressibleBlockIsStoredRaw() throws IOException {
+        byte[] block = new byte[1024];
+        new Random(1).nextBytes(block);
+        store.saveBlock("test", 0, block);
+        byte[] saved = memoryStore.fetchBlock("test", 0);
+        assertEquals(block.length + CompressedMeleDirectoryStore.HEADER_LENGTH, saved.length);
+        assertTrue(Arrays.equals(block, Arrays.copyOfRange(saved, CompressedMeleDirectoryStore.HEADER_LENGTH,
+                saved.length)));
+        assertTrue(Arrays.equals(block, store.fetchBlock("test", 0)));
+    }
+
+    @Test
+    public void testBlockThatShrinksLessThanHeaderIsStoredRaw() throws IOException {
+        BlockCodec codec = CompressedMeleDirectoryStore.getCodec("deflate");
+        byte[] block = new byte[1024];
+        byte[] output = new byte[2048];
+        int maxSize = block.length - CompressedMeleDirectoryStore.HEADER_LENGTH;
+        int size = Integer.MAX_VALUE;
+        for (int zeros = 0; size >= block.length || size <= maxSize; zeros++) {
+            new Random(1).nextBytes(block);
+            Arrays.fill(block, 0, zeros, (byte) 0);
+            size = codec.compress(block, 0, block.length, output, 0, output.length);
+        }
+        store.saveBlock("test", 0, block);
+        assertEquals(block.length + CompressedMeleDirectoryStore.HEADER_LENGTH, memoryStore.fetchBlock("test", 0).length);
+    }
+
+    @Test
+    public void testBlocksWrittenBeforeCompressionArePassedThrough() throws IOException {
+        byte[] block = new byte[1024];
+        new Random(1).nextBytes(block);
+        memoryStore.saveBlock("test", 0, block);
+        memoryStore.saveBlock("test", 1, new byte[3]);
+        assertTrue(Arrays.equals(block, store.fetchBlock("test", 0)));
+        Map<Long, byte[]> fetched = store.fetchBlocks("test", Arrays.asList(0L, 1L));
+        assertTrue(Arrays.equals(block, fetched.get(0L)));
+        assertTrue(Arrays.equals(new byte[3], fetched.get(1L)));
+    }
+
+    @Test
+    public void testBatchRoundTrip() throws IOException {
+        Map<Long, byte[]> blocks = new HashMap<Long, byte[]>();
+        Random random = new Random(1);
+        for (long blockId = 0; blockId < 4; blockId++) {
+            byte[] block = new byte[512];
+            if (blockId % 2 == 0) {
+                random.nextBytes(block);
+            }
+            blocks.put(blockId, block);
+        }
+        store.saveBlocks("test", blocks);
+        Map<Long, byte[]> fetched = store.fetchBlocks("test", Arrays.asList(0L, 1L, 2L, 3L, 4L));
+        assertEquals(4, fetched.size());
+        for (long blockId = 0; blockId < 4; blockId++) {
+            assertTrue(Arrays.equals(blocks.get(blockId), fetched.get(blockId)));
+        }
+    }
+
+    @Test
+    public void testCodecCanBeUsedAfterClose() throws IOException {
+        DeflateBlockCodec codec = new DeflateBlockCodec();
+        store = new CompressedMeleDirectoryStore(memoryStore, codec);
+        byte[] block = new byte[1024];
+        Arrays.fill(block, (byte) 7);
+        store.saveBlock("test", 0, block);
+        assertTrue(Arrays.equals(block, store.fetchBlock("test", 0)));
+        codec.close();
+        store.saveBlock("test", 1, block);
+        assertTrue(Arrays.equals(block, store.fetchBlock("test", 0)));
+        assertTrue(Arrays.equals(block, store.fetchBlock("test", 1)));
+    }
+}
@@ -0,0 +1,232 @@
+package com.nearinfinity.mele.store.db.dedup;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Cassandra.Client;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.MeleDirectory;
+import com.nearinfinity.mele.store.db.MemoryMeleDirectoryStore;
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+import com.nearinfinity.mele.store.db.cassandra.CassandraContentStore;
+import com.nearinfinity.mele.store.db.cassandra.CassandraExecutor;
+import com.nearinfinity.mele.store.db.cassandra.MemoryCassandra;
+
+public class DedupMeleDirectoryStoreTest {
+
+    private MemoryContentStore contentStore;
+    private MemoryMeleDirectoryStore memoryStore1;
+    private MemoryMeleDirectoryStore memoryStore2;
+    private DedupMeleDirectoryStore store1;
+    private DedupMeleDirectoryStore store2;
+
+    @Before
+    public void setUp() {
+        contentStore = new MemoryContentStore();
+        memoryStore1 = new MemoryMeleDirectoryStore();
+        memoryStore2 = new MemoryMeleDirectoryStore();
+        store1 = new DedupMeleDirectoryStore(memoryStore1, contentStore, "cluster/dir1");
+        store2 = new DedupMeleDirectoryStore(memoryStore2, contentStore, "cluster/dir2");
+    }
+
+    @Test
+    public void testIdenticalBlocksAreStoredOnce() throws IOException {
+        byte[] block = randomBytes(1024);
+        store1.saveBlock("a", 0, block);
+        store1.saveBlock("b", 3, block);
+        store2.saveBlock("a", 0, block);
+        assertEquals(1, contentStore.saveCount.get());
+        assertEquals(1, contentStore.contents.size());
+        assertEquals(DedupMeleDirectoryStore.HASH_RECORD_LENGTH, memoryStore1.fetchBlock("a", 0).length);
+        assertTrue(Arrays.equals(block, store1.fetchBlock("b", 3)));
+        assertTrue(Arrays.equals(block, store2.fetchBlock("a", 0)));
+
+        store1.saveBlock("a", 0, block);
+        assertEquals(1, contentStore.saveCount.get());
+        assertEquals(3, contentStore.references.values().iterator().next().size());
+    }
+
+    @Test
+    public void testContentIsCollectedAfterLastReference() throws IOException {
+        byte[] block = randomBytes(1024);
+        store1.saveBlock("a", 0, block);
+        store2.saveBlock("a", 0, block);
+        store1.removeBlocks("a", Arrays.asList(0L));
+        assertEquals(0, contentStore.collectGarbage(0));
+        assertTrue(Arrays.equals(block, store2.fetchBlock("a", 0)));
+        store2.removeBlock("a", 0);
+        assertEquals(0, contentStore.collectGarbage(60000));
+        assertEquals(1, contentStore.contents.size());
+        assertEquals(1, contentStore.collectGarbage(0));
+        assertEquals(0, contentStore.contents.size());
+        assertNull(store2.fetchBlock("a", 0));
+
+        store1.saveBlock("a", 0, block);
+        store1.saveBlock("a", 0, new byte[1024]);
+        store1.saveBlock("b", 0, block);
+        assertEquals(0, contentStore.collectGarbage(0));
+        assertEquals(2, contentStore.contents.size());
+        assertTrue(Arrays.equals(new byte[1024], store1.fetchBlock("a", 0)));
+    }
+
+    @Test
+    public void testBlocksAreSavedInBatches() throws IOException {
+        Map<Long, byte[]> blocks = new HashMap<Long, byte[]>();
+        for (long i = 0; i < 10; i++) {
+            blocks.put(i, randomBytes(1024 + (int) i));
+        }
+        store1.saveBlocks("a", blocks);
+        assertEquals(2, contentStore.batchCount.get());
+        assertEquals(10, contentStore.saveCount.get());
+        assertEquals(10, store1.fetchBlocks("a", new ArrayList<Long>(blocks.keySet())).size());
+    }
+
+    @Test
+    public void testBlocksWrittenBeforeDedupArePassedThrough() throws IOException {
+        byte[] block = randomBytes(1024);
+        memoryStore1.saveBlock("a", 0, block);
+        memoryStore1.saveBlock("a", 1, block);
+        assertTrue(Arrays.equals(block, store1.fetchBlock("a", 0)));
+        assertTrue(Arrays.equals(block, store1.fetchBlocks("a", Arrays.asList(0L, 1L)).get(1L)));
+
+        store1.saveBlock("a", 0, new byte[1024]);
+        store1.removeBlock("a", 1);
+        assertEquals(1, contentStore.contents.size());
+        assertTrue(Arrays.equals(new byte[1024], store1.fetchBlock("a", 0)));
+        assertNull(store1.fetchBlock("a", 1));
+    }
+
+    @Test
+    public void testCopiedFileIsNotUploadedAgain() throws IOException {
+        byte[] data = randomBytes(1024 * 5 + 10);
+        write(new MeleDirectory(store1, BLOCK_SIZE._1K), "test", data);
+        int saveCount = contentStore.saveCount.get();
+        assertEquals(6, saveCount);
+
+        MeleDirectory directory = new MeleDirectory(store2, BLOCK_SIZE._1K);
+        write(directory, "copy", data);
+        assertEquals(saveCount, contentStore.saveCount.get());
+
+        IndexInput input = directory.openInput("copy");
+        byte[] buf = new byte[data.length];
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        assertTrue(Arrays.equals(data, buf));
+    }
+
+    @Test
+    public void testWritingFileDoesNotReadPreviousBlocks() throws IOException {
+        MeleDirectory directory = new MeleDirectory(store1, BLOCK_SIZE._1K);
+        write(directory, "test", randomBytes(1024 * 5 + 10));
+        assertEquals(0, memoryStore1.fetchCount.get());
+        assertEquals(6, contentStore.contents.size());
+
+        // the shorter file starts with the same blocks, the last three are released
+        byte[] data = randomBytes(1024 * 3);
+        write(directory, "test", data);
+        assertEquals(6, memoryStore1.fetchCount.get());
+        assertEquals(1, memoryStore1.batchFetchCount.get());
+        assertNull(memoryStore1.fetchBlock("test", 5));
+        assertEquals(3, contentStore.collectGarbage(0));
+        assertEquals(3, contentStore.contents.size());
+
+        IndexInput input = directory.openInput("test");
+        byte[] buf = new byte[data.length];
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        assertTrue(Arrays.equals(data, buf));
+    }
+
+    @Test
+    public void testContentReferencedWhileCollectedIsKept() throws Exception {
+        // the block is referenced again right after the first and right
+        // after the second pass of the collector read the content row
+        for (int racingPass = 1; racingPass <= 2; racingPass++) {
+            setUp();
+            runCollectionRace(racingPass);
+        }
+    }
+
+    private void runCollectionRace(final int racingPass) throws Exception {
+        final MemoryCassandra cassandra = new MemoryCassandra();
+        CassandraExecutor executor = new CassandraExecutor("keyspace", 9160, 4, 4, 0, 5000, "host") {
+            @Override
+            protected Client newClient(String host) {
+                return cassandra.newClient();
+            }
+        };
+        try {
+            CassandraContentStore cassandraStore = new CassandraContentStore("keyspace", "cf", executor);
+            DedupMeleDirectoryStore writer1 = new DedupMeleDirectoryStore(memoryStore1, cassandraStore, "cluster/dir1");
+            final DedupMeleDirectoryStore writer2 = new DedupMeleDirectoryStore(memoryStore2, cassandraStore,
+                    "cluster/dir2");
+            final byte[] block = randomBytes(1024);
+            writer1.saveBlock("a", 0, block);
+            writer1.removeBlock("a", 0);
+            final AtomicInteger contentReads = new AtomicInteger();
+            cassandra.setListener(new MemoryCassandra.Listener() {
+                @Override
+                public void afterGetSlice(String key) throws Exception {
+                    if (!key.startsWith("content/") || contentReads.incrementAndGet() != racingPass) {
+                        return;
+                    }
+                    Thread writer = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(2);
+                                writer2.saveBlock("a", 0, block);
+                                Thread.sleep(2);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    };
+                    writer.start();
+                    writer.join();
+                }
+            });
+            Thread.sleep(2);
+            assertEquals(0, cassandraStore.collectGarbage(0));
+            Thread.sleep(2);
+            cassandraStore.collectGarbage(0);
+            assertEquals(2, contentReads.get());
+            assertTrue("Racing pass [" + racingPass + "]", Arrays.equals(block, writer2.fetchBlock("a", 0)));
+
+            writer2.removeBlock("a", 0);
+            Thread.sleep(2);
+            assertEquals(0, cassandraStore.collectGarbage(0));
+            Thread.sleep(2);
+            assertEquals(1, cassandraStore.collectGarbage(0));
+            assertNull(writer2.fetchBlock("a", 0));
+        } finally {
+            executor.close();
+        }
+    }
+
+    private void write(MeleDirectory directory, String name, byte[] data) throws IOException {
+        IndexOutput output = directory.createOutput(name);
+        output.writeBytes(data, data.length);
+        output.close();
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,89 @@
+package com.nearinfinity.mele.store.db.dedup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MemoryContentStore implements ContentStore {
+
+    public final Map<String, byte[]> contents = new ConcurrentHashMap<String, byte[]>();
+    public final Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+    public final Map<String, Long> removed = new HashMap<String, Long>();
+    public final AtomicInteger saveCount = new AtomicInteger();
+    public final AtomicInteger batchCount = new AtomicInteger();
+
+    @Override
+    public synchronized Set<String> addReferences(Map<String, String> references) throws IOException {
+        batchCount.incrementAndGet();
+        Set<String> stored = new HashSet<String>();
+        for (Entry<String, String> entry : references.entrySet()) {
+            Set<String> set = this.references.get(entry.getValue());
+            if (set == null) {
+                set = new HashSet<String>();
+                this.references.put(entry.getValue(), set);
+            }
+            set.add(entry.getKey());
+            if (contents.containsKey(entry.getValue())) {
+                stored.add(entry.getValue());
+            }
+        }
+        return stored;
+    }
+
+    @Override
+    public synchronized void removeReferences(Map<String, String> references) throws IOException {
+        batchCount.incrementAndGet();
+        for (Entry<String, String> entry : references.entrySet()) {
+            Set<String> set = this.references.get(entry.getValue());
+            if (set != null && set.remove(entry.getKey()) && set.isEmpty()) {
+                this.references.remove(entry.getValue());
+                removed.put(entry.getValue(), System.currentTimeMillis());
+            }
+        }
+    }
+
+    @Override
+    public void saveContents(Map<String, byte[]> contents) throws IOException {
+        batchCount.incrementAndGet();
+        for (Entry<String, byte[]> entry : contents.entrySet()) {
+            saveCount.incrementAndGet();
+            this.contents.put(entry.getKey(), entry.getValue().clone());
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> fetchContents(List<String> hashes) throws IOException {
+        Map<String, byte[]> result = new HashMap<String, byte[]>();
+        for (String hash : hashes) {
+            byte[] content = contents.get(hash);
+            if (content != null) {
+                result.put(hash, content);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int collectGarbage(long gracePeriod) throws IOException {
+        long expired = System.currentTimeMillis() - gracePeriod;
+        int collected = 0;
+        for (Iterator<Entry<String, Long>> iterator = removed.entrySet().iterator(); iterator.hasNext();) {
+            Entry<String, Long> entry = iterator.next();
+            if (references.containsKey(entry.getKey())) {
+                iterator.remove();
+            } else if (entry.getValue() <= expired) {
+                contents.remove(entry.getKey());
+                iterator.remove();
+                collected++;
+            }
+        }
+        return collected;
+    }
+}
@@ -0,0 +1,163 @@
+package com.nearinfinity.mele.store.db.local;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.FileMetaData;
+import com.nearinfinity.mele.store.db.MeleDirectory;
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+
+public class LogStructuredMeleDirectoryStoreTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private File dir;
+    private LogStructuredMeleDirectoryStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("target/test-tmp/logstore-" + UUID.randomUUID());
+        store = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRecoverAfterReopen() throws IOException {
+        byte[] block = randomBytes(1024);
+        store.saveBlock("a", 0, block);
+        store.saveBlock("a", 1, block);
+        store.setFileLength("a", 2048, 10);
+        store.setFileData("b", new byte[] { 1, 2, 3 }, 10);
+        store.setFileLength("c", 1);
+        store.removeFileMetaData("c");
+        store.removeBlock("a", 1);
+        store.close();
+
+        store = open();
+        assertTrue(Arrays.equals(block, store.fetchBlock("a", 0)));
+        assertNull(store.fetchBlock("a", 1));
+        assertEquals(2048, store.getFileLength("a"));
+        assertEquals(10, store.getFileMetaData("a").getBlockShift());
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, store.getFileMetaData("b").getData()));
+        assertFalse(store.fileExists("c"));
+        assertEquals(2, store.getAllFileNames().size());
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        byte[] block = randomBytes(1024);
+        store.saveBlock("a", 0, block);
+        store.saveBlock("a", 1, block);
+        store.close();
+
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, "segment-0.log"), "rw");
+        raf.seek(1024 + 40);
+        raf.write(new byte[] { 1, 2, 3, 4 });
+        raf.close();
+
+        store = open();
+        assertTrue(Arrays.equals(block, store.fetchBlock("a", 0)));
+        assertNull(store.fetchBlock("a", 1));
+        store.saveBlock("a", 2, block);
+        store.close();
+
+        store = open();
+        assertTrue(Arrays.equals(block, store.fetchBlock("a", 2)));
+        assertNull(store.fetchBlock("a", 1));
+    }
+
+    @Test
+    public void testCompactionKeepsLiveRecords() throws IOException {
+        Random random = new Random(1);
+        byte[][] blocks = new byte[8][];
+        for (int i = 0; i < 10; i++) {
+            for (int blockId = 0; blockId < blocks.length; blockId++) {
+                blocks[blockId] = new byte[4096];
+                random.nextBytes(blocks[blockId]);
+                store.saveBlock("a", blockId, blocks[blockId]);
+            }
+        }
+        store.saveBlock("b", 0, blocks[0]);
+        store.removeBlock("b", 0);
+        store.setFileLength("a", 4096 * 8);
+        assertTrue(store.getNumberOfSegments() > 4);
+        store.compact();
+        assertTrue(store.getNumberOfSegments() <= 2);
+        for (int blockId = 0; blockId < blocks.length; blockId++) {
+            assertTrue(Arrays.equals(blocks[blockId], store.fetchBlock("a", blockId)));
+        }
+        store.close();
+
+        store = open();
+        for (int blockId = 0; blockId < blocks.length; blockId++) {
+            assertTrue(Arrays.equals(blocks[blockId], store.fetchBlock("a", blockId)));
+        }
+        assertNull(store.fetchBlock("b", 0));
+        assertEquals(4096 * 8, store.getFileLength("a"));
+    }
+
+    @Test
+    public void testLuceneIndex() throws Exception {
+        MeleDirectory directory = new MeleDirectory(store, BLOCK_SIZE._1K);
+        IndexWriter writer = new IndexWriter(directory, new StandardAnalyzer(Version.LUCENE_30),
+                MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 1000; i++) {
+            Document document = new Document();
+            document.add(new Field("id", UUID.randomUUID().toString(), Store.YES, Index.ANALYZED_NO_NORMS));
+            writer.addDocument(document);
+        }
+        writer.close();
+        store.compact();
+        store.close();
+
+        store = open();
+        directory = new MeleDirectory(store, BLOCK_SIZE._1K);
+        assertEquals(1000, IndexReader.open(directory).numDocs());
+        for (FileMetaData metaData : store.getAllFileMetaData()) {
+            assertTrue(directory.fileExists(metaData.getName()));
+        }
+    }
+
+    private LogStructuredMeleDirectoryStore open() throws IOException {
+        return new LogStructuredMeleDirectoryStore(dir, SEGMENT_SIZE, 0.5, 0);
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+}
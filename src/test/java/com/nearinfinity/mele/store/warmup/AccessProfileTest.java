@@ -0,0 +1,111 @@
+package com.nearinfinity.mele.store.warmup;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nearinfinity.mele.store.db.MeleDirectory;
+import com.nearinfinity.mele.store.db.MemoryMeleDirectoryStore;
+import com.nearinfinity.mele.store.db.MeleDirectory.BLOCK_SIZE;
+import com.nearinfinity.mele.store.db.cache.BlockCache;
+import com.nearinfinity.mele.store.warmup.AccessProfile.Region;
+
+public class AccessProfileTest {
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File("target/test-tmp/profile-" + UUID.randomUUID());
+        file.getParentFile().mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        AccessProfile profile = new AccessProfile(12, 2);
+        profile.record("a", 1);
+        profile.record("a", 5);
+        profile.record("a", 5);
+        profile.record("a", 5);
+        profile.record("b", 0);
+        profile.record("b", 0);
+        profile.save(file);
+        assertEquals(1, profile.getHeat("a", 5));
+        assertEquals(1, profile.getHeat("b", 0));
+        assertEquals(0, profile.getHeat("a", 1));
+
+        AccessProfile loaded = AccessProfile.load(file, 2);
+        assertEquals(12, loaded.getRegionShift());
+        List<Region> regions = loaded.getHotRegions();
+        assertEquals(2, regions.size());
+        assertEquals("a", regions.get(0).getFileName());
+        assertEquals(5, regions.get(0).getRegion());
+        assertEquals(3, loaded.getHeat("a", 5));
+        assertEquals(2, loaded.getHeat("b", 0));
+    }
+
+    @Test
+    public void testWarmUpFillsBlockCache() throws IOException {
+        MemoryMeleDirectoryStore store = new MemoryMeleDirectoryStore();
+        byte[] data = new byte[64 * 1024];
+        new Random(1).nextBytes(data);
+        MeleDirectory directory = new MeleDirectory(store, BLOCK_SIZE._1K, new BlockCache(1024 * 1024, 0, 1),
+                "cluster", "dir");
+        directory.setSmallFileThreshold(0);
+        IndexOutput output = directory.createOutput("test");
+        output.writeBytes(data, data.length);
+        output.close();
+
+        AccessProfile profile = new AccessProfile(12, AccessProfile.DEFAULT_MAX_REGIONS);
+        Directory profiling = new ProfilingDirectory(directory, profile);
+        IndexInput input = profiling.openInput("test");
+        input.seek(40000);
+        byte[] buf = new byte[100];
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        assertEquals(1, profile.size());
+        profile.save(file);
+
+        directory = new MeleDirectory(store, BLOCK_SIZE._1K, new BlockCache(1024 * 1024, 0, 1), "cluster", "dir");
+        directory.setSmallFileThreshold(0);
+        assertEquals(4096, AccessProfile.load(file, AccessProfile.DEFAULT_MAX_REGIONS).warmUp(directory));
+        int fetchCount = store.fetchCount.get();
+        input = directory.openInput("test");
+        input.seek(40000);
+        input.readBytes(buf, 0, buf.length);
+        input.close();
+        assertEquals(fetchCount, store.fetchCount.get());
+        for (int i = 0; i < buf.length; i++) {
+            assertEquals(data[40000 + i], buf[i]);
+        }
+    }
+
+    @Test
+    public void testRewrittenFileIsForgotten() throws IOException {
+        AccessProfile profile = new AccessProfile();
+        profile.record("a", 0);
+        profile.record("b", 0);
+        MemoryMeleDirectoryStore store = new MemoryMeleDirectoryStore();
+        Directory directory = new ProfilingDirectory(new MeleDirectory(store, BLOCK_SIZE._1K), profile);
+        directory.createOutput("a").close();
+        assertEquals(0, profile.getHeat("a", 0));
+        assertTrue(profile.getHeat("b", 0) > 0);
+    }
+}
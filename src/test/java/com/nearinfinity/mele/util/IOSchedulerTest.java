@@ -0,0 +1,92 @@
+package com.nearinfinity.mele.util;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class IOSchedulerTest {
+
+    @Test
+    public void testBackgroundShareLeavesPermitsForInteractive() throws Exception {
+        IOScheduler scheduler = new IOScheduler(2, 0.5, 0);
+        IOPriority previous = IOPriority.set(IOPriority.BACKGROUND);
+        IOPriority background;
+        try {
+            background = scheduler.acquire();
+        } finally {
+            IOPriority.set(previous);
+        }
+        Thread waiting = start(scheduler, IOPriority.BACKGROUND, new ArrayList<IOPriority>(), null);
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+        assertEquals(1, scheduler.getBackgroundPermitsInUse());
+
+        IOPriority interactive = scheduler.acquire();
+        assertEquals(IOPriority.INTERACTIVE, interactive);
+        assertEquals(2, scheduler.getPermitsInUse());
+        scheduler.release(interactive);
+        scheduler.release(background);
+        waiting.join(1000);
+        assertEquals(0, scheduler.getPermitsInUse());
+    }
+
+    @Test
+    public void testInteractiveGoesFirst() throws Exception {
+        IOScheduler scheduler = new IOScheduler(1, 1.0, 0);
+        IOPriority held = scheduler.acquire();
+        List<IOPriority> order = Collections.synchronizedList(new ArrayList<IOPriority>());
+        CountDownLatch release = new CountDownLatch(1);
+        Thread background = start(scheduler, IOPriority.BACKGROUND, order, release);
+        Thread.sleep(100);
+        Thread interactive = start(scheduler, IOPriority.INTERACTIVE, order, release);
+        Thread.sleep(100);
+        release.countDown();
+        scheduler.release(held);
+        interactive.join(1000);
+        background.join(1000);
+        assertEquals(2, order.size());
+        assertEquals(IOPriority.INTERACTIVE, order.get(0));
+        assertEquals(IOPriority.BACKGROUND, order.get(1));
+    }
+
+    @Test
+    public void testBackgroundBandwidth() throws Exception {
+        IOScheduler scheduler = new IOScheduler(1, 1.0, 1024 * 1024);
+        long start = System.nanoTime();
+        scheduler.throttle(IOPriority.INTERACTIVE, 1024 * 1024);
+        scheduler.throttle(IOPriority.BACKGROUND, 512 * 1024);
+        scheduler.throttle(IOPriority.BACKGROUND, 512 * 1024);
+        scheduler.throttle(IOPriority.BACKGROUND, 1);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 900);
+    }
+
+    private Thread start(final IOScheduler scheduler, final IOPriority priority, final List<IOPriority> order,
+            final CountDownLatch release) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                IOPriority.set(priority);
+                try {
+                    IOPriority granted = scheduler.acquire();
+                    order.add(granted);
+                    if (release != null) {
+                        release.await();
+                    }
+                    scheduler.release(granted);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}